@@ -3,21 +3,43 @@ package mlogix;
 import java.nio.file.*;
 
 import mlogix.compiler.Compiler;
+import mlogix.compiler.issue.*;
 import mlogix.util.*;
 import mlogix.test.compiler.*;
 
 public class Main {
+    static boolean pipelined = false;
+    static boolean parallel = false;
+    static boolean cached = false;
+    static IssueWriter.Format issueFormat = IssueWriter.Format.TEXT;
+    static boolean metrics = false;
+
     public static void main(String[] args) {
         if (args.length == 0) {
             System.out.println("未传入参数");
             return;
         }
 
-        if (args.length >= 2) {
-            switch (args[1]) {
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
                 case "d":
                     Log.setLevel(Log.LogType.DEBUG);
                     break;
+                case "p":
+                    pipelined = true;
+                    break;
+                case "j":
+                    parallel = true;
+                    break;
+                case "cache":
+                    cached = true;
+                    break;
+                case "json":
+                    issueFormat = IssueWriter.Format.JSON;
+                    break;
+                case "metrics":
+                    metrics = true;
+                    break;
             }
         }
 
@@ -29,6 +51,10 @@ public class Main {
             case "t":
                 test();
                 break;
+
+            case "b":
+                benchmark();
+                break;
         }
     }
 
@@ -36,11 +62,20 @@ public class Main {
         // 获取当前工作目录
         Path projectDirectory = Paths.get(System.getProperty("user.dir"));
 
-        Compiler compiler = new Compiler(projectDirectory);
+        Compiler compiler = new Compiler(projectDirectory).pipelined(pipelined).parallel(parallel).cached(cached).issueFormat(issueFormat);
+        if (metrics) {
+            compiler.metricsReport(projectDirectory.resolve(".mlogix").resolve("metrics.json")); // 与语法树缓存同在.mlogix下
+        }
         boolean result = compiler.compile();
     }
 
     static void test() {
         new LexerTest().test();
+        new ParserTest().test();
+        new DiagnosticsTest().test();
+    }
+
+    static void benchmark() {
+        new ParserBenchmark().test();
     }
 }
\ No newline at end of file
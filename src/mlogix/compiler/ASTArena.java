@@ -0,0 +1,467 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.*;
+import mlogix.logix.*;
+
+import java.util.*;
+
+import static mlogix.logix.Expr.*;
+import static mlogix.logix.Stmt.*;
+
+/**
+ * 以结构数组存储的语法树
+ * <p>
+ * 每个节点只占用 种类序号(byte) 首个子节点(int) 下一个兄弟节点(int) Span(long)
+ * 以及节点Token的 类型序号(byte) Span(long) 字面量，不持有Token与列表对象。
+ * 节点按前序排列，遍历时顺序访问数组；子树中的节点都在其根节点之后，因此构建与实例化都不需要递归
+ * <p>
+ * 子节点的数量与顺序由种类决定，为null的字段以{@link Kind#NONE}占位；
+ * Program Block Array的子节点即其列表元素，Call的子节点为被调用者及全部实参，
+ * FnStmt的形参与返回值列表各为一个{@link Kind#LIST}节点
+ * <p>
+ * Compiler以此保存各文件解析的结果，需要对象语法树时(ASTPrinter SemanticVisitor)
+ * 再通过{@link #toProgram()}实例化
+ */
+public class ASTArena {
+    private static final Kind[] KINDS = Kind.values();
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final byte NO_TOKEN = -1;
+    private static final Object CLOSE = new Object(); /* 构建时标记父节点的子节点已全部追加 */
+
+    private byte[] kinds;
+    private int[] firstChildren; /* -1表示无子节点 */
+    private int[] nextSiblings; /* -1表示无下一个兄弟节点 */
+    private long[] spans; /* 见PackedSpan */
+    private byte[] tokenTypes; /* NO_TOKEN表示无Token */
+    private long[] tokenSpans;
+    private Object[] literals;
+    private int size;
+    private int nodeCount; /* 不含NONE LIST的节点数 */
+
+    public enum Kind {
+        PROGRAM, BLOCK, EXPR_STMT, IF_STMT, FOR_STMT, WHILE_STMT, BREAK_STMT, CONTINUE_STMT,
+        FN_STMT, RETURN_STMT, ASSIGN_STMT, SET_VAR_STMT,
+        LITERAL, IDENTIFIER, UNARY, BINARY, ARRAY, INDEX, RANGE, CALL, GET,
+        LIST, /* FnStmt的形参或返回值列表 */
+        NONE /* 为null的子节点 */
+    }
+
+    private ASTArena(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.kinds = new byte[capacity];
+        this.firstChildren = new int[capacity];
+        this.nextSiblings = new int[capacity];
+        this.spans = new long[capacity];
+        this.tokenTypes = new byte[capacity];
+        this.tokenSpans = new long[capacity];
+        this.literals = new Object[capacity];
+    }
+
+    /**
+     * 将对象语法树转为结构数组，以显式栈前序遍历，不受嵌套深度限制；
+     * 延迟解析的函数体在此时解析
+     */
+    public static ASTArena of(ASTNode root) {
+        ASTArena arena = new ASTArena(256);
+        List<Object> stack = new ArrayList<>();
+        int[] parents = new int[16]; /* 子节点尚未追加完的祖先节点 */
+        int[] previous = new int[16]; /* 各祖先节点最后追加的子节点，没有则为-1 */
+        int depth = 0;
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            Object item = stack.remove(stack.size() - 1);
+            if(item == CLOSE) {
+                depth--;
+                continue;
+            }
+            int index = arena.add(item);
+            if(depth > 0) {
+                arena.link(parents[depth - 1], previous[depth - 1], index);
+                previous[depth - 1] = index;
+            }
+            int mark = stack.size();
+            stack.add(CLOSE);
+            pushChildren(stack, item);
+            if(stack.size() == mark + 1) { // 没有子节点
+                stack.remove(mark);
+                continue;
+            }
+            Collections.reverse(stack.subList(mark + 1, stack.size())); // 出栈时按顺序
+            if(depth == parents.length) {
+                parents = Arrays.copyOf(parents, depth * 2);
+                previous = Arrays.copyOf(previous, depth * 2);
+            }
+            parents[depth] = index;
+            previous[depth] = -1;
+            depth++;
+        }
+        arena.grow(arena.size); // 释放多余的容量
+        return arena;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 对应对象语法树中的节点数，不含{@link Kind#NONE}与{@link Kind#LIST}
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public Kind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public int start(int node) {
+        return PackedSpan.start(spans[node]);
+    }
+
+    public int end(int node) {
+        return PackedSpan.end(spans[node]);
+    }
+
+    /**
+     * @return 见PackedSpan
+     */
+    public long span(int node) {
+        return spans[node];
+    }
+
+    /**
+     * 节点Token的类型
+     * @return 无Token则为null
+     */
+    public TokenType tokenType(int node) {
+        return tokenTypes[node] == NO_TOKEN ? null : TYPES[tokenTypes[node] & 0xFF];
+    }
+
+    /**
+     * 实例化节点的Token
+     * @return 无Token则为null
+     */
+    public Token token(int node) {
+        if(tokenTypes[node] == NO_TOKEN) return null;
+        return new Token(TYPES[tokenTypes[node] & 0xFF], tokenSpans[node], literals[node]);
+    }
+
+    public int childCount(int node) {
+        int count = 0;
+        for(int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 实例化为对象语法树，根节点为Program
+     */
+    public Program toProgram() {
+        return (Program) toNode(0);
+    }
+
+    /**
+     * 实例化节点及其子树
+     * <p>
+     * 子树在数组中连续，从后向前构造时每个节点的子节点都已构造完成，不需要递归
+     * @return 为{@link Kind#NONE}时为null
+     */
+    public ASTNode toNode(int node) {
+        if(kind(node) == Kind.LIST) {
+            throw new IllegalArgumentException("LIST节点不能单独实例化");
+        }
+        int last = node; // 子树中前序最后的节点
+        while(firstChildren[last] >= 0) {
+            last = firstChildren[last];
+            while(nextSiblings[last] >= 0) last = nextSiblings[last];
+        }
+        Object[] built = new Object[last - node + 1];
+        for(int i = last; i >= node; i--) {
+            built[i - node] = build(i, built, node);
+        }
+        return (ASTNode) built[0];
+    }
+
+    /* 以已构造的子节点构造node，built[i - base]为节点i的构造结果，LIST为List<Expr> */
+    private Object build(int node, Object[] built, int base) {
+        int child = firstChildren[node];
+        long span = spans[node];
+        ASTNode result = switch(kind(node)) {
+            case PROGRAM -> new Program(span, list(child, built, base));
+            case BLOCK -> new Block(span, list(child, built, base));
+            case EXPR_STMT -> new ExprStmt(span, (Expr) built[child - base]);
+            case IF_STMT -> new IfStmt(span, (Expr) built[child - base], (Stmt) built[(child = nextSiblings[child]) - base],
+                    (Stmt) built[nextSiblings[child] - base]);
+            case FOR_STMT -> new ForStmt(span, (Identifier) built[child - base], (Expr) built[(child = nextSiblings[child]) - base],
+                    (Stmt) built[nextSiblings[child] - base]);
+            case WHILE_STMT -> new WhileStmt(span, (Expr) built[child - base], (Stmt) built[nextSiblings[child] - base]);
+            case BREAK_STMT -> new BreakStmt(span);
+            case CONTINUE_STMT -> new ContinueStmt(span);
+            case FN_STMT -> new FnStmt(span, token(node), cast(built[child - base]),
+                    cast(built[(child = nextSiblings[child]) - base]), (Stmt) built[nextSiblings[child] - base]);
+            case RETURN_STMT -> new ReturnStmt(span, (Expr) built[child - base]);
+            case ASSIGN_STMT -> new AssignStmt(span, (Expr) built[child - base], token(node),
+                    (Expr) built[nextSiblings[child] - base]);
+            case SET_VAR_STMT -> new SetVarStmt(span, (Expr) built[child - base], (Stmt) built[nextSiblings[child] - base]);
+            case LITERAL -> new Literal(token(node));
+            case IDENTIFIER -> new Identifier(token(node));
+            case UNARY -> new Unary(token(node), (Expr) built[child - base]);
+            case BINARY -> new Binary((Expr) built[child - base], token(node), (Expr) built[nextSiblings[child] - base]);
+            case ARRAY -> new Array(span, list(child, built, base));
+            case INDEX -> new Index(span, (Expr) built[child - base], (Expr) built[nextSiblings[child] - base]);
+            case RANGE -> new Range(span, (Expr) built[child - base], token(node), (Expr) built[nextSiblings[child] - base]);
+            case CALL -> new Call(span, (Expr) built[child - base], list(nextSiblings[child], built, base));
+            case GET -> new Get((Expr) built[child - base], (Expr) built[nextSiblings[child] - base]);
+            case LIST -> null;
+            case NONE -> null;
+        };
+        if(kind(node) == Kind.LIST) {
+            return list(child, built, base);
+        }
+        if(result != null) {
+            result.span = span; // 由子节点推导Span的节点也以存储的为准
+        }
+        return result;
+    }
+
+    /* 从node开始的兄弟节点，取出后不再持有 */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> list(int node, Object[] built, int base) {
+        List<T> list = new ArrayList<>();
+        for(; node >= 0; node = nextSiblings[node]) {
+            list.add((T) built[node - base]);
+            built[node - base] = null;
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Expr> cast(Object list) {
+        return (List<Expr>) list;
+    }
+
+    //######################################## 构建
+
+    /* FnStmt的形参或返回值列表 */
+    private record ExprList(List<Expr> exprs) {
+    }
+
+    /* 按前序追加item的子节点，null为NONE占位 */
+    private static void pushChildren(List<Object> stack, Object item) {
+        if(item instanceof ExprList n) {
+            stack.addAll(n.exprs);
+        } else if(item instanceof Program n) {
+            stack.addAll(n.stmts);
+        } else if(item instanceof Block n) {
+            stack.addAll(n.stmts);
+        } else if(item instanceof ExprStmt n) {
+            stack.add(n.expr);
+        } else if(item instanceof IfStmt n) {
+            Collections.addAll(stack, n.condition, n.thenBranch, n.elseBranch);
+        } else if(item instanceof ForStmt n) {
+            Collections.addAll(stack, n.varDecl, n.expr, n.body);
+        } else if(item instanceof WhileStmt n) {
+            Collections.addAll(stack, n.expr, n.body);
+        } else if(item instanceof FnStmt n) {
+            Collections.addAll(stack, new ExprList(n.parameters), new ExprList(n.results), n.body());
+        } else if(item instanceof ReturnStmt n) {
+            stack.add(n.expr);
+        } else if(item instanceof AssignStmt n) {
+            Collections.addAll(stack, n.var, n.value);
+        } else if(item instanceof SetVarStmt n) {
+            Collections.addAll(stack, n.var, n.assignStmt);
+        } else if(item instanceof Unary n) {
+            stack.add(n.expr);
+        } else if(item instanceof Binary n) {
+            Collections.addAll(stack, n.left, n.right);
+        } else if(item instanceof Array n) {
+            stack.addAll(n.elements);
+        } else if(item instanceof Index n) {
+            Collections.addAll(stack, n.list, n.index);
+        } else if(item instanceof Range n) {
+            Collections.addAll(stack, n.left, n.right);
+        } else if(item instanceof Call n) {
+            stack.add(n.callee);
+            stack.addAll(n.arguments);
+        } else if(item instanceof Get n) {
+            Collections.addAll(stack, n.object, n.field);
+        }
+        // NONE BreakStmt ContinueStmt Literal Identifier没有子节点
+    }
+
+    /**
+     * 追加节点，返回其索引；子节点随后追加并由{@link #link(int, int, int)}连接
+     */
+    private int add(Object item) {
+        if(item == null) return add(Kind.NONE, 0, null);
+        if(item instanceof ExprList) return add(Kind.LIST, 0, null);
+        nodeCount++;
+        ASTNode node = (ASTNode) item;
+        if(node instanceof Program) return add(Kind.PROGRAM, node.span, null);
+        if(node instanceof Block) return add(Kind.BLOCK, node.span, null);
+        if(node instanceof ExprStmt) return add(Kind.EXPR_STMT, node.span, null);
+        if(node instanceof IfStmt) return add(Kind.IF_STMT, node.span, null);
+        if(node instanceof ForStmt) return add(Kind.FOR_STMT, node.span, null);
+        if(node instanceof WhileStmt) return add(Kind.WHILE_STMT, node.span, null);
+        if(node instanceof BreakStmt) return add(Kind.BREAK_STMT, node.span, null);
+        if(node instanceof ContinueStmt) return add(Kind.CONTINUE_STMT, node.span, null);
+        if(node instanceof FnStmt n) return add(Kind.FN_STMT, node.span, n.name);
+        if(node instanceof ReturnStmt) return add(Kind.RETURN_STMT, node.span, null);
+        if(node instanceof AssignStmt n) return add(Kind.ASSIGN_STMT, node.span, n.operator);
+        if(node instanceof SetVarStmt) return add(Kind.SET_VAR_STMT, node.span, null);
+        if(node instanceof Literal n) return add(Kind.LITERAL, node.span, n.token);
+        if(node instanceof Identifier n) return add(Kind.IDENTIFIER, node.span, n.token);
+        if(node instanceof Unary n) return add(Kind.UNARY, node.span, n.operator);
+        if(node instanceof Binary n) return add(Kind.BINARY, node.span, n.operator);
+        if(node instanceof Array) return add(Kind.ARRAY, node.span, null);
+        if(node instanceof Index) return add(Kind.INDEX, node.span, null);
+        if(node instanceof Range n) return add(Kind.RANGE, node.span, n.operator);
+        if(node instanceof Call) return add(Kind.CALL, node.span, null);
+        if(node instanceof Get) return add(Kind.GET, node.span, null);
+        throw new IllegalArgumentException("无法转换的节点: " + node.getClass().getName());
+    }
+
+    private int add(Kind kind, long span, Token token) {
+        if(size == kinds.length) {
+            grow(size * 2);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        firstChildren[size] = -1;
+        nextSiblings[size] = -1;
+        spans[size] = span;
+        if(token == null) {
+            tokenTypes[size] = NO_TOKEN;
+        } else {
+            tokenTypes[size] = (byte) token.type.ordinal();
+            tokenSpans[size] = token.span;
+            literals[size] = token.literal;
+        }
+        return size++;
+    }
+
+    /* 将child连接为parent的子节点，previous为parent的上一个子节点，没有则为-1 */
+    private void link(int parent, int previous, int child) {
+        if(previous < 0) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[previous] = child;
+        }
+    }
+
+    private void grow(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        spans = Arrays.copyOf(spans, capacity);
+        tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+        tokenSpans = Arrays.copyOf(tokenSpans, capacity);
+        literals = Arrays.copyOf(literals, capacity);
+    }
+
+    /**
+     * 以索引遍历ASTArena，记录从根节点到当前节点的路径
+     */
+    public class Cursor {
+        private int node;
+        private int[] path = new int[16]; /* 祖先节点 */
+        private int depth;
+
+        public int node() {
+            return node;
+        }
+
+        public int depth() {
+            return depth;
+        }
+
+        public Kind kind() {
+            return ASTArena.this.kind(node);
+        }
+
+        public int start() {
+            return ASTArena.this.start(node);
+        }
+
+        public int end() {
+            return ASTArena.this.end(node);
+        }
+
+        public long span() {
+            return ASTArena.this.span(node);
+        }
+
+        public TokenType tokenType() {
+            return ASTArena.this.tokenType(node);
+        }
+
+        public Token token() {
+            return ASTArena.this.token(node);
+        }
+
+        /**
+         * 移动到第一个子节点
+         * @return 无子节点时为false，不移动
+         */
+        public boolean firstChild() {
+            int child = firstChildren[node];
+            if(child < 0) return false;
+            if(depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        /**
+         * 移动到下一个兄弟节点
+         * @return 无下一个兄弟节点时为false，不移动
+         */
+        public boolean nextSibling() {
+            int sibling = nextSiblings[node];
+            if(sibling < 0) return false;
+            node = sibling;
+            return true;
+        }
+
+        /**
+         * 移动到父节点
+         * @return 位于根节点时为false，不移动
+         */
+        public boolean parent() {
+            if(depth == 0) return false;
+            node = path[--depth];
+            return true;
+        }
+
+        /**
+         * 前序移动到下一个节点
+         * @return 已遍历完时为false，不移动
+         */
+        public boolean next() {
+            if(firstChild()) return true;
+            int from = node, fromDepth = depth;
+            while(!nextSibling()) {
+                if(!parent()) {
+                    node = from;
+                    depth = fromDepth;
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
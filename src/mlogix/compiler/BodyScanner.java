@@ -0,0 +1,124 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.SourceMapManager.*;
+
+/**
+ * 注释与字符串主体的扫描
+ * <p>
+ * 以整块查找(String.indexOf，由JVM内联为向量化实现)定位结束符，
+ * 主体内的字符不逐个经过Lexer，也不产生分配；
+ * 文档注释只记录范围，文本由{@link #docCommentText}在读取字面量时生成
+ */
+final class BodyScanner {
+    private BodyScanner() {
+    }
+
+    /**
+     * 单行注释 # ...
+     * @return 换行符之后的位置，无换行符则为length
+     */
+    static int lineCommentEnd(SourceMap sourceMap, int from, int length) {
+        int i = sourceMap.indexOfNewline(from);
+        return i < 0 ? length : sourceMap.newlineEnd(i);
+    }
+
+    /**
+     * 多行注释 #* ... *#
+     * @return `*#`之后的位置，未闭合则为length
+     */
+    static int blockCommentEnd(SourceMap sourceMap, int from, int length) {
+        int i = sourceMap.indexOf("*#", from);
+        return i < 0 ? length : i + 2;
+    }
+
+    /**
+     * 多行文档注释 #/ ... /#
+     * @return `/#`之后的位置，未闭合则为length
+     */
+    static int blockDocCommentEnd(SourceMap sourceMap, int from, int length) {
+        int i = sourceMap.indexOf("/#", from);
+        return i < 0 ? length : i + 2;
+    }
+
+    /**
+     * 行文档注释 #| ...\n | ...
+     * <p>
+     * 换行后跳过空白，以`|`开头则延续，否则结束于该处(包含跳过的空白)；
+     * `|`之后的一个字符总属于注释文本
+     * @return 注释之后的位置
+     */
+    static int lineDocCommentEnd(SourceMap sourceMap, int from, int length) {
+        int i = from;
+        while(true) {
+            int newline = sourceMap.indexOfNewline(i);
+            if(newline < 0) return length;
+            i = skipWhitespace(sourceMap, newline + 1, length);
+            if(i >= length || sourceMap.charAt(i) != '|') return i;
+            i = afterBar(sourceMap, i + 1, length);
+        }
+    }
+
+    /**
+     * 字符串主体
+     * <p>
+     * 整块查找`"`，再在此前的部分中整块查找换行符与`”`
+     * @return 第一个 `"` `”` 换行符 的位置，均不存在则为length
+     */
+    static int stringEnd(SourceMap sourceMap, int from, int length) {
+        int end = sourceMap.indexOf('"', from);
+        if(end < 0) end = length;
+        int newline = sourceMap.indexOfNewline(from); // 止于本行末尾，不会越过整个文件
+        if(newline >= 0 && newline < end) end = newline;
+        int quote = sourceMap.indexOf('”', from, end);
+        return quote < 0 ? end : quote;
+    }
+
+    /**
+     * 生成文档注释的文本
+     * @param start 注释开头`#`的位置
+     * @param end 注释之后的位置
+     */
+    static String docCommentText(SourceMap sourceMap, int start, int end) {
+        int from = start + 2;
+        if(sourceMap.charAt(start + 1) == '/') {
+            if(end - 2 >= from && sourceMap.charAt(end - 2) == '/' && sourceMap.charAt(end - 1) == '#') {
+                end -= 2;
+            }
+            String text = sourceMap.subString(from, end);
+            return text.indexOf('\r') < 0 ? text : text.replace("\r\n", "\n").replace('\r', '\n');
+        }
+
+        StringBuilder text = new StringBuilder(end - from);
+        int i = from;
+        while(true) {
+            int newline = sourceMap.indexOfNewline(i);
+            if(newline < 0 || newline >= end) {
+                return text.append(sourceMap.subString(i, end)).toString();
+            }
+            text.append(sourceMap.subString(i, newline));
+            int next = skipWhitespace(sourceMap, newline + 1, end);
+            if(next >= end || sourceMap.charAt(next) != '|') {
+                return text.toString();
+            }
+            text.append('\n');
+            i = afterBar(sourceMap, next + 1, end);
+            if(i > next + 1) {
+                char c = sourceMap.charAt(next + 1);
+                text.append(c == '\r' ? '\n' : c); // `|`之后的字符不检查换行
+            }
+        }
+    }
+
+    /* `|`之后的一个字符，换行符`\r\n`作为一个字符 */
+    private static int afterBar(SourceMap sourceMap, int i, int length) {
+        if(i >= length) return length;
+        char c = sourceMap.charAt(i);
+        return c == '\r' || c == '\n' ? sourceMap.newlineEnd(i) : i + 1;
+    }
+
+    private static int skipWhitespace(SourceMap sourceMap, int from, int length) {
+        int i = from;
+        while(i < length && CharClass.is(sourceMap.charAt(i), CharClass.SPACE)) i++;
+        return i;
+    }
+}
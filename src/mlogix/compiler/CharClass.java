@@ -0,0 +1,72 @@
+package mlogix.compiler;
+
+/**
+ * Lexer使用的字符分类表
+ * <p>
+ * ASCII页在类加载时构建，BMP页在首次遇到非ASCII字符时构建，
+ * 每个字符对应一个byte的分类位
+ */
+public final class CharClass {
+    public static final int ALPHA = 1;       // a-z A-Z _
+    public static final int DIGIT = 1 << 1;  // 0-9
+    public static final int HEX = 1 << 2;    // 0-9 a-f A-F
+    public static final int BIN = 1 << 3;    // 0 1
+    public static final int CHINESE = 1 << 4;// 中文 4E00-9FFF
+    public static final int SPACE = 1 << 5;  // Character.isWhitespace
+    public static final int RECOVER = 1 << 6;// 未知字符错误恢复的停止点
+
+    public static final int IDENTIFIER_START = ALPHA | CHINESE;
+    public static final int IDENTIFIER_PART = ALPHA | CHINESE | DIGIT;
+
+    private static final byte[] ASCII_PAGE = buildPage(128);
+    private static volatile byte[] bmpPage;
+
+    private CharClass() {
+    }
+
+    /**
+     * 获取字符的分类位
+     */
+    public static int of(char c) {
+        if(c < 128) return ASCII_PAGE[c];
+        byte[] page = bmpPage;
+        if(page == null) {
+            page = bmpPage = buildPage(65536); // 重复构建结果相同，无需加锁
+        }
+        return page[c];
+    }
+
+    /**
+     * 字符是否属于mask中任一分类
+     */
+    public static boolean is(char c, int mask) {
+        return (of(c) & mask) != 0;
+    }
+
+    private static byte[] buildPage(int size) {
+        byte[] page = new byte[size];
+        for(int i = 0; i < size; i++) {
+            char c = (char) i;
+            int flags = 0;
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_') flags |= ALPHA;
+            if(c >= '0' && c <= '9') flags |= DIGIT | HEX;
+            if((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')) flags |= HEX;
+            if(c == '0' || c == '1') flags |= BIN;
+            if(c >= '\u4E00' && c <= '\u9FFF') flags |= CHINESE;
+            if(Character.isWhitespace(c)) flags |= SPACE;
+            switch(c) {
+                case ':', ';', ',', '.', ' ', '\n', '\r', '(', ')', '[', ']', '{', '}' -> flags |= RECOVER;
+            }
+            page[i] = (byte) flags;
+        }
+        return page;
+    }
+
+    /**
+     * 基本类型的字符谓词，避免Predicate&lt;Character&gt;的装箱
+     */
+    @FunctionalInterface
+    public interface CharPredicate {
+        boolean test(char c);
+    }
+}
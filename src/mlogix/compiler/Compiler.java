@@ -1,84 +1,195 @@
 package mlogix.compiler;
 
 import mlogix.compiler.issue.*;
+import mlogix.compiler.metrics.*;
 import mlogix.compiler.struct.*;
 import mlogix.compiler.struct.SourceMapManager.*;
 import mlogix.logix.*;
 import mlogix.util.*;
 
 import java.io.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class Compiler {
+    public static final String VERSION = "0.1.1"; /* 变化时语法树缓存失效 */
+    private static final int PIPELINE_CAPACITY = 4096;
+    private static final int SPLIT_CHUNK = 64 * 1024; /* 并行模式下大文件切分后每块至少的字符数 */
+
     private final SourceMapManager manager;
-    private final List<Issue> errorList;
-    private final List<Issue> warningList;
+    private boolean pipelined; /* Lexer与Parser在不同线程中流水线执行 */
+    private boolean parallel; /* 多个文件并行编译 */
+    private ParseCache cache; /* 为null时不使用语法树缓存 */
+    private IssueWriter.Format issueFormat = IssueWriter.Format.TEXT;
+    private int maxErrorsPerFile = Diagnostics.DEFAULT_MAX_PER_FILE;
+    private int maxErrors = Diagnostics.DEFAULT_MAX_TOTAL;
+    private Path metricsReport; /* 为null时不写入JSON统计 */
 
     public Compiler(Path projectPath) {
         this.manager = new SourceMapManager(projectPath);
-        this.errorList = new ArrayList<>();
-        this.warningList = new ArrayList<>();
+    }
+
+    /**
+     * 流水线模式下每个文件的Lexer在独立线程中扫描，适合单个大文件
+     */
+    public Compiler pipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    /**
+     * 并行模式下各文件在ForkJoinPool中独立地词法分析与语法分析，结果按路径顺序合并；
+     * 大文件在顶层`fn`处切分，各块也并行解析
+     */
+    public Compiler parallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * 启用时语法树缓存于项目根目录的.mlogix/cache，内容未变的文件不再解析；默认不启用
+     */
+    public Compiler cached(boolean cached) {
+        this.cache = cached ? new ParseCache(manager.projectPath.resolve(".mlogix").resolve("cache")) : null;
+        return this;
+    }
+
+    /**
+     * 问题的输出格式，JSON时每行一个问题，供工具读取
+     */
+    public Compiler issueFormat(IssueWriter.Format issueFormat) {
+        this.issueFormat = issueFormat;
+        return this;
+    }
+
+    /**
+     * 问题数的上限：单个文件的错误达到perFile个时停止分析该文件，
+     * 全部文件的错误达到total个时不再分析之后的文件；省略的问题只在最后计数
+     */
+    public Compiler maxErrors(int perFile, int total) {
+        if(perFile < 1 || total < 1) {
+            throw new IllegalArgumentException("问题数的上限至少为1: " + perFile + ", " + total);
+        }
+        this.maxErrorsPerFile = perFile;
+        this.maxErrors = total;
+        return this;
+    }
+
+    /**
+     * 编译结束后将分阶段的耗时、分配与各文件的统计以JSON写入report，见{@link CompileMetrics#writeJson(Writer)}
+     */
+    public Compiler metricsReport(Path report) {
+        this.metricsReport = report;
+        return this;
     }
 
     public boolean compile() {
-        PhaseTimer timer = new PhaseTimer();
-        // 可复用
-        Lexer lexer = new Lexer(errorList, warningList);
+        CompileMetrics metrics = new CompileMetrics();
+        PhaseRecorder phases = metrics.phases();
+        Diagnostics diagnostics = new Diagnostics(maxErrorsPerFile, maxErrors);
+        IdentifierInterner interner = new IdentifierInterner(); // 全部文件共享，并行时由各线程同时使用
+        phases.start("compile");
 
-        // 遍历项目树
-        try {
-            manager.walk()
-                    .filter(Files::isRegularFile)
+        // 遍历项目树，按路径排序以保证输出可复现
+        phases.start("discover");
+        List<Path> files;
+        try(Stream<Path> walk = manager.walk()) {
+            files = walk.filter(Files::isRegularFile)
                     .filter((Path f) -> f.endsWith("test.lx"))
-                    .forEach(file -> {
-                        SourceMap sourceMap;
-                        try {
-                            sourceMap = manager.loadSourceMap(file);
-                        } catch(IOException e) {
-                            e.printStackTrace();
-                            return;
-                        }
-                        if(sourceMap.source.isEmpty()) return;
-
-                        timer.startPhase("词法分析+语法分析");
-                        Parser parser = new Parser(lexer.reset(sourceMap), sourceMap, errorList, warningList);
-                        ASTNode ast = parser.parse();
-                        timer.endPhase();
-
-                        errorList.forEach(e -> Log.error(e.toString()));
-                        warningList.forEach(e -> Log.warning(e.toString()));
-
-                        if(Log.isAllowed(Log.LogType.DEBUG)) {
-                            ASTPrinter.print(ast, sourceMap);
-                        }
-
-                        /*
-                        // 语义分析
-                        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer();
-                        StructRegistry structRegistry = new StructRegistry();
-
-                        SemanticResult semanticResult = semanticAnalyzer.analyze(ast, sourceMap);
-                        List<Issue.SemanticIssue> semanticErrorList = semanticResult.errorList();
-                        List<Issue.SemanticIssue> semanticWarningList = semanticResult.warningList();
-
-                        semanticErrorList.forEach(e -> {
-                            Log.error((e.toString()));
-                        });
-                        semanticWarningList.forEach(e -> {
-                            Log.warning((e.toString()));
-                        });
-
-                         */
-                    });
+                    .sorted()
+                    .toList();
         } catch(IOException e) {
             e.printStackTrace();
+            files = List.of();
         }
+        files.forEach(manager::register); // 索引按路径顺序分配，与加载顺序无关
+        phases.end();
 
-        timer.printPhaseTimes();
+        // 各文件的问题与统计按路径顺序交给diagnostics与metrics，错误达到全局上限时不再分析之后的文件
+        phases.start("files");
+        List<FileResult> results = new ArrayList<>();
+        if(parallel && files.size() > 1) {
+            ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            try {
+                List<ForkJoinTask<FileResult>> tasks = new ArrayList<>();
+                for(Path file : files) {
+                    tasks.add(pool.submit(() -> compileFile(file, interner)));
+                }
+                for(int i = 0; i < tasks.size(); i++) {
+                    if(diagnostics.isExhausted()) {
+                        for(int j = i; j < tasks.size(); j++) tasks.get(j).cancel(false);
+                        diagnostics.skip(tasks.size() - i);
+                        break;
+                    }
+                    results.add(accept(diagnostics, metrics, tasks.get(i).join()));
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for(int i = 0; i < files.size(); i++) {
+                if(diagnostics.isExhausted()) {
+                    diagnostics.skip(files.size() - i);
+                    break;
+                }
+                results.add(accept(diagnostics, metrics, compileFile(files.get(i), interner)));
+            }
+        }
+        phases.end();
 
-        if(!errorList.isEmpty()) {
-            Log.info(errorList.size() + " errors");
+        if(cache != null) {
+            phases.start("cache");
+            cache.evict();
+            phases.end();
+        }
+
+        // 按路径顺序合并，问题经IssueWriter的缓冲直接写入标准输出，在此之前输出调试模式下Lexer的日志
+        phases.start("emit");
+        Log.flush();
+        IssueWriter issueWriter = new IssueWriter(new OutputStreamWriter(System.out, stdoutCharset()), issueFormat);
+        for(FileResult result : results) {
+            if(result == null) continue;
+            writeIssues(issueWriter, result);
+
+            if(Log.isAllowed(Log.LogType.DEBUG)) {
+                flush(issueWriter); // 语法树直接打印到System.out，先输出之前的问题
+                ASTPrinter.print(result.ast.toProgram(), result.sourceMap);
+            }
+
+            /*
+            // 语义分析
+            SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer();
+            StructRegistry structRegistry = new StructRegistry();
+
+            SemanticResult semanticResult = semanticAnalyzer.analyze(result.ast.toProgram(), result.sourceMap);
+            List<Issue.SemanticIssue> semanticErrorList = semanticResult.errorList();
+            List<Issue.SemanticIssue> semanticWarningList = semanticResult.warningList();
+
+            semanticErrorList.forEach(e -> {
+                Log.error((e.toString()));
+            });
+            semanticWarningList.forEach(e -> {
+                Log.warning((e.toString()));
+            });
+
+             */
+        }
+
+        flush(issueWriter);
+        phases.end();
+        phases.end(); // compile
+
+        metrics.printTable(System.out, Log.isAllowed(Log.LogType.DEBUG));
+        if(metricsReport != null) {
+            writeMetrics(metrics);
+        }
+
+        diagnostics.summary().forEach(Log::info);
+        if(diagnostics.errorCount() > 0) {
+            Log.info(diagnostics.errorCount() + " errors");
             Log.info("编译失败");
             return false;
         }
@@ -87,39 +198,169 @@ public class Compiler {
         return true;
     }
 
-    public class PhaseTimer {
-        private final Map<String, Long> phaseTimeMap = new HashMap<>();
-        private String currentPhaseName;
-        private long phaseStart;
+    /**
+     * 对单个文件进行词法分析与语法分析，使用独立的Lexer Parser与问题列表，可在任意线程中执行
+     * @param interner 本次编译共享的标识符驻留表
+     * @return 无法读取或为空文件时为null
+     */
+    private FileResult compileFile(Path file, IdentifierInterner interner) {
+        FileMetrics fileMetrics = new FileMetrics(manager.projectPath.relativize(file).toString());
+        PhaseRecorder phases = fileMetrics.phases();
 
-        public void startPhase(String phaseName) {
-            if(currentPhaseName != null) {
-                endPhase();
+        phases.start("read");
+        SourceMap sourceMap;
+        try {
+            sourceMap = manager.loadSourceMap(file);
+        } catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        phases.end();
+        if(sourceMap.length() == 0) return null;
+        fileMetrics.chars(sourceMap.length());
+
+        byte[] key = null;
+        if(cache != null) {
+            phases.start("cache");
+            key = cache.key(sourceMap);
+            ASTNode ast = cache.load(key, sourceMap, interner);
+            phases.end();
+            if(ast != null) {
+                if(countsNodes()) fileMetrics.nodes(ast);
+                return new FileResult(sourceMap, flatten(ast, phases), List.of(), List.of(), fileMetrics);
             }
-            currentPhaseName = phaseName;
-            phaseStart = System.currentTimeMillis();
         }
 
-        public void endPhase() {
-            if(currentPhaseName != null) {
-                long duration = System.currentTimeMillis() - phaseStart;
-                phaseTimeMap.merge(currentPhaseName, duration, Long::sum);
-                currentPhaseName = null;
+        // 流水线与切分时词法分析与语法分析同时进行，合为一个阶段
+        List<Issue> fileErrorList = new ArrayList<>();
+        List<Issue> fileWarningList = new ArrayList<>();
+        ASTNode ast;
+        if(pipelined) {
+            phases.start("lex+parse");
+            ast = parsePipelined(sourceMap, interner, fileErrorList, fileWarningList, fileMetrics);
+            phases.end();
+        } else if(parallel && sourceMap.length() >= SPLIT_CHUNK * 2) {
+            phases.start("lex+parse"); // 只计当前线程的分配，Token数未知
+            ast = SplitParser.parse(sourceMap, SPLIT_CHUNK, interner, maxErrorsPerFile, fileErrorList, fileWarningList);
+            phases.end();
+        } else {
+            phases.start("lex");
+            Lexer lexer = new Lexer(fileErrorList, fileWarningList, interner).maxErrors(maxErrorsPerFile).reset(sourceMap);
+            TokenBuffer tokens = lexer.tokenize();
+            phases.end();
+            fileMetrics.tokens(lexer.tokenCount());
+
+            phases.start("parse");
+            Parser parser = new Parser(tokens, sourceMap, fileErrorList, fileWarningList).maxErrors(maxErrorsPerFile);
+            ast = parser.parse(); // 编译需要全部函数体，不延迟解析
+            phases.end();
+        }
+        if(countsNodes()) fileMetrics.nodes(ast);
+        if(key != null && fileErrorList.isEmpty() && fileWarningList.isEmpty()) {
+            phases.start("cache");
+            cache.store(key, ast); // 有问题的文件不缓存，以便每次都报告
+            phases.end();
+        }
+        return new FileResult(sourceMap, flatten(ast, phases), fileErrorList, fileWarningList, fileMetrics);
+    }
+
+    /**
+     * 转为ASTArena保存到输出阶段，对象语法树随后即可回收
+     */
+    private static ASTArena flatten(ASTNode ast, PhaseRecorder phases) {
+        phases.start("arena");
+        ASTArena arena = ASTArena.of(ast);
+        phases.end();
+        return arena;
+    }
+
+    /**
+     * 节点数只在JSON统计与调试模式的表格中输出，其余时候不遍历语法树
+     */
+    private boolean countsNodes() {
+        return metricsReport != null || Log.isAllowed(Log.LogType.DEBUG);
+    }
+
+    /**
+     * Lexer的问题先记录在独立的列表中，扫描线程结束后再按先词法后语法的顺序合并
+     */
+    private ASTNode parsePipelined(SourceMap sourceMap, IdentifierInterner interner,
+                                   List<Issue> errorList, List<Issue> warningList, FileMetrics fileMetrics) {
+        List<Issue> lexerErrorList = new ArrayList<>();
+        List<Issue> lexerWarningList = new ArrayList<>();
+        Lexer pipelineLexer = new Lexer(lexerErrorList, lexerWarningList, interner).maxErrors(maxErrorsPerFile).reset(sourceMap);
+
+        PipelinedTokenSource tokens = new PipelinedTokenSource(pipelineLexer, PIPELINE_CAPACITY);
+        Parser parser = new Parser(tokens, sourceMap, errorList, warningList).maxErrors(maxErrorsPerFile);
+        ASTNode ast = parser.parse(); // parse()结束时关闭tokens，扫描线程已结束
+        fileMetrics.tokens(pipelineLexer.tokenCount());
+
+        errorList.addAll(0, lexerErrorList);
+        warningList.addAll(0, lexerWarningList);
+        return ast;
+    }
+
+    /**
+     * 以diagnostics保留的问题代替文件的全部问题，并将文件的统计交给metrics
+     */
+    private static FileResult accept(Diagnostics diagnostics, CompileMetrics metrics, FileResult result) {
+        if(result == null) return null;
+        metrics.accept(result.metrics);
+        Diagnostics.FileIssues issues = diagnostics.accept(result.errorList, result.warningList);
+        return new FileResult(result.sourceMap, result.ast, issues.errorList(), issues.warningList(), result.metrics);
+    }
+
+    private void writeMetrics(CompileMetrics metrics) {
+        try {
+            Files.createDirectories(metricsReport.toAbsolutePath().getParent());
+            try(Writer out = Files.newBufferedWriter(metricsReport)) {
+                metrics.writeJson(out);
+                out.write('\n');
             }
+        } catch(IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        public void printPhaseTimes() {
-            endPhase(); // 结束当前阶段
+    /**
+     * System.out实际使用的编码，与之不同时中文会输出为?
+     * <p>
+     * Java 17的System.out按sun.stdout.encoding编码，未设置时为默认编码；Java 18起为stdout.encoding
+     */
+    private static Charset stdoutCharset() {
+        String name = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        if(name != null) {
+            try {
+                return Charset.forName(name);
+            } catch(IllegalArgumentException e) {
+                // 无法识别时与System.out一样使用默认编码
+            }
+        }
+        return Charset.defaultCharset();
+    }
 
-            System.out.println("=== 编译阶段耗时统计 ===");
-            if(Log.isAllowed(Log.LogType.DEBUG)) {
-                phaseTimeMap.forEach((phaseName, time) -> {
-                    System.out.printf("%-10s: %5d ms%n", phaseName, time);
-                });
+    private static void writeIssues(IssueWriter issueWriter, FileResult result) {
+        try {
+            if(Log.isAllowed(Log.LogType.ERROR)) {
+                for(Issue error : result.errorList) issueWriter.write(error);
             }
+            if(Log.isAllowed(Log.LogType.WARNING)) {
+                for(Issue warning : result.warningList) issueWriter.write(warning);
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            long total = phaseTimeMap.values().stream().mapToLong(Long::longValue).sum();
-            System.out.printf("%-10s: %5d ms%n", "总计", total);
+    private static void flush(IssueWriter issueWriter) {
+        try {
+            issueWriter.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
-}
\ No newline at end of file
+
+    private record FileResult(SourceMap sourceMap, ASTArena ast, List<Issue> errorList, List<Issue> warningList,
+                              FileMetrics metrics) {
+    }
+}
@@ -0,0 +1,74 @@
+package mlogix.compiler;
+
+/**
+ * 十进制数字字面量解析
+ * <p>
+ * 尾数不超过2^53且10的指数不超过22时，尾数与10的幂均可精确表示为double，
+ * 一次乘除即得到正确舍入的结果；其余情况回退到Double.parseDouble
+ */
+final class DecimalParser {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22
+    };
+    private static final int MAX_EXPONENT = 100_000; // 防止指数累加溢出
+
+    private DecimalParser() {
+    }
+
+    /**
+     * @param chars 只包含 数字 . e + - 的字符，如 12.5e-3
+     */
+    static double parse(char[] chars, int length) {
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean truncated = false; // 是否丢弃了非零的数字
+        boolean fraction = false;
+
+        int i = 0;
+        for(; i < length; i++) {
+            char c = chars[i];
+            if(c == '.') {
+                fraction = true;
+                continue;
+            }
+            if(c == 'e') break;
+
+            int digit = c - '0';
+            if(significantDigits < 18) { // 18位十进制数字不会溢出long
+                if(mantissa != 0 || digit != 0) {
+                    mantissa = mantissa * 10 + digit;
+                    significantDigits++;
+                }
+                if(fraction) exponent--;
+            } else {
+                if(digit != 0) truncated = true;
+                if(!fraction) exponent++;
+            }
+        }
+
+        if(i < length) { // 指数
+            i++;
+            boolean negative = false;
+            if(i < length && chars[i] == '+') {
+                i++;
+            } else if(i < length && chars[i] == '-') {
+                negative = true;
+                i++;
+            }
+            int value = 0;
+            for(; i < length; i++) {
+                value = Math.min(value * 10 + (chars[i] - '0'), MAX_EXPONENT);
+            }
+            exponent += negative ? -value : value;
+        }
+
+        if(mantissa == 0 && !truncated) return 0.0;
+        if(!truncated && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            return exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        }
+        return Double.parseDouble(new String(chars, 0, length));
+    }
+}
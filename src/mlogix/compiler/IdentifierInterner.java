@@ -0,0 +1,150 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.SourceMapManager.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * 标识符驻留表，每次编译共享一个
+ * <p>
+ * 直接以源码字符区间查找，已出现的标识符不会再截取字符串，
+ * 相同名称共享同一个String实例并对应同一个稳定的int id
+ * <p>
+ * 线程安全，并行编译的各文件与各块共享同一个驻留表：
+ * 已驻留的标识符无锁查找，只有新增时加锁；并行时id的分配顺序取决于调度，
+ * 但同一名称在一次编译中始终对应同一个id
+ */
+public class IdentifierInterner {
+    // 软关键字，构造时预先驻留这些实例，Parser以==比较标识符Token的literal即可识别
+    public static final String IN = "in";
+
+    private final Object lock = new Object();
+    private volatile Table table = new Table(256);
+    private volatile int size; /* 只在持有lock时写入 */
+
+    public IdentifierInterner() {
+        intern(IN);
+    }
+
+    /**
+     * 驻留源码中[start, end)的标识符
+     * @return 标识符id
+     */
+    public int intern(SourceMap sourceMap, int start, int end) {
+        int hash = 0;
+        for(int i = start; i < end; i++) {
+            hash = 31 * hash + sourceMap.charAt(i);
+        }
+
+        int id = find(table, hash, sourceMap, start, end);
+        if(id >= 0) return id;
+        synchronized(lock) { // 加锁后在最新的表中再查找一次，其他线程可能已经添加
+            Table table = this.table;
+            id = find(table, hash, sourceMap, start, end);
+            return id >= 0 ? id : add(table, sourceMap.subString(start, end), hash, -id - 1);
+        }
+    }
+
+    /**
+     * 驻留字符串
+     * @return 标识符id
+     */
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int id = find(table, hash, name);
+        if(id >= 0) return id;
+        synchronized(lock) {
+            Table table = this.table;
+            id = find(table, hash, name);
+            return id >= 0 ? id : add(table, name, hash, -id - 1);
+        }
+    }
+
+    /**
+     * 获取id对应的规范名称
+     */
+    public String name(int id) {
+        return table.names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* @return 找到时为id，否则为 -(空槽位 + 1) */
+    private static int find(Table table, int hash, SourceMap sourceMap, int start, int end) {
+        int mask = table.slots.length() - 1;
+        for(int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = table.slots.get(slot) - 1;
+            if(id < 0) return -slot - 1;
+            if(table.hashes[id] == hash && equals(table.names[id], sourceMap, start, end)) return id;
+        }
+    }
+
+    private static int find(Table table, int hash, String name) {
+        int mask = table.slots.length() - 1;
+        for(int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = table.slots.get(slot) - 1;
+            if(id < 0) return -slot - 1;
+            if(table.hashes[id] == hash && table.names[id].equals(name)) return id;
+        }
+    }
+
+    /* 持有lock时调用；写入槽位是volatile写，无锁查找读到槽位时名称已经可见 */
+    private int add(Table table, String name, int hash, int slot) {
+        int id = size;
+        if(id == table.names.length) {
+            table = grow(table);
+            slot = -find(table, hash, name) - 1;
+        }
+        table.names[id] = name;
+        table.hashes[id] = hash;
+        table.slots.set(slot, id + 1);
+        size = id + 1;
+        return id;
+    }
+
+    /* 名称数组已满时换为两倍容量的新表，正在查找旧表的线程未找到时会加锁查找新表 */
+    private Table grow(Table table) {
+        Table newTable = new Table(table.names.length * 2);
+        System.arraycopy(table.names, 0, newTable.names, 0, size);
+        System.arraycopy(table.hashes, 0, newTable.hashes, 0, size);
+        int mask = newTable.slots.length() - 1;
+        for(int id = 0; id < size; id++) {
+            int slot = mix(table.hashes[id]) & mask;
+            while(newTable.slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable.slots.set(slot, id + 1);
+        }
+        this.table = newTable;
+        return newTable;
+    }
+
+    private static boolean equals(String name, SourceMap sourceMap, int start, int end) {
+        if(name.length() != end - start) return false;
+        for(int i = 0; i < name.length(); i++) {
+            if(name.charAt(i) != sourceMap.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 槽位数为名称容量的两倍，负载因子不超过0.5
+     */
+    private static final class Table {
+        final String[] names;        /* id -> 名称 */
+        final int[] hashes;          /* id -> 哈希 */
+        final AtomicIntegerArray slots; /* 开放寻址表，存id+1，0为空 */
+
+        Table(int capacity) {
+            this.names = new String[capacity];
+            this.hashes = new int[capacity];
+            this.slots = new AtomicIntegerArray(capacity * 2);
+        }
+    }
+}
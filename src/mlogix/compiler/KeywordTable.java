@@ -0,0 +1,75 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.SourceMapManager.*;
+import mlogix.logix.*;
+
+import java.util.*;
+
+/**
+ * 关键字的完美哈希表
+ * <p>
+ * 以 首字符 末字符 长度 计算哈希，关键字集合固定，
+ * 类加载时搜索一个使其无冲突的乘数，识别时直接比较源码字符，无需截取字符串
+ */
+final class KeywordTable {
+    private static final int BITS = 6;
+    private static final int SIZE = 1 << BITS;
+    private static final int MAX_ATTEMPTS = 1 << 20; /* 搜索乘数的次数上限，超过时类初始化失败而不是一直搜索 */
+
+    private static final TokenType[] types = new TokenType[SIZE];
+    private static final char[][] keywords = new char[SIZE][];
+    private static final int multiplier;
+
+    static {
+        Map<String, TokenType> keywordMap = TokenType.KEYWORDS_MAP;
+        int found = 0;
+        int attempts = 0;
+        search:
+        for(int m = 0x9E3779B1; ; m += 2) {
+            if(++attempts > MAX_ATTEMPTS) {
+                // 首字符 末字符 长度都相同的关键字无论乘数为何都冲突，需要改用其他字符计算哈希
+                throw new ExceptionInInitializerError("尝试" + MAX_ATTEMPTS + "个乘数后仍未找到使"
+                        + keywordMap.size() + "个关键字在" + SIZE + "个槽位中无冲突的乘数，需要增大BITS或修改slot()");
+            }
+            boolean[] used = new boolean[SIZE];
+            for(String keyword : keywordMap.keySet()) {
+                int slot = slot(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length(), m);
+                if(used[slot]) continue search;
+                used[slot] = true;
+            }
+            found = m;
+            break;
+        }
+        multiplier = found;
+
+        for(Map.Entry<String, TokenType> entry : keywordMap.entrySet()) {
+            String keyword = entry.getKey();
+            int slot = slot(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length(), multiplier);
+            types[slot] = entry.getValue();
+            keywords[slot] = keyword.toCharArray();
+        }
+    }
+
+    private KeywordTable() {
+    }
+
+    /**
+     * 识别源码中[start, end)是否为关键字
+     * @return 不是关键字则为null
+     */
+    static TokenType lookup(SourceMap sourceMap, int start, int end) {
+        int length = end - start;
+        int slot = slot(sourceMap.charAt(start), sourceMap.charAt(end - 1), length, multiplier);
+        char[] keyword = keywords[slot];
+        if(keyword == null || keyword.length != length) return null;
+        for(int i = 0; i < length; i++) {
+            if(keyword[i] != sourceMap.charAt(start + i)) return null;
+        }
+        return types[slot];
+    }
+
+    private static int slot(char first, char last, int length, int multiplier) {
+        int key = (first << 16) ^ (last << 8) ^ length;
+        return (key * multiplier) >>> (32 - BITS);
+    }
+}
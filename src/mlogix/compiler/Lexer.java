@@ -7,24 +7,69 @@ import mlogix.compiler.struct.*;
 import mlogix.logix.*;
 import mlogix.util.*;
 
+import mlogix.compiler.CharClass.*;
+
 import java.util.*;
-import java.util.function.*;
 
+import static mlogix.compiler.CharClass.*;
 import static mlogix.logix.TokenType.*;
 
 public class Lexer {
+    // 错误恢复的停止条件，均为无捕获的常量，恢复过程不产生分配
+    private static final CharPredicate NOT_NEWLINE = c -> c != '\n' && c != '\r';
+    private static final CharPredicate NOT_ALNUM = c -> !CharClass.is(c, ALPHA | DIGIT);
+    private static final CharPredicate RECOVER_POINT = c -> CharClass.is(c, RECOVER);
+
     private final List<Issue> errorList;
     private final List<Issue> warningList;
+    private final IdentifierInterner interner;
     private SourceMap sourceMap;
     private int length;
     private int start;
     private int current;
 
+    // 最近一次扫描出的Token的末尾与字面量
+    private int end;
+    private Object literal;
+    private double number;
+    private int identifierId;
+
+    // number()复用的数字缓冲
+    private char[] digits = new char[32];
+    private int digitCount;
+
     private boolean lastIsNewline;
+    private int tokenCount; /* reset后扫描的Token数 */
+
+    private int maxErrors = Integer.MAX_VALUE;
 
     public Lexer(List<Issue> errorList, List<Issue> warningList) {
+        this(errorList, warningList, new IdentifierInterner());
+    }
+
+    /**
+     * @param interner 同一次编译中共享的标识符驻留表
+     */
+    public Lexer(List<Issue> errorList, List<Issue> warningList, IdentifierInterner interner) {
         this.errorList = errorList;
         this.warningList = warningList;
+        this.interner = interner;
+    }
+
+    public IdentifierInterner interner() {
+        return interner;
+    }
+
+    /**
+     * errorList中的错误达到此数量时不再报告，并停止扫描、以EOF结束，
+     * 使病态输入的耗时与内存有上限
+     */
+    public Lexer maxErrors(int maxErrors) {
+        if(maxErrors < 1) {
+            throw new IllegalArgumentException("错误数的上限至少为1: " + maxErrors);
+        }
+        this.maxErrors = maxErrors;
+        return this;
     }
 
     public Lexer reset(SourceMap sourceMap) {
@@ -32,6 +77,7 @@ public class Lexer {
         this.length = sourceMap.length();
 
         this.lastIsNewline = false;
+        this.tokenCount = 0;
 
         this.start = 0;
         this.current = 0;
@@ -39,6 +85,26 @@ public class Lexer {
         return this;
     }
 
+    /**
+     * 只扫描[from, to)，偏移量仍相对于整个源码，末尾为EOF；
+     * from处须在两个Token之间且此前的换行已处理，如行首
+     */
+    public Lexer reset(SourceMap sourceMap, int from, int to) {
+        reset(sourceMap);
+        this.length = to;
+        this.start = from;
+        this.current = from;
+        return this;
+    }
+
+    /**
+     * reset后以scanToken()或tokenize()扫描的Token数，含EOF；
+     * 流水线模式下须在PipelinedTokenSource关闭后读取
+     */
+    public int tokenCount() {
+        return tokenCount;
+    }
+
     public Lexer clearIssue() {
         errorList.clear();
         warningList.clear();
@@ -49,15 +115,113 @@ public class Lexer {
      * 扫描下一个Token
      */
     public Token scanToken() {
+        TokenType type = scan();
+        tokenCount++;
+        log(type);
+        return new Token(type, PackedSpan.of(sourceMap.index, start, end), boxedLiteral(type));
+    }
+
+    /**
+     * 扫描剩余的全部Token至TokenBuffer，以结构数组存储，不为每个Token分配对象
+     * @return 以EOF结尾的TokenBuffer
+     */
+    public TokenBuffer tokenize() {
+        TokenBuffer buffer = new TokenBuffer(sourceMap, interner, length / 4 + 16);
+        while(true) {
+            TokenType type = scan();
+            tokenCount++;
+            log(type);
+            add(buffer, type);
+            if(type == EOF) return buffer;
+        }
+    }
+
+    private void add(TokenBuffer buffer, TokenType type) {
+        if(isNumeric(type)) {
+            buffer.add(type, start, end, number);
+        } else if(type == IDENTIFIER) {
+            buffer.addIdentifier(start, end, identifierId);
+        } else {
+            buffer.add(type, start, end, literal);
+        }
+    }
+
+    /**
+     * 增量扫描，previous的源码经edit编辑后为sourceMap
+     * <p>
+     * 从编辑处之前最后一个安全的重启点开始扫描，直到扫描状态与previous重新同步，
+     * 其余Token直接沿用previous，偏移量在读取时才平移；
+     * 只有重新扫描的部分会报告问题
+     * @param previous 编辑前的TokenBuffer，须使用同一驻留表，此后不可再使用
+     * @return 与完整扫描sourceMap结果相同的TokenBuffer
+     */
+    public TokenBuffer relex(TokenBuffer previous, SourceMap sourceMap, TextEdit edit) {
+        if(previous.interner != interner) {
+            throw new IllegalArgumentException("增量扫描须使用与previous相同的IdentifierInterner");
+        }
+        // Token的扫描会向后查看一个字符，末尾早于编辑处的Token不受编辑影响
+        int keep = 0;
+        int low = 0;
+        int high = previous.size() - 2; // 不含EOF
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(previous.end(mid) < edit.offset()) {
+                keep = mid + 1;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // 重启点的扫描状态
+        reset(sourceMap);
+        if(keep > 0) {
+            current = previous.end(keep - 1);
+            start = previous.start(keep - 1);
+            lastIsNewline = previous.type(keep - 1) == NEWLINE;
+        }
+        TokenBuffer middle = new TokenBuffer(sourceMap, interner, 64);
+
+        int delta = edit.delta();
+        int old = keep; // previous中末尾不早于当前位置的第一个Token
+        int lastOld = previous.size() - 2; // 最后一个非EOF的Token
+        while(true) {
+            TokenType type = scan();
+            log(type);
+            add(middle, type);
+            if(type == EOF) return previous.splice(sourceMap, keep, middle, previous.size());
+
+            // 编辑处之后的扫描状态只取决于 当前位置 lastIsNewline，与previous相同则同步
+            if(current < edit.insertedEnd()) continue;
+            int oldEnd = current - delta;
+            while(old < lastOld && previous.end(old) < oldEnd) old++;
+            if(old < lastOld && previous.end(old) == oldEnd
+                    && (previous.type(old) == NEWLINE) == lastIsNewline) {
+                return previous.splice(sourceMap, keep, middle, old + 1);
+            }
+        }
+    }
+
+    /**
+     * 扫描下一个Token，结果记录于start end literal number
+     */
+    private TokenType scan() {
+        if(errorList.size() >= maxErrors) current = length; // 错误达到上限，直接结束
         while(!isAtEnd()) {
             if(lastIsNewline) {
                 lastIsNewline = false;
-                recover(c -> c != '\n'); // 跳过newline防止重复出现
+                recover(NOT_NEWLINE); // 跳过newline防止重复出现
                 if(isAtEnd()) return token(EOF);
             }
             start = current;
 
             char c = advance();
+            int charClass = CharClass.of(c);
+            if((charClass & IDENTIFIER_START) != 0) {
+                return identifier();
+            } else if((charClass & DIGIT) != 0) {
+                return number();
+            }
             switch(c) {
                 case '+':
                     if(match('+')) {
@@ -181,7 +345,7 @@ public class Lexer {
                     return string();
 
                 case '#': {
-                    Token r = comment();
+                    TokenType r = comment();
                     if(r != null) {
                         return r;
                     } else {
@@ -194,6 +358,7 @@ public class Lexer {
 
                 case '\n':
                 case '\r': {
+                    if(c == '\r') match('\n'); // \r\n视为一个换行
                     lastIsNewline = true;
                     return token(NEWLINE);
                 }
@@ -206,20 +371,10 @@ public class Lexer {
                     return token(EOF);
 
                 default:
-                    if(isDigit(c)) {
-                        return number();
-                    } else if(isAlpha(c) || isChinese(c)) {
-                        return identifier();
-                    } else {
-                        error("未知的字符")
-                                .point(start, start + 1, Integer.toHexString(c));
-                        recover(ch -> Set.of(':', ';', ',', '.', ' ', '\n',
-                                '(', ')',
-                                '[', ']',
-                                '{', '}'
-                        ).contains(ch));
-                        return token(ERROR, subString(start, current));
-                    }
+                    error("未知的字符")
+                            .point(start, start + 1, Integer.toHexString(c));
+                    recover(RECOVER_POINT);
+                    return token(ERROR, subString(start, current));
             }
         }
         // EOF特化
@@ -227,17 +382,16 @@ public class Lexer {
     }
 
     /* 标识符 关键字 */
-    private Token identifier() {
-        while(!isAtEnd() && (isAlpha(peek()) || isChinese(peek()) || isDigit(peek()))) advance();
-        String text = subString(start, current);
-        if(text.startsWith("__")) {
+    private TokenType identifier() {
+        while(!isAtEnd() && CharClass.is(peek(), IDENTIFIER_PART)) current++;
+        if(current - start >= 2 && charAt(start) == '_' && charAt(start + 1) == '_') {
             error("非法的标识符")
                     .point(start, start + 2, "不能以`__`开头，将被替换为`_`");
-            return token(IDENTIFIER, text.substring(1));
+            return identifierToken(start + 1, current);
         }
-        TokenType type = KEYWORDS_MAP.get(text);
+        TokenType type = KeywordTable.lookup(sourceMap, start, current);
         if(type == null) {
-            return token(IDENTIFIER, text);
+            return identifierToken(start, current);
         } else {
             return token(type);
         }
@@ -245,125 +399,90 @@ public class Lexer {
 
     /* 逻辑关键字 */
     // TODO 舍弃
-    private Token logicKeyword() {
-        while(!isAtEnd() && (isAlpha(peek()) || isDigit(peek()))) advance();
-        String text = subString(start + 1, current);
-        return token(IDENTIFIER, text);
-    }
-
-    private Token string() {
-        while(!match('"')) {
-            if(isAtEnd() || check('\n')) {
-                error("未匹配到字符串末尾`\"`")
-                        .info(start, start + 1, "字符串头部")
-                        .point(current, current + 1, "匹配末尾");
-                return token(STRING, subString(start + 1, current));
-            }
-            if(match('”')) {
-                warning("字符串应该使用英文双引号`\"`")
-                        .point(start, start + 1, "\"");
-                break;
-            }
-            advance();
+    private TokenType logicKeyword() {
+        while(!isAtEnd() && CharClass.is(peek(), ALPHA | DIGIT)) current++;
+        return identifierToken(start + 1, current);
+    }
+
+    private TokenType string() {
+        current = BodyScanner.stringEnd(sourceMap, current, length);
+        if(match('”')) {
+            warning("字符串应该使用英文双引号`\"`")
+                    .point(start, start + 1, "\"");
+        } else if(!match('"')) { // 换行或末尾
+            error("未匹配到字符串末尾`\"`")
+                    .info(start, start + 1, "字符串头部")
+                    .point(current, current + 1, "匹配末尾");
+            return token(STRING, subString(start + 1, current));
         }
         return token(STRING, subString(start + 1, current - 1));
     }
 
-    private Token number() {
+    private TokenType number() {
         // 16进制整数 _分隔符
         if(match('x')) {
             if(peek(-2) != '0') {
                 error("16进制数字应以`0x`开头")
                         .point(start, start + 2, "");
-                recover(c -> !isDigit(c) && !isAlpha(c));
+                recover(NOT_ALNUM);
                 return token(ERROR);
             }
-            StringBuilder builder = new StringBuilder();
-            while(!isAtEnd()) {
-                if(isHexDigit(peek())) {
-                    builder.append(peek());
-                } else if(check('_')) {
-                    // 忽略数字分隔符
-                } else if(isAlpha(peek())) {
-                    // ['g' ~ 'z'] | ['G' ~ 'Z']
-                    error("16进制数字不包括的字符")
-                            .point(current, current + 1, Integer.toHexString(peek()));
-                    recover(c -> !isDigit(c) && !isAlpha(c));
-                    return token(ERROR);
-                } else {
-                    break;
-                }
-                advance();
-            }
-            return token(INT, (double) Long.parseLong(builder.toString(), 16));
+            return radixNumber(4, HEX, "16进制数字不包括的字符");
 
             // 2进制整数 _分隔符
         } else if(match('b')) {
             if(peek(-2) != '0') {
                 error("2进制数字应以`0b`开头")
                         .point(start, start + 2, "");
-                recover(c -> !isDigit(c) && !isAlpha(c));
+                recover(NOT_ALNUM);
                 return token(ERROR);
             }
-            StringBuilder builder = new StringBuilder();
-            while(!isAtEnd()) {
-                if(isBinDigit(peek())) {
-                    builder.append(peek());
-                } else if(check('_')) {
-                    // 忽略数字分隔符
-                } else if(isAlpha(peek())) {
-                    error("2进制数字不包括的字符")
-                            .point(current, current + 1, Integer.toHexString(peek()));
-                    recover(c -> !isDigit(c) && !isAlpha(c));
-                    return token(ERROR);
-                } else {
-                    break;
-                }
-                advance();
-            }
-            return token(INT, (double) Long.parseLong(builder.toString(), 2));
+            return radixNumber(1, BIN, "2进制数字不包括的字符");
 
             // 颜色值
         } else if(match('c')) {
             if(peek(-2) != '0') {
                 error("颜色值应以`0c`开头")
                         .point(start, start + 2, "");
-                recover(c -> !isDigit(c) && !isAlpha(c));
+                recover(NOT_ALNUM);
                 return token(ERROR);
             }
-            StringBuilder builder = new StringBuilder();
+            long value = 0; // 每位16进制数字占4位
+            int count = 0;
             while(!isAtEnd()) {
-                if(isHexDigit(peek())) {
-                    builder.append(peek());
-                } else if(check('_')) {
+                char c = peek();
+                if(isHexDigit(c)) {
+                    value = (value << 4) | hexValue(c);
+                    count++;
+                } else if(c == '_') {
                     // 忽略数字分隔符
-                } else if(isAlpha(peek())) {
+                } else if(isAlpha(c)) {
                     // ['g' ~ 'z'] | ['G' ~ 'Z']
                     error("16进制数字不包括的字符")
-                            .point(current, current + 1, Integer.toHexString(peek()));
-                    recover(c -> !isDigit(c) && !isAlpha(c));
+                            .point(current, current + 1, Integer.toHexString(c));
+                    recover(NOT_ALNUM);
                     return token(ERROR);
                 } else {
                     break;
                 }
-                advance();
+                current++;
             }
 
-            if(builder.length() == 8) { // 0cRR_GG_BB
-                int r = Integer.valueOf(builder.substring(2, 4), 16);
-                int g = Integer.valueOf(builder.substring(4, 6), 16);
-                int b = Integer.valueOf(builder.substring(6, 8), 16);
+            if(count == 8) { // 0cRR_GG_BB
+                int r = (int) (value >>> 16) & 0xFF;
+                int g = (int) (value >>> 8) & 0xFF;
+                int b = (int) value & 0xFF;
                 int a = 0xFF;
                 return token(COL, Color.toDoubleBits(r, g, b, a));
-            } else if(builder.length() == 10) { // 0cRR_GG_BB_AA
-                int r = Integer.valueOf(builder.substring(2, 4), 16);
-                int g = Integer.valueOf(builder.substring(4, 6), 16);
-                int b = Integer.valueOf(builder.substring(6, 8), 16);
-                int a = Integer.valueOf(builder.substring(8, 10), 16);
+            } else if(count == 10) { // 0cRR_GG_BB_AA
+                int r = (int) (value >>> 24) & 0xFF;
+                int g = (int) (value >>> 16) & 0xFF;
+                int b = (int) (value >>> 8) & 0xFF;
+                int a = (int) value & 0xFF;
                 return token(COL, Color.toDoubleBits(r, g, b, a));
             } else {
                 error("`颜色值`长度应为8或10")
-                        .point(start, current, "长度 = " + builder.length());
+                        .point(start, current, "长度 = " + count);
                 return token(ERROR);
             }
 
@@ -372,136 +491,178 @@ public class Lexer {
         } else {
             boolean isInt = true;
 
-            StringBuilder builder = new StringBuilder();
-            builder.append(peek(-1));
+            digitCount = 0;
+            appendDigit(peek(-1));
 
             while(!isAtEnd() && peek() == '_') advance();//防止normalNumber报错
-            normalNumber(builder);
+            normalNumber(true);
 
             if(match('.')) {
                 isInt = false;
 
-                builder.append('.');
-                normalNumber(builder);
+                appendDigit('.');
+                normalNumber(true);
             }
 
             if(match('e') || match('E')) {
                 isInt = false;
 
-                builder.append('e');
+                int exponentStart = digitCount;
+                appendDigit('e');
                 if(match('+')) {
-                    builder.append('+');
+                    appendDigit('+');
                 } else if(match('-')) {
-                    builder.append('-');
+                    appendDigit('-');
                 }
 
-                normalNumber(builder);
+                int exponentDigits = digitCount;
+                normalNumber(false);
+                if(digitCount == exponentDigits) {
+                    error("科学计数法缺少指数")
+                            .point(start, current, "");
+                    digitCount = exponentStart;
+                }
 
                 if(match('.')) {
-                    builder.append('.');
-                    normalNumber(builder);
+                    error("指数不能为小数")
+                            .point(current - 1, current, "");
+                    int fractionStart = digitCount;
+                    normalNumber(false);
+                    digitCount = fractionStart;
                 }
             }
 
-            return token(isInt ? INT : NUM, Double.parseDouble(builder.toString()));
+            return token(isInt ? INT : NUM, DecimalParser.parse(digits, digitCount));
+        }
+    }
+
+    /**
+     * 给number()用的，扫描2的幂进制整数，直接累加至long
+     * @param bits 每位数字的位数
+     * @param digitClass 该进制数字的字符分类
+     */
+    private TokenType radixNumber(int bits, int digitClass, String unexpectedText) {
+        long value = 0;
+        int count = 0;
+        boolean overflow = false;
+        while(!isAtEnd()) {
+            char c = peek();
+            if(CharClass.is(c, digitClass)) {
+                if((value >>> (63 - bits)) != 0) overflow = true;
+                value = (value << bits) | hexValue(c);
+                count++;
+            } else if(c == '_') {
+                // 忽略数字分隔符
+            } else if(isAlpha(c)) {
+                // ['g' ~ 'z'] | ['G' ~ 'Z']
+                error(unexpectedText)
+                        .point(current, current + 1, Integer.toHexString(c));
+                recover(NOT_ALNUM);
+                return token(ERROR);
+            } else {
+                break;
+            }
+            current++;
+        }
+
+        if(count == 0) {
+            error("缺少数字")
+                    .point(start, current, "");
+            return token(ERROR);
+        } else if(overflow) {
+            error("数字超出范围")
+                    .point(start, current, "");
+            return token(ERROR);
         }
+        return token(INT, (double) value);
     }
 
-    /* 给number()用的，扫描下一段最普通的数字，123_456，不允许两侧分隔符 */
-    private void normalNumber(StringBuilder builder) {
+    /**
+     * 给number()用的，扫描下一段最普通的数字，123_456，不允许两侧分隔符
+     * @param allowExponent 是否在遇到e/E时停止，交由number()处理指数
+     */
+    private void normalNumber(boolean allowExponent) {
         if(isAtEnd()) return;
         if(peek() == '_') {
             error("数字两端不允许分隔符`_`")
                     .point(current, current + 1, Integer.toHexString(peek()));
         }
 
+        boolean lastIsSeparator = false;
         while(!isAtEnd()) {
-            if(isDigit(peek())) {
-                builder.append(peek());
-            } else if(check('_')) {
+            char c = peek();
+            if(isDigit(c)) {
+                appendDigit(c);
+                lastIsSeparator = false;
+            } else if(c == '_') {
                 //忽略分隔符
-            } else if(isAlpha(peek())) {
-                error("不期望的字符")
-                        .point(current, current + 1, Integer.toHexString(peek()));
-                recover(c -> !isDigit(c) && !isAlpha(c));
+                lastIsSeparator = true;
+            } else if(allowExponent && (c == 'e' || c == 'E')) {
                 break;
+            } else if(isAlpha(c)) {
+                error("不期望的字符")
+                        .point(current, current + 1, Integer.toHexString(c));
+                recover(NOT_ALNUM);
+                return;
             } else {
                 break;
             }
-            advance();
+            current++;
         }
 
-        if(builder.charAt(builder.length() - 1) == '_') {
+        if(lastIsSeparator) {
             error("数字两端不允许分隔符`_`")
-                    .point(current, current + 1, Integer.toHexString(peek()));
+                    .point(current - 1, current, "_");
         }
     }
 
-    private Token comment() {
-        StringBuilder docComment = new StringBuilder();
+    /* 追加到复用的数字缓冲，不为每个字面量分配 */
+    private void appendDigit(char c) {
+        if(digitCount == digits.length) {
+            digits = Arrays.copyOf(digits, digitCount * 2);
+        }
+        digits[digitCount++] = c;
+    }
 
-        if(match('/')) { // 多行文档注释开始 #/
-            while(!isAtEnd()) {
-                if(match("/#")) { // 多行文档注释结束 #/ ... /#
-                    return token(DOC_COMMENT, docComment.toString());
-                }
-                docComment.append(advance());
-            }
-            return token(DOC_COMMENT, docComment.toString());
-        } else if(match('|')) { // 文档注释开始 #|
-            // int col = sourceMap.getCol(current - 1) - 1;
-            while(!isAtEnd()) {
-                if(match('\n')) {
-                    while(!isAtEnd() && isWhitespace(peek())) {
-                        advance();
-                    }
-                    if(!match('|')) { // 文档注释结束 #| ...\n |
-                        return token(DOC_COMMENT, docComment.toString());
-                    }
-                    docComment.append('\n');
-                }
-                docComment.append(advance());
-            }
-            return token(DOC_COMMENT, docComment.toString());
-        } else if(match('*')) { // 多行注释开始 #*
-            while(!isAtEnd() && !match("*#")) { // #* ... *#
-                advance();
-            }
+    private static int hexValue(char c) {
+        return c <= '9' ? c - '0' : (c | 0x20) - 'a' + 10;
+    }
+
+    /* 注释主体交由BodyScanner整块跳过，文档注释的文本在读取字面量时生成 */
+    private TokenType comment() {
+        if(match('/')) { // 多行文档注释 #/ ... /#
+            current = BodyScanner.blockDocCommentEnd(sourceMap, current, length);
+            return token(DOC_COMMENT);
+        } else if(match('|')) { // 文档注释 #| ...\n | ...
+            current = BodyScanner.lineDocCommentEnd(sourceMap, current, length);
+            return token(DOC_COMMENT);
+        } else if(match('*')) { // 多行注释 #* ... *#
+            current = BodyScanner.blockCommentEnd(sourceMap, current, length);
             return null;
         } else { // 单行注释 # ...
-            while(!isAtEnd() && !match('\n')) {
-                advance();
-            }
+            current = BodyScanner.lineCommentEnd(sourceMap, current, length);
             return null;
         }
     }
 
     private boolean isAlpha(char c) {
-        return (c >= 'a' && c <= 'z')
-                || (c >= 'A' && c <= 'Z')
-                || (c == '_');
+        return CharClass.is(c, ALPHA);
     }
 
     private boolean isDigit(char c) {
-        return c >= '0' && c <= '9';
+        return CharClass.is(c, DIGIT);
     }
 
     private boolean isHexDigit(char c) {
-        return isDigit(c)
-                || (c >= 'a' && c <= 'f')
-                || (c >= 'A' && c <= 'F');
+        return CharClass.is(c, HEX);
     }
 
     private boolean isBinDigit(char c) {
-        return c == '0' || c == '1';
-    }
-
-    private boolean isChinese(char c) {
-        return c >= '\u4E00' && c <= '\u9FFF';
+        return CharClass.is(c, BIN);
     }
 
     private boolean isWhitespace(char c) {
-        return Character.isWhitespace(c);
+        return CharClass.is(c, SPACE);
     }
 
     private char charAt(int index) {
@@ -515,16 +676,6 @@ public class Lexer {
         return true;
     }
 
-    /* 检查当前往后的字符串是否是期望字符串，是则推进至该字符串后1 */
-    private boolean match(String expected) {
-        if(isAtEnd()) return false;
-        if(expected.equals(subString(current, Math.min(current + expected.length(), length)))) {
-            advance(expected.length());
-            return true;
-        }
-        return false;
-    }
-
 
     private boolean check(char expected) {
         if(isAtEnd()) return false;
@@ -540,11 +691,6 @@ public class Lexer {
         return charAt(current - 1);
     }
 
-    private char advance(int step) {
-        current += step;
-        return charAt(current - step);
-    }
-
     private char peek() {
         return charAt(current);
     }
@@ -557,39 +703,63 @@ public class Lexer {
         return sourceMap.subString(start, end);
     }
 
-    private Token token(TokenType type) {
+    private TokenType token(TokenType type) {
         return token(type, null);
     }
 
-    private Token token(TokenType type, Object literal) {
-        Span span = new Span(sourceMap.index, start, current);
+    private TokenType token(TokenType type, Object literal) {
+        this.end = current;
+        this.literal = literal;
+        return type;
+    }
 
-        if(Log.isAllowed(Log.LogType.DEBUG)) {
-            int[] lineAndCol = sourceMap.getLineAndCol(start);
-            Log.debug(start + Ansi.CYAN + "┃"
-                    + Ansi.DEFAULT + "(" + lineAndCol[0] + "," + lineAndCol[1] + ")" + Ansi.CYAN + "┃"
-                    + Ansi.DEFAULT + type.name() + Ansi.CYAN + "┃"
-                    + Ansi.DEFAULT + sourceMap.subString(start, current) + ((literal == null) ? "" : Ansi.CYAN + "┃"
-                    + Ansi.DEFAULT + literal));
-        }
+    /* 标识符经驻留表驱动，字面量为规范名称 */
+    private TokenType identifierToken(int nameStart, int nameEnd) {
+        this.identifierId = interner.intern(sourceMap, nameStart, nameEnd);
+        return token(IDENTIFIER, interner.name(identifierId));
+    }
 
-        return new Token(type, span, literal);
+    /* 数字字面量不装箱，记录于number */
+    private TokenType token(TokenType type, double number) {
+        this.end = current;
+        this.literal = null;
+        this.number = number;
+        return type;
     }
 
     // EOF特化
-    private Token eofToken() {
+    private TokenType eofToken() {
         // 特化部分:current -> start + 1
-        Span span = new Span(sourceMap.index, start, start + 1);
+        this.end = start + 1;
+        this.literal = null;
+        return EOF;
+    }
+
+    private static boolean isNumeric(TokenType type) {
+        return type == NUM || type == INT || type == COL;
+    }
+
+    private Object boxedLiteral(TokenType type) {
+        if(type == DOC_COMMENT) {
+            return BodyScanner.docCommentText(sourceMap, start, end);
+        }
+        return isNumeric(type) ? (Object) number : literal;
+    }
 
+    private void log(TokenType type) {
         if(Log.isAllowed(Log.LogType.DEBUG)) {
+            // 只取下位置与字面量，拼接在Log的输出线程中进行
+            SourceMap sourceMap = this.sourceMap;
+            int start = this.start;
+            int end = this.end;
+            Object literal = boxedLiteral(type);
             int[] lineAndCol = sourceMap.getLineAndCol(start);
-            Log.debug(start + Ansi.CYAN + "┃"
+            Log.debug(() -> start + Ansi.CYAN + "┃"
                     + Ansi.DEFAULT + "(" + lineAndCol[0] + "," + lineAndCol[1] + ")" + Ansi.CYAN + "┃"
-                    + Ansi.DEFAULT + EOF.name() + Ansi.CYAN + "┃"
-                    + Ansi.DEFAULT);
+                    + Ansi.DEFAULT + type.name() + Ansi.CYAN + "┃"
+                    + Ansi.DEFAULT + (type == EOF ? "" : sourceMap.subString(start, end))
+                    + ((literal == null) ? "" : Ansi.CYAN + "┃" + Ansi.DEFAULT + literal));
         }
-
-        return new Token(EOF, span, null);
     }
 
     /**
@@ -610,18 +780,15 @@ public class Lexer {
      * 错误恢复，扫描直到期望的字符
      * @param predicate 满足该条件则退出
      */
-    private void recover(Predicate<Character> predicate) {
-        while(!isAtEnd()) {
-            if(predicate.test(peek())) {
-                return;
-            }
-            advance();
+    private void recover(CharPredicate predicate) {
+        while(current < length && !predicate.test(charAt(current))) {
+            current++;
         }
     }
 
     private LexerIssue error(String text) {
         LexerIssue e = new LexerIssue(sourceMap, text, IssueLevel.ERROR);
-        errorList.add(e);
+        if(errorList.size() < maxErrors) errorList.add(e);
         return e;
     }
 
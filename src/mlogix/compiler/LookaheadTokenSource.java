@@ -0,0 +1,82 @@
+package mlogix.compiler;
+
+import mlogix.logix.*;
+
+import static mlogix.logix.TokenType.*;
+
+/**
+ * 逐个从Lexer扫描Token，前瞻的Token缓存于固定深度的环形缓冲中
+ * <p>
+ * 读到EOF后停留在EOF上，越过EOF的前瞻也为EOF
+ */
+final class LookaheadTokenSource implements TokenSource {
+    static final int DEFAULT_DEPTH = 4; /* Parser至多前瞻到下一个token之后的第2个 */
+
+    private final Lexer lexer;
+    private final int depth;
+    private final Token[] ring;
+    private final int mask;
+    private int head;  /* 下一个token在ring中的位置 */
+    private int count; /* 已扫描未消费的token数 */
+
+    /**
+     * @param depth 可前瞻的token数，peek(offset)的offset需小于depth
+     */
+    LookaheadTokenSource(Lexer lexer, int depth) {
+        if(depth < 1) {
+            throw new IllegalArgumentException("前瞻深度至少为1: " + depth);
+        }
+        this.lexer = lexer;
+        this.depth = depth;
+        int size = Integer.highestOneBit(Math.max(depth, 2) - 1) << 1;
+        this.ring = new Token[size];
+        this.mask = size - 1;
+    }
+
+    @Override
+    public TokenType peekType() {
+        return peek(0).type;
+    }
+
+    @Override
+    public TokenType peekType(int offset) {
+        return peek(offset).type;
+    }
+
+    @Override
+    public Token peek() {
+        return peek(0);
+    }
+
+    @Override
+    public Token peek(int offset) {
+        if(offset < 0 || offset >= depth) {
+            throw new IllegalArgumentException("offset: " + offset + ", 前瞻深度: " + depth);
+        }
+        while(count <= offset) {
+            if(count > 0) {
+                Token last = ring[(head + count - 1) & mask];
+                if(last.type == EOF) return last;
+            }
+            ring[(head + count) & mask] = lexer.scanToken();
+            count++;
+        }
+        return ring[(head + offset) & mask];
+    }
+
+    @Override
+    public Token next() {
+        Token token = peek(0);
+        skip();
+        return token;
+    }
+
+    @Override
+    public void skip() {
+        Token token = peek(0);
+        if(token.type == EOF) return; // 停留在末尾的EOF上
+        ring[head] = null;
+        head = (head + 1) & mask;
+        count--;
+    }
+}
@@ -0,0 +1,594 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.SourceMapManager.*;
+import mlogix.compiler.struct.*;
+import mlogix.logix.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static mlogix.logix.Expr.*;
+import static mlogix.logix.Stmt.*;
+
+/**
+ * 磁盘上的语法树缓存
+ * <p>
+ * 每个条目以 编译器版本 + 格式版本 + 源码内容 的SHA-256命名，内容未变的文件直接读取语法树，
+ * 不再词法分析与语法分析。只缓存没有错误和警告的文件，有问题的文件每次重新解析以报告问题
+ * <p>
+ * 条目为紧凑的二进制格式：字符串表 + 前序排列的节点，整数为变长编码，起点为相对于上一个起点的差值，Token随节点存储；
+ * 读取时内存映射整个条目。读写都以显式栈遍历，不受嵌套深度限制。
+ * 写入时先写临时文件再原子替换，可在多个线程中同时调用
+ */
+public class ParseCache {
+    private static final int MAGIC = 0x4D4C5843; /* "MLXC" */
+    private static final int FORMAT = 1; /* 格式变化时递增 */
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private static final long MAX_BYTES = 64L << 20; /* 超过时从最久未使用的条目开始删除 */
+    private static final long MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000; /* 超过此时长未使用的条目被删除 */
+
+    // 节点标签，0为null
+    private static final byte PROGRAM = 1, BLOCK = 2, EXPR_STMT = 3, IF_STMT = 4, FOR_STMT = 5, WHILE_STMT = 6,
+            BREAK_STMT = 7, CONTINUE_STMT = 8, FN_STMT = 9, RETURN_STMT = 10, ASSIGN_STMT = 11, SET_VAR_STMT = 12;
+    private static final byte LITERAL = 20, IDENTIFIER = 21, UNARY = 22, BINARY = 23, ARRAY = 24, INDEX = 25,
+            RANGE = 26, CALL = 27, GET = 28;
+
+    // 字面量标签
+    private static final byte NO_LITERAL = 0, STRING_LITERAL = 1, NUMBER_LITERAL = 2;
+
+    public final Path directory;
+
+    public ParseCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 计算SourceMap的缓存键
+     */
+    public byte[] key(SourceMap sourceMap) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((Compiler.VERSION + "/" + FORMAT + "\0").getBytes(StandardCharsets.UTF_8));
+        sourceMap.digest(digest);
+        return digest.digest();
+    }
+
+    /**
+     * 读取缓存的语法树，Span的索引为该SourceMap的索引
+     * @param interner 标识符经此驻留，与同一次编译中解析得到的标识符共享实例
+     * @return 不存在或已损坏时为null
+     */
+    public ASTNode load(byte[] key, SourceMap sourceMap, IdentifierInterner interner) {
+        Path entry = entry(key);
+        if(!Files.isRegularFile(entry)) return null;
+        try {
+            ASTNode ast;
+            try(FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+                ast = new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), sourceMap.index, interner).read();
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis())); // 记录使用时间以供淘汰
+            return ast;
+        } catch(IOException | RuntimeException e) {
+            delete(entry); // 损坏的条目
+            return null;
+        }
+    }
+
+    /**
+     * 写入语法树，失败时忽略，缓存失败不影响编译
+     */
+    public void store(byte[] key, ASTNode ast) {
+        byte[] bytes;
+        try {
+            bytes = new Writer().write(ast);
+        } catch(RuntimeException | StackOverflowError e) {
+            return; // 含有无法序列化的节点，或访问延迟的函数体时解析失败
+        }
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            if(temp != null) delete(temp);
+        }
+    }
+
+    /**
+     * 删除超过MAX_AGE_MILLIS未使用的条目，再从最久未使用的开始删除直到总大小不超过MAX_BYTES
+     */
+    public void evict() {
+        if(!Files.isDirectory(directory)) return;
+        List<Path> entries;
+        try(Stream<Path> list = Files.list(directory)) {
+            entries = list.filter(Files::isRegularFile).toList();
+        } catch(IOException e) {
+            return;
+        }
+
+        record Entry(Path path, long lastModified, long size) {
+        }
+        long now = System.currentTimeMillis();
+        List<Entry> alive = new ArrayList<>();
+        long total = 0;
+        for(Path path : entries) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                if(now - lastModified > MAX_AGE_MILLIS) {
+                    delete(path);
+                } else {
+                    alive.add(new Entry(path, lastModified, attributes.size()));
+                    total += attributes.size();
+                }
+            } catch(IOException e) {
+                // 已被其他进程删除
+            }
+        }
+
+        alive.sort(Comparator.comparingLong(Entry::lastModified));
+        for(int i = 0; total > MAX_BYTES && i < alive.size(); i++) {
+            delete(alive.get(i).path);
+            total -= alive.get(i).size;
+        }
+    }
+
+    private Path entry(byte[] key) {
+        return directory.resolve(HexFormat.of().formatHex(key) + ".ast");
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch(IOException e) {
+            // 下次淘汰时再删除
+        }
+    }
+
+    //######################################## 写入
+
+    private static class Writer {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private byte[] body = new byte[256];
+        private int size;
+        private int lastStart;
+
+        byte[] write(ASTNode ast) {
+            tree(ast);
+            byte[] nodes = Arrays.copyOf(body, size);
+
+            size = 0;
+            varint(strings.size());
+            for(String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                varint(bytes.length);
+                bytes(bytes);
+            }
+            byte[] table = Arrays.copyOf(body, size);
+
+            ByteBuffer buffer = ByteBuffer.allocate(12 + table.length + nodes.length);
+            buffer.putInt(MAGIC).putInt(FORMAT).putInt(table.length + nodes.length);
+            buffer.put(table).put(nodes);
+            return buffer.array();
+        }
+
+        /*
+         * 以显式栈按前序写入，不受嵌套深度限制；栈中为节点、Token或节点列表，
+         * null节点与null Token都写为一个0字节，因此不必区分
+         */
+        private void tree(ASTNode root) {
+            List<Object> stack = new ArrayList<>();
+            stack.add(root);
+            while(!stack.isEmpty()) {
+                Object item = stack.remove(stack.size() - 1);
+                if(item instanceof Token token) {
+                    token(token);
+                } else if(item instanceof List<?> list) {
+                    varint(list.size());
+                    for(int i = list.size() - 1; i >= 0; i--) {
+                        stack.add(list.get(i));
+                    }
+                } else if(item == null) {
+                    tag(0);
+                } else {
+                    node((ASTNode) item, stack);
+                }
+            }
+        }
+
+        /* 写入节点的标签与Span，子节点按顺序压栈 */
+        private void node(ASTNode node, List<Object> stack) {
+            if(node instanceof Program n) {
+                tag(PROGRAM, n);
+                push(stack, n.stmts);
+            } else if(node instanceof Block n) {
+                tag(BLOCK, n);
+                push(stack, n.stmts);
+            } else if(node instanceof ExprStmt n) {
+                tag(EXPR_STMT, n);
+                push(stack, n.expr);
+            } else if(node instanceof IfStmt n) {
+                tag(IF_STMT, n);
+                push(stack, n.condition, n.thenBranch, n.elseBranch);
+            } else if(node instanceof ForStmt n) {
+                tag(FOR_STMT, n);
+                push(stack, n.varDecl, n.expr, n.body);
+            } else if(node instanceof WhileStmt n) {
+                tag(WHILE_STMT, n);
+                push(stack, n.expr, n.body);
+            } else if(node instanceof BreakStmt n) {
+                tag(BREAK_STMT, n);
+            } else if(node instanceof ContinueStmt n) {
+                tag(CONTINUE_STMT, n);
+            } else if(node instanceof FnStmt n) {
+                tag(FN_STMT, n);
+                push(stack, n.name, n.parameters, n.results, n.body());
+            } else if(node instanceof ReturnStmt n) {
+                tag(RETURN_STMT, n);
+                push(stack, n.expr);
+            } else if(node instanceof AssignStmt n) {
+                tag(ASSIGN_STMT, n);
+                push(stack, n.var, n.operator, n.value);
+            } else if(node instanceof SetVarStmt n) {
+                tag(SET_VAR_STMT, n);
+                push(stack, n.var, n.assignStmt);
+            } else if(node instanceof Literal n) {
+                tag(LITERAL, n);
+                push(stack, n.token);
+            } else if(node instanceof Identifier n) {
+                tag(IDENTIFIER, n);
+                push(stack, n.token);
+            } else if(node instanceof Unary n) {
+                tag(UNARY, n);
+                push(stack, n.operator, n.expr);
+            } else if(node instanceof Binary n) {
+                tag(BINARY, n);
+                push(stack, n.left, n.operator, n.right);
+            } else if(node instanceof Array n) {
+                tag(ARRAY, n);
+                push(stack, n.elements);
+            } else if(node instanceof Index n) {
+                tag(INDEX, n);
+                push(stack, n.list, n.index);
+            } else if(node instanceof Range n) {
+                tag(RANGE, n);
+                push(stack, n.left, n.operator, n.right);
+            } else if(node instanceof Call n) {
+                tag(CALL, n);
+                push(stack, n.callee, n.arguments);
+            } else if(node instanceof Get n) {
+                tag(GET, n);
+                push(stack, n.object, n.field);
+            } else {
+                throw new IllegalArgumentException("无法缓存的节点: " + node.getClass().getName());
+            }
+        }
+
+        /* 逆序压栈，出栈时按写入顺序 */
+        private static void push(List<Object> stack, Object... children) {
+            for(int i = children.length - 1; i >= 0; i--) {
+                stack.add(children[i]);
+            }
+        }
+
+        private void tag(int tag) {
+            ensure(1);
+            body[size++] = (byte) tag;
+        }
+
+        private void tag(int tag, ASTNode node) {
+            tag(tag);
+            span(node.span);
+        }
+
+        /* 起点相对于上一个起点，再加长度；前序排列中起点大多相近 */
+        private void span(long span) {
+            int start = PackedSpan.start(span);
+            varint(zigzag(start - lastStart));
+            varint(PackedSpan.length(span));
+            lastStart = start;
+        }
+
+        private static int zigzag(int value) {
+            return (value << 1) ^ (value >> 31);
+        }
+
+        /* 类型序号+1，0为null */
+        private void token(Token token) {
+            if(token == null) {
+                varint(0);
+                return;
+            }
+            varint(token.type.ordinal() + 1);
+            span(token.span);
+            if(token.literal == null) {
+                tag(NO_LITERAL);
+            } else if(token.literal instanceof String string) {
+                tag(STRING_LITERAL);
+                varint(strings.computeIfAbsent(string, s -> strings.size()));
+            } else if(token.literal instanceof Double number) {
+                tag(NUMBER_LITERAL);
+                long bits = Double.doubleToRawLongBits(number);
+                ensure(8);
+                for(int i = 56; i >= 0; i -= 8) {
+                    body[size++] = (byte) (bits >>> i);
+                }
+            } else {
+                throw new IllegalArgumentException("无法缓存的字面量: " + token.literal.getClass().getName());
+            }
+        }
+
+        /* 无符号LEB128，负数占5字节 */
+        private void varint(int value) {
+            ensure(5);
+            while((value & ~0x7F) != 0) {
+                body[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            body[size++] = (byte) value;
+        }
+
+        private void bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, body, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensure(int count) {
+            if(size + count > body.length) {
+                body = Arrays.copyOf(body, Math.max(body.length * 2, size + count));
+            }
+        }
+    }
+
+    //######################################## 读取
+
+    private static class Reader {
+        private final ByteBuffer buffer;
+        private final int index; /* Span所在SourceMap的索引 */
+        private final IdentifierInterner interner;
+        private String[] strings;
+        private boolean[] interned; /* strings中已替换为驻留名称的 */
+        private int lastStart;
+
+        Reader(ByteBuffer buffer, int index, IdentifierInterner interner) {
+            this.buffer = buffer;
+            this.index = index;
+            this.interner = interner;
+        }
+
+        ASTNode read() throws IOException {
+            if(buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT
+                    || buffer.getInt() != buffer.remaining()) {
+                throw new IOException("缓存条目格式错误");
+            }
+            strings = new String[count()];
+            interned = new boolean[strings.length];
+            for(int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[count()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            ASTNode ast = tree();
+            if(buffer.hasRemaining()) {
+                throw new IOException("缓存条目格式错误");
+            }
+            return ast;
+        }
+
+        /*
+         * 以显式栈读取前序排列的节点，不受嵌套深度限制：
+         * 每个未读完的节点一帧，按其字段的形状依次读取，字段读完时构造节点交给上一帧
+         */
+        private ASTNode tree() throws IOException {
+            List<Frame> stack = new ArrayList<>();
+            if(!begin(stack)) return null;
+            while(true) {
+                Frame frame = stack.get(stack.size() - 1);
+                if(frame.isComplete()) {
+                    stack.remove(stack.size() - 1);
+                    ASTNode node = frame.build();
+                    if(stack.isEmpty()) return node;
+                    stack.get(stack.size() - 1).accept(node);
+                    continue;
+                }
+                char field = frame.field();
+                if(field == 't') {
+                    frame.accept(token());
+                } else if((field == 'S' || field == 'E') && !frame.inList()) {
+                    frame.beginList(count());
+                } else if(!begin(stack)) {
+                    frame.accept(null);
+                }
+            }
+        }
+
+        /* 读取节点的标签与Span并压入一帧，null节点时返回false */
+        private boolean begin(List<Frame> stack) throws IOException {
+            int tag = buffer.get();
+            if(tag == 0) return false;
+            long span = span();
+            stack.add(new Frame(tag, span, shape(tag)));
+            return true;
+        }
+
+        /*
+         * 节点的字段依次为：s 语句 e 表达式 i 标识符 t Token S 语句列表 E 表达式列表，
+         * 与Writer的写入顺序相同
+         */
+        private static String shape(int tag) throws IOException {
+            return switch(tag) {
+                case PROGRAM, BLOCK -> "S";
+                case EXPR_STMT, RETURN_STMT -> "e";
+                case IF_STMT -> "ess";
+                case FOR_STMT -> "ies";
+                case WHILE_STMT -> "es";
+                case BREAK_STMT, CONTINUE_STMT -> "";
+                case FN_STMT -> "tEEs";
+                case ASSIGN_STMT -> "ete";
+                case SET_VAR_STMT -> "es";
+                case LITERAL, IDENTIFIER -> "t";
+                case UNARY -> "te";
+                case BINARY, RANGE -> "ete";
+                case ARRAY -> "E";
+                case INDEX, GET -> "ee";
+                case CALL -> "eE";
+                default -> throw new IOException("未知的节点标签: " + tag);
+            };
+        }
+
+        private long span() {
+            int delta = varint();
+            int start = lastStart + ((delta >>> 1) ^ -(delta & 1));
+            lastStart = start;
+            return PackedSpan.of(index, start, start + varint());
+        }
+
+        private Token token() throws IOException {
+            int type = varint();
+            if(type == 0) return null;
+            if(type > TYPES.length) throw new IOException("未知的TokenType: " + (type - 1));
+            long span = span();
+            return switch(buffer.get()) {
+                case NO_LITERAL -> new Token(TYPES[type - 1], span);
+                case STRING_LITERAL -> new Token(TYPES[type - 1], span, string(varint(), TYPES[type - 1] == TokenType.IDENTIFIER));
+                case NUMBER_LITERAL -> new Token(TYPES[type - 1], span, Double.longBitsToDouble(buffer.getLong()));
+                default -> throw new IOException("未知的字面量标签");
+            };
+        }
+
+        /* 标识符的名称经驻留表替换为规范实例，Parser等以==比较 */
+        private String string(int i, boolean identifier) throws IOException {
+            if(i >= strings.length) throw new IOException("字符串索引越界: " + i);
+            if(identifier && !interned[i]) {
+                strings[i] = interner.name(interner.intern(strings[i]));
+                interned[i] = true;
+            }
+            return strings[i];
+        }
+
+        /* 元素数量，每个元素至少占一个字节 */
+        private int count() throws IOException {
+            int count = varint();
+            if(count < 0 || count > buffer.remaining()) throw new IOException("缓存条目格式错误");
+            return count;
+        }
+
+        private int varint() {
+            int value = 0;
+            for(int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if(b >= 0) return value;
+            }
+        }
+    }
+
+    /**
+     * Reader中一个未读完的节点，values按shape的顺序存放已读取的字段
+     */
+    private static final class Frame {
+        final int tag;
+        final long span;
+        final String shape;
+        final Object[] values;
+        int position;
+        List<Object> list; /* 正在读取的列表字段 */
+        int remaining;
+
+        Frame(int tag, long span, String shape) {
+            this.tag = tag;
+            this.span = span;
+            this.shape = shape;
+            this.values = new Object[shape.length()];
+        }
+
+        boolean isComplete() {
+            return position == shape.length();
+        }
+
+        char field() {
+            return shape.charAt(position);
+        }
+
+        boolean inList() {
+            return list != null;
+        }
+
+        void beginList(int count) {
+            if(count == 0) {
+                values[position++] = new ArrayList<>(0);
+            } else {
+                list = new ArrayList<>(count);
+                remaining = count;
+            }
+        }
+
+        /* 当前字段或列表元素的值，类型不符时条目已损坏 */
+        void accept(Object value) throws IOException {
+            char field = shape.charAt(position);
+            boolean valid = value == null || switch(field) {
+                case 's', 'S' -> value instanceof Stmt;
+                case 'e', 'E' -> value instanceof Expr;
+                case 'i' -> value instanceof Identifier;
+                default -> value instanceof Token;
+            };
+            if(!valid) throw new IOException("缓存条目格式错误");
+            if(list == null) {
+                values[position++] = value;
+            } else {
+                list.add(value);
+                if(--remaining == 0) {
+                    values[position++] = list;
+                    list = null;
+                }
+            }
+        }
+
+        ASTNode build() {
+            ASTNode node = switch(tag) {
+                case PROGRAM -> new Program(span, list(0));
+                case BLOCK -> new Block(span, list(0));
+                case EXPR_STMT -> new ExprStmt(span, (Expr) values[0]);
+                case IF_STMT -> new IfStmt(span, (Expr) values[0], (Stmt) values[1], (Stmt) values[2]);
+                case FOR_STMT -> new ForStmt(span, (Identifier) values[0], (Expr) values[1], (Stmt) values[2]);
+                case WHILE_STMT -> new WhileStmt(span, (Expr) values[0], (Stmt) values[1]);
+                case BREAK_STMT -> new BreakStmt(span);
+                case CONTINUE_STMT -> new ContinueStmt(span);
+                case FN_STMT -> new FnStmt(span, (Token) values[0], list(1), list(2), (Stmt) values[3]);
+                case RETURN_STMT -> new ReturnStmt(span, (Expr) values[0]);
+                case ASSIGN_STMT -> new AssignStmt(span, (Expr) values[0], (Token) values[1], (Expr) values[2]);
+                case SET_VAR_STMT -> new SetVarStmt(span, (Expr) values[0], (Stmt) values[1]);
+                case LITERAL -> new Literal((Token) values[0]);
+                case IDENTIFIER -> new Identifier((Token) values[0]);
+                case UNARY -> new Unary((Token) values[0], (Expr) values[1]);
+                case BINARY -> new Binary((Expr) values[0], (Token) values[1], (Expr) values[2]);
+                case ARRAY -> new Array(span, list(0));
+                case INDEX -> new Index(span, (Expr) values[0], (Expr) values[1]);
+                case RANGE -> new Range(span, (Expr) values[0], (Token) values[1], (Expr) values[2]);
+                case CALL -> new Call(span, (Expr) values[0], list(1));
+                default -> new Get((Expr) values[0], (Expr) values[1]); // shape()已检查标签
+            };
+            node.span = span; // 由子节点推导Span的节点也以存储的为准
+            return node;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> List<T> list(int index) {
+            return (List<T>) values[index]; // accept()已检查元素类型
+        }
+    }
+}
@@ -13,44 +13,286 @@ import static mlogix.logix.Stmt.*;
 import static mlogix.logix.TokenType.*;
 
 public class Parser {
-    private final Lexer lexer;
+    // 二元运算符的优先级，数值越大结合越紧
+    private static final int LOGIC_OR = 1;    /* || */
+    private static final int LOGIC_AND = 2;   /* && */
+    private static final int EQUALITY = 3;    /* == != === !== */
+    private static final int COMPARISON = 4;  /* < > <= >= */
+    private static final int RANGE = 5;       /* .. ..= */
+    private static final int BIT_OR = 6;      /* | */
+    private static final int BIT_XOR = 7;     /* ^ */
+    private static final int BIT_AND = 8;     /* & */
+    private static final int SHIFT = 9;       /* << >> */
+    private static final int TERM = 10;       /* + - */
+    private static final int FACTOR = 11;     /* * / % %% // */
+    private static final int POWER = 12;      /* ** */
+
+    private static final int[] PRECEDENCE = new int[TokenType.values().length]; /* 以TokenType序号索引，0表示不是二元运算符 */
+
+    static {
+        precedence(LOGIC_OR, OR_OR);
+        precedence(LOGIC_AND, AND_AND);
+        precedence(EQUALITY, EQ_EQ, BANG_EQ, EQ_EQ_EQ, BANG_EQ_EQ);
+        precedence(COMPARISON, LESS, GREATER, LESS_EQ, GREATER_EQ);
+        precedence(RANGE, DOT_DOT, DOT_DOT_EQ);
+        precedence(BIT_OR, OR);
+        precedence(BIT_XOR, CARET);
+        precedence(BIT_AND, AND);
+        precedence(SHIFT, SHL, SHR);
+        precedence(TERM, PLUS, MINUS);
+        precedence(FACTOR, STAR, SLASH, PERCENT, PERCENT_PERCENT, SLASH_SLASH);
+        precedence(POWER, STAR_STAR);
+    }
+
+    public static final int DEFAULT_MAX_NESTING = 10000;
+    /* 索引 调用 数组 类型声明仍为递归解析，其嵌套另有此上限，避免栈溢出 */
+    private static final int MAX_RECURSION = 1000;
+    // 表达式显式栈中一元运算符与左括号的帧，非负的帧为expression(minLevel)的minLevel
+    private static final int UNARY_FRAME = -1;
+    private static final int PAREN_FRAME = -2;
+
+    // 解析路径上判断的Token集合，遮蔽TokenType中同名的EnumSet
+    private static final TokenSet LITERALS = TokenSet.of(TokenType.LITERALS);
+    private static final TokenSet BINARY_OPERATORS = TokenSet.of(TokenType.BINARY_OPERATORS);
+    private static final TokenSet UNARY_OPERATORS = TokenSet.of(BANG, MINUS, TILDE);
+    private static final TokenSet RANGE_OPERATORS = TokenSet.of(DOT_DOT, DOT_DOT_EQ);
+    private static final TokenSet TYPE_START = TokenSet.of(NUM, INT, COL, STRING, TRUE, FALSE, NULL, IDENTIFIER, LPAREN); /* 类型声明中的各类型 */
+    private static final TokenSet STMT_SYNC = TokenSet.of(IF, FOR, WHILE, FN, LBRACE); /* 语句级错误恢复的同步集合 */
+
+    private static void precedence(int level, TokenType... types) {
+        for(TokenType type : types) {
+            PRECEDENCE[type.ordinal()] = level;
+        }
+    }
+
+    // 必须通过工具方法访问
+    private final TokenSource tokens;
     private final SourceMap sourceMap;
 
     private final List<Issue> errorList;
     private final List<Issue> warningList;
 
-    // 作为前瞻缓冲 必须通过工具方法访问
-    private Token nextToken = null;
+    private Issue pending; /* 正在向上传递的错误，为null时上一次解析成功 */
+    private int position; /* 已消费的token数，用于判断错误恢复是否有进展 */
+    private boolean deferBodies; /* 函数体延迟到访问时解析 */
+    private int maxNesting = DEFAULT_MAX_NESTING;
+    private int maxErrors = Integer.MAX_VALUE;
+
+    private final List<Object> stmtFrames = new ArrayList<>(); /* 语句的显式栈，元素为BlockFrame IfFrame等 */
+    // 表达式的显式栈，各数组的同一下标为一帧
+    private int[] frames = new int[16];
+    private int[] frameMaxLevels = new int[16]; /* 帧可结合的二元运算符的最高优先级 */
+    private int[] frameLevels = new int[16]; /* 待结合的二元运算符的优先级 */
+    private Token[] frameTokens = new Token[16]; /* 一元运算符、左括号或待结合的二元运算符 */
+    private Token[] frameRights = new Token[16]; /* 逻辑运算符的右操作数的第一个Token */
+    private Expr[] frameLefts = new Expr[16]; /* 待结合的左操作数 */
+    private int exprDepth;
+    private int nesting; /* 以显式栈解析的块与括号的嵌套层数 */
+    private int recursion; /* expression()等的递归层数 */
 
     Parser(Lexer lexer, SourceMap sourceMap, List<Issue> errorList, List<Issue> warningList) {
-        this.lexer = lexer;
+        this(TokenSource.of(lexer), sourceMap, errorList, warningList);
+    }
+
+    /**
+     * 以索引游标消费已扫描完成的TokenBuffer
+     */
+    public Parser(TokenBuffer tokenBuffer, SourceMap sourceMap, List<Issue> errorList, List<Issue> warningList) {
+        this(tokenBuffer.cursor(), sourceMap, errorList, warningList);
+    }
+
+    Parser(TokenSource tokens, SourceMap sourceMap, List<Issue> errorList, List<Issue> warningList) {
+        this.tokens = tokens;
         this.sourceMap = sourceMap;
         this.errorList = errorList;
         this.warningList = warningList;
     }
 
     public ASTNode parse() {
-        Stmt program = program();
+        try {
+            Stmt program = program();
+
+            return program;
+        } finally {
+            tokens.close(); // 解析中止时也要取消流水线中的扫描
+        }
+    }
+
+    /**
+     * 启用时函数体只做括号匹配，第一次访问{@link FnStmt#body()}时才解析，
+     * 其中的问题也在那时报告到本Parser的列表中；只对TokenBuffer生效
+     * <p>
+     * 供只需要函数签名的调用者使用，如大纲与符号索引；
+     * Compiler需要全部函数体(转为ASTArena时即全部解析)，不启用
+     */
+    public Parser deferBodies(boolean deferBodies) {
+        this.deferBodies = deferBodies;
+        return this;
+    }
+
+    /**
+     * 块与括号的最大嵌套层数，超过时报告错误并跳过过深的部分，而不是栈溢出；
+     * 这些嵌套与一元、二元运算符以显式栈解析，上限只受内存限制，
+     * 其余的嵌套不超过此值与{@value #MAX_RECURSION}中较小者
+     */
+    public Parser maxNesting(int maxNesting) {
+        if(maxNesting < 1) {
+            throw new IllegalArgumentException("嵌套层数的上限至少为1: " + maxNesting);
+        }
+        this.maxNesting = maxNesting;
+        return this;
+    }
 
-        return program;
+    /**
+     * errorList中的错误达到此数量时不再报告，并视为已到达末尾，逐层结束解析，
+     * 使错误恢复引起的连锁错误不会无限增长
+     */
+    public Parser maxErrors(int maxErrors) {
+        if(maxErrors < 1) {
+            throw new IllegalArgumentException("错误数的上限至少为1: " + maxErrors);
+        }
+        this.maxErrors = maxErrors;
+        return this;
+    }
+
+    /**
+     * 增量解析，previous为编辑前的语法树，tokens为编辑后经{@link Lexer#relex}得到的TokenBuffer
+     * <p>
+     * 顶层语句之间只有解析位置这一个状态，因此编辑处之前的顶层语句直接沿用；
+     * 从受编辑影响的第一个顶层语句开始重新解析，直到解析位置回到
+     * relex沿用的Token中且恰好是某个编辑处之后的顶层语句开始解析的位置，此后的顶层语句也沿用。
+     * 沿用的语句不逐个平移，而是在第一次访问时才平移，因此耗时只与重新解析的部分有关，见{@link StmtList}。
+     * 只有重新解析的部分会报告问题
+     * @param previous 编辑前的语法树，其语句列表由新的语法树接管，此后不可再使用；
+     *                 不是由{@link #parse()}或本方法得到时(如来自缓存)重新解析全部
+     */
+    public static ReparseResult reparse(Program previous, TokenBuffer tokens, TextEdit edit,
+                                        List<Issue> errorList, List<Issue> warningList) {
+        StmtList oldStmts = previous.stmts instanceof StmtList list ? list : null;
+        int offset = edit.offset();
+
+        // 上一个语句结束时最多前瞻到下一个语句的前两个Token，它们早于编辑处时之前的语句不受影响；
+        // 语句的起点递增，因此可以二分查找最后一个这样的语句
+        int keep = 0;
+        int restart = 0;
+        int low = 0, high = oldStmts == null ? -1 : oldStmts.size() - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int first = oldStmts.start(mid) < offset ? tokens.indexAt(oldStmts.start(mid)) : -1;
+            if(first >= 0 && first + 1 < tokens.size()
+                    && tokens.end(first) < offset && tokens.end(first + 1) < offset) {
+                keep = mid;
+                restart = first;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        List<Stmt> stmts = new ArrayList<>();
+        int[] starts = new int[16];
+        int suffixFrom = oldStmts == null ? 0 : oldStmts.size();
+
+        TokenBuffer.Cursor cursor = tokens.cursor(restart);
+        Parser parser = new Parser(cursor, tokens.sourceMap, errorList, warningList);
+        int reusedFrom = tokens.reusedFrom();
+        int delta = edit.delta();
+        while(!parser.isAtEnd()) {
+            int start = tokens.start(cursor.index());
+            if(oldStmts != null && cursor.index() >= reusedFrom) {
+                int j = oldStmts.indexOf(start - delta, keep);
+                if(j >= 0 && oldStmts.start(j) >= edit.removedEnd()) {
+                    suffixFrom = j;
+                    break;
+                }
+            }
+            Stmt stmt = parser.statement();
+            if(parser.failed()) {
+                parser.recovered();
+                parser.normalRecover();
+                continue;
+            }
+            if(stmts.size() == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+            starts[stmts.size()] = start;
+            stmts.add(stmt);
+        }
+
+        int length = tokens.sourceMap.length();
+        StmtList list = oldStmts == null ? new StmtList(stmts, starts, length)
+                : oldStmts.splice(keep, stmts, starts, suffixFrom, length);
+        Program program = new Program(parser.span(0, length), list);
+        return new ReparseResult(program, keep, keep + stmts.size());
+    }
+
+    /**
+     * @param reparsedFrom 重新解析的第一个顶层语句的索引
+     * @param reparsedTo 重新解析的最后一个顶层语句的索引+1，此前与此后的顶层语句都是沿用的
+     */
+    public record ReparseResult(Program program, int reparsedFrom, int reparsedTo) {
     }
 
     //########################################
     private Stmt program() {
         List<Stmt> stmts = new ArrayList<>();
+        int[] starts = new int[16];
 
         while(!isAtEnd()) {
-            try {
-                stmts.add(statement());
-            } catch(ParserIssue e) {
+            int start = lookAhead().start();
+            Stmt stmt = statement();
+            if(failed()) {
+                recovered();
                 normalRecover(); // 有用吗
+                continue;
             }
+            if(stmts.size() == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+            starts[stmts.size()] = start;
+            stmts.add(stmt);
         }
 
-        return new Program(span(0, sourceMap.length()), stmts);
+        return new Program(span(0, sourceMap.length()), new StmtList(stmts, starts, sourceMap.length()));
     }
 
+    /**
+     * 语句的嵌套(块 if for while fn)以显式栈{@link #stmtFrames}解析，不占用调用栈：
+     * 头部解析完成后压入等待语句体的帧，再以{@link #openBlock()}压入块的帧，
+     * 块结束时交给下层的帧，失败时弹出本次压入的全部帧
+     */
     private Stmt statement() {
+        int base = stmtFrames.size();
+        return run(base, startStatement());
+    }
+
+    private Stmt block() {
+        int base = stmtFrames.size();
+        return run(base, openBlock());
+    }
+
+    /**
+     * 执行显式栈直到回到base
+     * @param result 刚解析完成的语句，为null时继续解析栈顶的块
+     */
+    private Stmt run(int base, Stmt result) {
+        while(true) {
+            if(failed()) {
+                while(stmtFrames.size() > base) {
+                    if(stmtFrames.remove(stmtFrames.size() - 1) instanceof BlockFrame) nesting--;
+                }
+                return null;
+            }
+            if(result == null) {
+                result = blockStep((BlockFrame) stmtFrames.get(stmtFrames.size() - 1));
+            } else if(stmtFrames.size() == base) {
+                return result;
+            } else {
+                result = deliver(stmtFrames.get(stmtFrames.size() - 1), result);
+            }
+        }
+    }
+
+    /**
+     * 解析完成的语句，或压入了新的帧、失败时返回null
+     */
+    private Stmt startStatement() {
         if(check(IF)) return ifStmt();
 
         if(check(FOR)) return forStmt();
@@ -59,109 +301,163 @@ public class Parser {
         if(check(FN)) return functionStmt();
 
         //if (match(MATCH)) return matchStmt();
-        if(check(LBRACE)) return block();
+        if(check(LBRACE)) return openBlock();
         return exprStmt();
     }
 
-    private Stmt block() {
-        Token lBrace = next();
+    /**
+     * 压入块的帧并返回null，嵌套过深时跳过整个块并返回空块
+     */
+    private Stmt openBlock() {
+        if(nesting >= maxNesting) {
+            Token lBrace = lookAhead();
+            tooDeep(maxNesting);
+            return new Block(span(lBrace, skipNested(lBrace.start())), new ArrayList<>());
+        }
+        nesting++;
+        stmtFrames.add(new BlockFrame(next(), new ArrayList<>()));
+        return null;
+    }
 
-        List<Stmt> stmts = new ArrayList<>();
+    /**
+     * 继续解析块中的语句，块结束时弹出并返回它
+     */
+    private Stmt blockStep(BlockFrame frame) {
+        List<Stmt> stmts = frame.stmts;
         while(!check(RBRACE)) {
             if(isAtEnd()) {
                 if(expect(RBRACE) == null) {
-                    return new Block(span(lBrace, stmts.isEmpty() ? lBrace.span.end()
-                            : stmts.get(stmts.size() - 1).span.end()), stmts);
+                    closeBlock();
+                    return new Block(span(frame.lBrace, stmts.isEmpty() ? frame.lBrace.end()
+                            : stmts.get(stmts.size() - 1).end()), stmts);
                 }
                 break;
             }
-            stmts.add(statement());
+            Stmt stmt = startStatement();
+            // 失败、压入了新的帧，或嵌套过深时返回了新压入的帧的语句体
+            if(stmt == null || stmtFrames.get(stmtFrames.size() - 1) != frame) return stmt;
+            stmts.add(stmt);
         }
         Token rbrace = next();
+        closeBlock();
+
+        return new Block(span(frame.lBrace, rbrace), stmts);
+    }
+
+    private void closeBlock() {
+        stmtFrames.remove(stmtFrames.size() - 1);
+        nesting--;
+    }
+
+    /**
+     * 将解析完成的语句交给栈顶的帧
+     */
+    private Stmt deliver(Object frame, Stmt stmt) {
+        if(frame instanceof BlockFrame block) {
+            block.stmts.add(stmt);
+            return null;
+        }
+        if(frame instanceof IfFrame ifFrame && ifFrame.thenBranch == null) {
+            ifFrame.thenBranch = stmt;
+            if(match(ELIF)) {
+                return ifStmt();
+            } else if(match(ELSE)) {
+                expect(LBRACE);
+                return openBlock();
+            }
+            stmtFrames.remove(stmtFrames.size() - 1);
+            return new IfStmt(span(ifFrame.start, stmt.end()), ifFrame.condition, stmt, null);
+        }
+        stmtFrames.remove(stmtFrames.size() - 1);
+
+        if(frame instanceof IfFrame ifFrame) {
+            return new IfStmt(span(ifFrame.start, stmt.end()), ifFrame.condition, ifFrame.thenBranch, stmt);
+        } else if(frame instanceof ForFrame forFrame) {
+            return new ForStmt(span(forFrame.start, stmt.end()), forFrame.var, forFrame.expr, stmt);
+        } else if(frame instanceof WhileFrame whileFrame) {
+            return new WhileStmt(span(whileFrame.start, stmt.end()), whileFrame.expr, stmt);
+        }
+        FnFrame fnFrame = (FnFrame) frame;
+        return new FnStmt(span(fnFrame.start, stmt.end()), fnFrame.name, fnFrame.parameters, fnFrame.results, stmt);
+    }
 
-        return new Block(span(lBrace, rbrace), stmts);
+    /**
+     * 头部解析完成，压入等待语句体的帧
+     */
+    private Stmt awaitBody(Object frame) {
+        stmtFrames.add(frame);
+        return openBlock();
     }
 
     private Stmt ifStmt() {
         Token start = next();
 
         Expr condition = expression();
+        if(failed()) return null;
 
         expect(LBRACE);
-        Stmt thenBranch = block();
-
-        Stmt elseBranch = null;
-        if(match(ELIF)) {
-            elseBranch = ifStmt();
-        } else if(match(ELSE)) {
-            expect(LBRACE);
-            elseBranch = block();
-        }
-
-        int end = elseBranch == null ? thenBranch.span.end() : elseBranch.span.end();
-
-        return new IfStmt(span(start, end), condition, thenBranch, elseBranch);
+        return awaitBody(new IfFrame(start, condition));
     }
 
     private Stmt forStmt() {
         Token start = next();
 
-        Identifier var = null;
-
+        // 以前瞻区分`for x in expr` `for x`与`for expr`，不先消费标识符
         if(check(IDENTIFIER)) {
-            var = new Identifier(next());
-            if(check("in")) {
-                next();
+            Token following = lookAhead(1);
+            if(following.type == IDENTIFIER && following.literal == IdentifierInterner.IN) {
+                Identifier var = new Identifier(next());
+                match(IDENTIFIER); // in
                 Expr expr = expression();
+                if(failed()) return null;
 
                 expect(LBRACE);
-                Stmt body = block();
-
-                return new ForStmt(span(start, body.span.end()), var, expr, body);
+                return awaitBody(new ForFrame(start, var, expr));
+            }
+            if(following.type == LBRACE) {
+                Identifier var = new Identifier(next());
+                expect(LBRACE);
+                return awaitBody(new ForFrame(start, var, null));
             }
-            expect(LBRACE);
-            Stmt body = block();
-
-            return new ForStmt(span(start, body.span.end()), var, null, body);
         }
         Expr expr = expression();
+        if(failed()) return null;
 
         expect(LBRACE);
-        Stmt body = block();
-
-        return new ForStmt(span(start, body.span.end()), var, expr, body);
+        return awaitBody(new ForFrame(start, null, expr));
     }
 
     private Stmt whileStmt() {
         Token start = next();
 
         Expr expr = expression();
+        if(failed()) return null;
 
         expect(LBRACE);
-        Stmt body = block();
-
-        int end = body.span.end();
-
-        return new WhileStmt(span(start, end), expr, body);
+        return awaitBody(new WhileFrame(start, expr));
     }
 
     private Stmt functionStmt() {
         Token start = next();
 
         Token name = consume(IDENTIFIER);
+        if(failed()) return null;
         consume(LPAREN);
+        if(failed()) return null;
 
         List<Expr> parameters = new ArrayList<>();
         while(!match(RPAREN)) {
             if(isAtEnd()) {
-                throw error("无法结束的`函数形参声明`")
+                return fail(error("无法结束的`函数形参声明`")
                         .info(start, "函数声明开头")
-                        .point(lookAhead(), "末尾");
+                        .point(lookAhead(), "末尾"));
             }
-            // TODO var : type
-            parameters.add(expression());
+            Expr parameter = expression();
+            if(failed()) return null;
+            parameters.add(parameter);
             if(!match(COMMA)) {
                 consume(RPAREN);
+                if(failed()) return null;
                 break;
             }
         }
@@ -172,52 +468,76 @@ public class Parser {
             while(!check(LBRACE)) {
                 if(isAtEnd()) {
                     if(results.isEmpty()) {
-                        throw error("无法找到`函数返回值声明`")
+                        return fail(error("无法找到`函数返回值声明`")
                                 .info(start, "函数开头")
-                                .point(lookAhead(), "期望`标识符`");
+                                .point(lookAhead(), "期望`标识符`"));
                     } else {
-                        throw error("无法找到函数体")
+                        return fail(error("无法找到函数体")
                                 .info(start, "函数开头")
-                                .point(lookAhead(), "期望`{`");
+                                .point(lookAhead(), "期望`{`"));
                     }
                 }
-                try {
-                    results.add(expression());
-                } catch(ParserIssue e) {
-                    e.info(arrow, "解析`函数返回值声明`时出现错误");
+                Expr result = expression();
+                if(failed()) {
+                    recovered().info(arrow, "解析`函数返回值声明`时出现错误");
                     normalRecover();
                     break;
                 }
+                results.add(result);
                 match(COMMA); // 可选逗号
             }
         }
         expect(LBRACE);
-        Stmt body = block();
-
-        int end = body.span.end();
+        if(deferBodies && tokens.peekType() == LBRACE && tokens instanceof TokenBuffer.Cursor cursor) {
+            // 跳过函数体，不匹配时跳到EOF，由解析函数体时报告
+            TokenBuffer buffer = cursor.buffer();
+            int from = cursor.index();
+            int to = buffer.matchBrace(from);
+            long bodySpan = span(buffer.start(from), Math.max(buffer.end(to), buffer.start(from)));
+            if(buffer.type(to) == RBRACE) to++;
+            position += to - from;
+            cursor.seek(to);
+            return new FnStmt(span(start, PackedSpan.end(bodySpan)), name, parameters, results,
+                    bodySpan, this::parseBody);
+        }
+        return awaitBody(new FnFrame(start, name, parameters, results));
+    }
 
-        return new FnStmt(span(start, end), name, parameters, results, body);
+    /*
+     * 解析延迟的函数体，增量扫描后在接管的TokenBuffer中按起点找到{；
+     * 只解析到匹配的}为止，出错时的恢复不会越过函数体而重复解析之后的语句
+     */
+    private Stmt parseBody(long bodySpan) {
+        TokenBuffer buffer = ((TokenBuffer.Cursor) tokens).buffer().live();
+        int from = buffer.indexAt(PackedSpan.start(bodySpan));
+        int to = buffer.matchBrace(from);
+        TokenBuffer.Cursor cursor = buffer.type(to) == RBRACE ? buffer.cursor(from, to + 1) : buffer.cursor(from);
+        Parser parser = new Parser(cursor, buffer.sourceMap, errorList, warningList)
+                .deferBodies(true).maxNesting(maxNesting).maxErrors(maxErrors);
+        Stmt body = parser.block();
+        if(parser.failed()) {
+            int start = PackedSpan.start(bodySpan);
+            parser.recovered().info(start, start + 1, "解析函数体时出错");
+            return new Block(bodySpan, new ArrayList<>());
+        }
+        return body;
     }
 
     private Stmt exprStmt() {
         if(check(BREAK)) {
             Token start = next();
-            Token end;
-            try {
-                end = consumeStmtEnd();
-            } catch(ParserIssue e) {
-                e.info(start, "解析`break`时出错");
+            Token end = consumeStmtEnd();
+            if(failed()) {
+                recovered().info(start, "解析`break`时出错");
                 end = start;
             }
             return new BreakStmt(span(start, end));
 
         } else if(check(CONTINUE)) {
             Token start = next();
-            Token end;
-            try {
-                end = consumeStmtEnd();
-            } catch(ParserIssue e) {
-                e.info(start, "解析`continue`时出错");
+            Token end = consumeStmtEnd();
+            if(failed()) {
+                recovered().info(start, "解析`continue`时出错");
                 end = start;
             }
             return new ContinueStmt(span(start, end));
@@ -229,76 +549,67 @@ public class Parser {
                 return new ReturnStmt(span(start, end), null);
             }
 
-            Expr expr;
-            try {
-                expr = expression();
-            } catch(ParserIssue e) {
-                e.info(start, "解析`return`语句时出错");
+            Expr expr = expression();
+            if(failed()) {
+                recovered().info(start, "解析`return`语句时出错");
                 expr = new Literal(token(ERROR, lookAhead()));
             }
 
-            try {
-                end = consumeStmtEnd();
-            } catch(ParserIssue e) {
-                e.info(start, "解析`return`语句时出错");
+            end = consumeStmtEnd();
+            if(failed()) {
+                recovered().info(start, "解析`return`语句时出错");
                 end = lookAhead();
             }
             return new ReturnStmt(span(start, end), expr);
         } else if(check(SET)) {
             Token start = next();
-            Expr var;
-            try {
-                var = expression();
-            } catch(ParserIssue e) {
-                e.info(start, "解析`set`变量时出错");
+            Expr var = expression();
+            if(failed()) {
+                recovered().info(start, "解析`set`变量时出错");
                 var = new Identifier(token(ERROR, lookAhead()));
             }
 
-            Stmt assignStmt;
-            try {
-                assignStmt = assignStmt(var);
-            } catch(ParserIssue e) {
-                e.info(start, "解析`set`赋值语句时出错");
+            Stmt assignStmt = assignStmt(var);
+            if(failed()) {
+                recovered().info(start, "解析`set`赋值语句时出错");
                 assignStmt = null;
             }
 
             if(assignStmt == null) {
                 int end;
-                try {
-                    end = consumeStmtEnd().span.end();
-                } catch(ParserIssue e) {
-                    e.info(start, "解析`break`时出错");
-                    end = var.span.end();
+                Token endToken = consumeStmtEnd();
+                if(failed()) {
+                    recovered().info(start, "解析`break`时出错");
+                    end = var.end();
+                } else {
+                    end = endToken.end();
                 }
                 return new SetVarStmt(span(start, end), var, null);
             } else {
-                return new SetVarStmt(span(start, assignStmt.span.end()), var, assignStmt);
+                return new SetVarStmt(span(start, assignStmt.end()), var, assignStmt);
             }
         } else {
             Token start = lookAhead();
-            Expr var;
-            try {
-                var = expression();
-            } catch(ParserIssue e) {
-                e.info(start, "解析表达式时出错");
+            Expr var = expression();
+            if(failed()) {
+                recovered().info(start, "解析表达式时出错");
                 var = new Literal(token(ERROR, lookAhead()));
             }
 
-            Stmt assignStmt;
-            try {
-                assignStmt = assignStmt(var);
-            } catch(ParserIssue e) {
-                e.info(start, "解析`赋值语句`时出错");
+            Stmt assignStmt = assignStmt(var);
+            if(failed()) {
+                recovered().info(start, "解析`赋值语句`时出错");
                 assignStmt = null;
             }
 
             if(assignStmt == null) {
                 int end;
-                try {
-                    end = consumeStmtEnd().span.end();
-                } catch(ParserIssue e) {
-                    e.info(start, "解析`赋值语句`时出错");
-                    end = var.span.end();
+                Token endToken = consumeStmtEnd();
+                if(failed()) {
+                    recovered().info(start, "解析`赋值语句`时出错");
+                    end = var.end();
+                } else {
+                    end = endToken.end();
                 }
                 return new ExprStmt(span(start, end), var);
             } else {
@@ -308,250 +619,309 @@ public class Parser {
     }
 
     private Stmt assignStmt(Expr expr) {
+        if(isStmtEnd()) return null; // 换行处已是语句结束，check会越过换行，不能先于此判断
         if(check(ASSIGN)) {
             Token operator = next();
-            Expr value;
-            try {
-                value = expression();
-            } catch(ParserIssue e) {
-                e.info(operator, "解析赋值表达式时出错");
+            Expr value = expression();
+            if(failed()) {
+                recovered().info(operator, "解析赋值表达式时出错");
                 value = new Literal(token(ERROR, lookAhead()));
             }
 
-            Token end;
-            try {
-                end = consumeStmtEnd();
-            } catch(ParserIssue e) {
-                e.info(operator, "解析赋值语句时出错");
+            Token end = consumeStmtEnd();
+            if(failed()) {
+                recovered().info(operator, "解析赋值语句时出错");
                 end = lookAhead();
             }
-            return new AssignStmt(span(expr.span.start(), end.span.end()), expr, operator, value);
+            return new AssignStmt(span(expr.start(), end.end()), expr, operator, value);
 
         } else if(check(BINARY_OPERATORS)) {
-            Token operator = next();
-            if(check(ASSIGN)) {
-                Token assignOp = next();
-                Expr value;
-                try {
-                    value = expression();
-                } catch(ParserIssue e) {
-                    e.info(operator, "解析复合赋值表达式时出错");
+            if(tokens.peekType(1) == ASSIGN) { // 复合赋值，与operator(_)相同地前瞻判断，不先消费运算符
+                Token operator = next();
+                skip(); // =
+                Expr value = expression();
+                if(failed()) {
+                    recovered().info(operator, "解析复合赋值表达式时出错");
                     value = new Literal(token(ERROR, lookAhead()));
                 }
 
-                Token end;
-                try {
-                    end = consumeStmtEnd();
-                } catch(ParserIssue e) {
-                    e.info(operator, "解析复合赋值语句时出错");
+                Token end = consumeStmtEnd();
+                if(failed()) {
+                    recovered().info(operator, "解析复合赋值语句时出错");
                     end = lookAhead();
                 }
-                return new AssignStmt(span(expr.span.start(), end.span.end()), expr, operator, value);
+                return new AssignStmt(span(expr.start(), end.end()), expr, operator, value);
             }
-            Expr right;
-            try {
-                right = expression();
-            } catch(ParserIssue e) {
-                e.info(operator, "解析二元表达式时出错");
+            // 表达式在不可结合的运算符等处结束，继续解析为二元表达式
+            Token operator = next();
+            Expr right = expression();
+            if(failed()) {
+                recovered().info(operator, "解析二元表达式时出错");
                 right = new Literal(token(ERROR, lookAhead()));
             }
-            return new ExprStmt(span(expr.span.start(), right.span.end()), new Binary(expr, operator, right));
+            return new ExprStmt(span(expr.start(), right.end()), new Binary(expr, operator, right));
         }
         return null;
     }
 
     private Expr expression() {
-        return or();
+        return expression(LOGIC_OR);
     }
 
-    private Expr or() {
-        Expr expr = and();
+    /**
+     * 优先级爬升，解析由优先级不低于minLevel的二元运算符连接的表达式
+     * <p>
+     * 每个运算符只查一次优先级表，无需逐层调用；
+     * `&&` `||` `**`右结合，`..`不可结合，其余左结合
+     * <p>
+     * 二元运算符的右操作数、一元运算符与括号以显式栈解析，不占用调用栈：
+     * {@link #descend}沿前缀压入帧直到最内层的操作数，再交给栈顶的帧，
+     * 帧遇到二元运算符时记下左操作数并再次下降，否则结合后弹出
+     */
+    private Expr expression(int minLevel) {
+        int limit = Math.min(maxNesting, MAX_RECURSION);
+        if(recursion >= limit) return skipTooDeep(limit);
+        recursion++;
 
-        while(!isStmtEnd() && check(OR_OR)) {
-            Token operator = next();
-            Token lparen = lookAhead();
-            Expr right = or();
-            if(lparen.type != LPAREN && right instanceof Binary && ((Binary) right).operator.type == AND_AND) {
-                throw error("不明确关系的逻辑运算表达式，请添加括号")
-                        .point(expr.span.start(), right.span.end(), "");
+        int base = exprDepth;
+        Expr expr = descend(minLevel);
+        while(true) {
+            int top = exprDepth - 1;
+            int frame = frames[top];
+            if(frame == UNARY_FRAME) {
+                expr = failed() ? null : new Unary(frameTokens[top], expr);
+            } else if(frame == PAREN_FRAME) {
+                nesting--;
+                expr = closeParen(frameTokens[top], expr);
+            } else {
+                if(frameTokens[top] != null) {
+                    expr = combine(top, expr);
+                }
+                if(!failed()) {
+                    int rightLevel = operator(top);
+                    if(rightLevel > 0) {
+                        frameLefts[top] = expr;
+                        expr = descend(rightLevel);
+                        continue;
+                    }
+                }
             }
-            expr = new Binary(expr, operator, right);
+            exprDepth = top; // 帧中的引用在下次压入时覆盖
+            if(top == base) break;
         }
 
+        recursion--;
         return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
+    /**
+     * 压入expression(minLevel)的帧，一元运算符与左括号各压入一帧并继续下降，
+     * 返回最内层的操作数(已结合后缀)
+     */
+    private Expr descend(int minLevel) {
+        while(true) {
+            pushFrame(minLevel, null);
+            if(minLevel <= RANGE) {
+                prefixRange();
+            }
 
-        while(!isStmtEnd() && check(AND_AND)) {
-            Token operator = next();
-            Token lparen = lookAhead();
-            Expr right = or();
-            if(lparen.type != LPAREN && right instanceof Binary && ((Binary) right).operator.type == OR_OR) {
-                throw error("不明确关系的逻辑运算表达式，请添加括号")
-                        .point(expr.span.start(), right.span.end(), "");
+            // ! - ~，操作数可以是乘方 -a ** b 即 -(a ** b)
+            if(!isStmtEnd() && check(UNARY_OPERATORS)) {
+                pushFrame(UNARY_FRAME, next());
+                minLevel = POWER;
+                continue;
+            }
+            // 与primary()相同，但括号压入一帧
+            Expr expr;
+            if(check(LITERALS)) {
+                expr = literal();
+            } else if(check(IDENTIFIER)) {
+                expr = identifier();
+            } else if(check(LPAREN)) {
+                if(nesting >= maxNesting) {
+                    expr = skipTooDeep(maxNesting); // 至少跳过了左括号，不会失败
+                } else {
+                    nesting++;
+                    pushFrame(PAREN_FRAME, next());
+                    minLevel = LOGIC_OR;
+                    continue;
+                }
+            } else {
+                expr = array();
             }
-            expr = new Binary(expr, operator, right);
+            if(failed()) return null;
+            return postfix(expr);
         }
+    }
 
-        return expr;
+    private void pushFrame(int frame, Token token) {
+        if(exprDepth == frames.length) growFrames();
+        frames[exprDepth] = frame;
+        frameMaxLevels[exprDepth] = POWER; // 已结合的运算符之后只能出现优先级不高于它的运算符
+        frameTokens[exprDepth++] = token;
+    }
+
+    private void growFrames() {
+        int length = exprDepth * 2;
+        frames = Arrays.copyOf(frames, length);
+        frameMaxLevels = Arrays.copyOf(frameMaxLevels, length);
+        frameLevels = Arrays.copyOf(frameLevels, length);
+        frameTokens = Arrays.copyOf(frameTokens, length);
+        frameRights = Arrays.copyOf(frameRights, length);
+        frameLefts = Arrays.copyOf(frameLefts, length);
     }
 
     /**
-     *  == !=
+     * 若下一个是帧可结合的二元运算符，消费它并记入帧中
+     * @return 右操作数的minLevel，没有可结合的运算符时为0
      */
-    private Expr equality() {
-        Expr expr = comparison();
-
-        while(!isStmtEnd() && check(EQ_EQ, BANG_EQ)) {
-            Token operator = next();
-            Expr right = comparison();
-            expr = new Binary(expr, operator, right);
+    private int operator(int top) {
+        if(isStmtEnd()) return 0;
+        int maxLevel = frameMaxLevels[top];
+        TokenType type = tokens.peekType();
+        // Lexer传来的错误Token视为当前可结合的优先级最高的运算符
+        int level = type == ERROR ? maxLevel : PRECEDENCE[type.ordinal()];
+        if(level < frames[top] || level > maxLevel) return 0;
+        if(BINARY_OPERATORS.contains(type) && tokens.peekType(1) == ASSIGN) return 0; // 复合赋值，由assignStmt解析
+
+        Token operator = next();
+        frameTokens[top] = operator;
+        frameLevels[top] = level;
+        switch(level) {
+            case LOGIC_OR, LOGIC_AND -> {
+                frameRights[top] = lookAhead();
+                return LOGIC_OR;
+            }
+            case RANGE -> {
+                if(!check(LITERALS) && !check(IDENTIFIER) && !check(LPAREN)) { // expr ..
+                    new Range(span(operator, operator), null, operator, null);
+                }
+                return RANGE + 1;
+            }
+            default -> {
+                return level == POWER ? POWER : level + 1;
+            }
         }
+    }
 
+    /**
+     * 结合帧中记下的左操作数、运算符与右操作数
+     */
+    private Expr combine(int top, Expr right) {
+        Expr expr = frameLefts[top];
+        Token operator = frameTokens[top];
+        int level = frameLevels[top];
+        Token lparen = frameRights[top];
+        frameTokens[top] = null;
+        switch(level) {
+            case LOGIC_OR, LOGIC_AND -> {
+                if(failed()) return null;
+                TokenType mixed = level == LOGIC_OR ? AND_AND : OR_OR;
+                if(lparen.type != LPAREN && right instanceof Binary && ((Binary) right).operator.type == mixed) {
+                    return fail(error("不明确关系的逻辑运算表达式，请添加括号")
+                            .point(expr.start(), right.end(), ""));
+                }
+                expr = new Binary(expr, operator, right);
+            }
+            case RANGE -> {
+                if(failed()) {
+                    recovered().info(operator, "解析`范围表达式`时出现错误");
+                    right = new Literal(token(ERROR, lookAhead()));
+                }
+                // expr .. expr
+                expr = new Range(PackedSpan.between(expr.span, right.span), expr, operator, right);
+                level = RANGE - 1; // 不可结合
+            }
+            default -> {
+                if(failed()) return null;
+                expr = new Binary(expr, operator, right);
+            }
+        }
+        frameMaxLevels[top] = level;
         return expr;
     }
 
-
     /**
-     *  > >= < <=
+     * 括号内的表达式解析完成
      */
-    private Expr comparison() {
-        Expr expr = range();
-
-        while(!isStmtEnd() && check(GREATER, GREATER_EQ, LESS, LESS_EQ)) {
-            Token operator = next();
-            Expr right = range();
-            expr = new Binary(expr, operator, right);
+    private Expr closeParen(Token lParen, Expr expr) {
+        if(failed()) {
+            recovered().info(lParen, "找不到括号内的表达式");
+            expr = new Literal(token(ERROR, lookAhead()));
         }
-
-        return expr;
+        consume(RPAREN);
+        if(failed()) {
+            recovered().info(lParen, "解析`括号内表达式`时出现错误");
+        }
+        return postfix(expr);
     }
 
-    private Expr range() {
-        if(!isStmtEnd() && check(DOT_DOT, DOT_DOT_EQ)) { // .. expr?
+    /**
+     * 前缀范围表达式 ..expr?，位于范围表达式的左操作数之前
+     */
+    private void prefixRange() {
+        if(!isStmtEnd() && check(RANGE_OPERATORS)) { // .. expr?
             Token operator = next();
 
             if(!check(LITERALS) && !check(IDENTIFIER) && !check(LPAREN)) { // ..
                 new Range(span(operator, operator), null, operator, null);
             }
 
-            Expr right;
-            try {
-                right = addAndSub();
-            } catch(ParserIssue e) {
-                e.info(operator, "解析`范围表达式`时出现错误");
+            Expr right = expression(RANGE + 1);
+            if(failed()) {
+                recovered().info(operator, "解析`范围表达式`时出现错误");
                 right = new Literal(token(ERROR, lookAhead()));
             }
             // .. expr
-            new Range(span(operator, right.span.end()), null, operator, right);
-        }
-
-        Expr expr = addAndSub();
-
-        if(!isStmtEnd() && check(DOT_DOT, DOT_DOT_EQ)) { // expr .. expr?
-            Token operator = next();
-
-            if(!check(LITERALS) && !check(IDENTIFIER) && !check(LPAREN)) { // expr ..
-                new Range(span(operator, operator), null, operator, null);
-            }
-
-            Expr right;
-            try {
-                right = addAndSub();
-            } catch(ParserIssue e) {
-                e.info(operator, "解析`范围表达式`时出现错误");
-                right = new Literal(token(ERROR, lookAhead()));
-            }
-            // expr .. expr
-            expr = new Range(Span.between(expr.span, right.span), expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr addAndSub() {
-        Expr expr = mulAndDiv();
-
-        while(!isStmtEnd() && check(PLUS, MINUS)) {
-            Token operator = next();
-            Expr right = mulAndDiv();
-            expr = new Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr mulAndDiv() {
-        Expr expr = unary();
-
-        while(!isStmtEnd() && check(STAR, SLASH)) {
-            Token operator = next();
-            Expr right = unary();
-            expr = new Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr unary() {
-        if(!isStmtEnd() && check(BANG, MINUS)) {
-            Token operator = next();
-            Expr right = unary();
-            return new Unary(operator, right);
+            new Range(span(operator, right.end()), null, operator, right);
         }
-
-        return listAndClassStmt();
     }
 
-    private Expr listAndClassStmt() {
-        Expr expr = primary();
-
+    /**
+     * 索引 调用 类元素访问
+     */
+    private Expr postfix(Expr expr) {
         while(true) {
             if(isStmtEnd()) return expr;
 
-            List<Expr> arguments = new ArrayList<>();
-
             if(check(LBRACKET)) {//对列表的索引或切片
                 Token lBracket = next();
 
-                Expr index;
-                try {
-                    index = expression();
-                } catch(ParserIssue e) {
-                    e.info(lBracket, "解析`数组索引`时出现错误");
+                Expr index = expression();
+                if(failed()) {
+                    recovered().info(lBracket, "解析`数组索引`时出现错误");
                     index = new Literal(token(ERROR, lookAhead()));
-                    ;
                 }
 
-                Token rBracket;
-                try {
-                    rBracket = consume(RBRACKET);
-                } catch(ParserIssue e) {
-                    e.info(lBracket, "解析`数组索引`时出现错误");
+                Token rBracket = consume(RBRACKET);
+                if(failed()) {
+                    recovered().info(lBracket, "解析`数组索引`时出现错误");
                     rBracket = null;
                 }
                 if(rBracket != null) {
                     expr = new Index(span(lBracket, rBracket), expr, index);
                 } else {
-                    expr = new Index(span(lBracket, index.span.end()), expr, index);
+                    expr = new Index(span(lBracket, index.end()), expr, index);
                 }
                 continue;
 
             } else if(check(LPAREN)) {//函数调用
                 Token lParen = next();
+                List<Expr> arguments = new ArrayList<>();
                 while(!check(RPAREN)) {
                     if(isAtEnd()) {
-                        throw error("无法结束的`函数传参`")
+                        return fail(error("无法结束的`函数传参`")
                                 .info(lParen, "参数开头")
-                                .point(lookAhead(), "末尾");
+                                .point(lookAhead(), "末尾"));
                     }
-                    try {
-                        arguments.add(expression());
-                    } catch(ParserIssue e) {
-                        e.info(lParen, "解析`函数调用`时出现错误");
+                    int from = position;
+                    Expr argument = expression();
+                    if(failed()) {
+                        Issue e = recovered().info(lParen, "解析`函数调用`时出现错误");
+                        if(position == from) return fail(e); // 停在同步点上，无法继续解析参数
+                        continue;
                     }
+                    arguments.add(argument);
                 }
                 Token rParen = next();
                 expr = new Call(span(lParen, rParen), expr, arguments);
@@ -560,11 +930,12 @@ public class Parser {
             } else if(check(DOT)) {//访问类的元素
                 Token dot = next();
                 Expr field;
-                try {
-                    field = new Identifier(consume(IDENTIFIER));
-                } catch(ParserIssue e) {
-                    e.info(dot, "解析`类元素访问`时出现错误");
+                Token name = consume(IDENTIFIER);
+                if(failed()) {
+                    recovered().info(dot, "解析`类元素访问`时出现错误");
                     field = new Identifier(token(ERROR, lookAhead()));
+                } else {
+                    field = new Identifier(name);
                 }
                 expr = new Get(expr, field);
                 continue;
@@ -574,87 +945,216 @@ public class Parser {
         }
     }
 
-    // TODO 添加新语法 var:type1 type2
     private Expr primary() {
         if(check(LITERALS)) {
-            Token literal = next();
+            return literal();
+        } else if(check(IDENTIFIER)) {
+            return identifier();
+        } else if(check(LPAREN)) {
+            Token lParen = next();
+            Expr expr = expression();
+            if(failed()) {
+                recovered().info(lParen, "找不到括号内的表达式");
+                expr = new Literal(token(ERROR, lookAhead()));
+            }
+            consume(RPAREN);
+            if(failed()) {
+                recovered().info(lParen, "解析`括号内表达式`时出现错误");
+            }
+            return expr;
+        }
+        return array();
+    }
+
+    private Expr literal() {
+        Token literal = next();
+        if(!isStmtEnd() && check(COLON)) {
+            Token colon = next();
             List<Expr> type = new ArrayList<>();
-            if(!isStmtEnd() && check(COLON)) {
-                Token colon = next();
-                while(!isAtEnd() && !isStmtEnd()) {
-                    try {
-                        type.add(primary());
-                    } catch(ParserIssue e) {
-                        e.info(colon, "解析`类型声明`时出现错误");
-                    }
+            while(TYPE_START.contains(tokens.peekType())) {
+                int from = position;
+                Expr typeExpr = typeExpr();
+                if(failed()) {
+                    Issue e = recovered().info(colon, "解析`类型声明`时出现错误");
+                    if(position == from) return fail(e); // 停在同步点上，无法继续解析类型
+                    continue;
                 }
-                return new Literal(literal);
+                type.add(typeExpr);
             }
             return new Literal(literal);
+        }
+        return new Literal(literal);
+    }
 
-        } else if(check(IDENTIFIER)) {
-            Token id = next();
+    /**
+     * 标识符，可带类型声明`var: type1 type2`，类型在前瞻到不能开始类型的token处结束，不越过换行
+     */
+    private Expr identifier() {
+        Token id = next();
+        if(!isStmtEnd() && check(COLON)) {
+            Token colon = next();
             List<Expr> type = new ArrayList<>();
-            if(!isStmtEnd() && check(COLON)) {
-                Token colon = next();
-                while(!isAtEnd()) {
-                    try {
-                        type.add(primary());
-                    } catch(ParserIssue e) {
-                        e.info(colon, "解析`类型声明`时出现错误");
-                    }
+            while(TYPE_START.contains(tokens.peekType())) {
+                int from = position;
+                Expr typeExpr = typeExpr();
+                if(failed()) {
+                    Issue e = recovered().info(colon, "解析`类型声明`时出现错误");
+                    if(position == from) return fail(e); // 停在同步点上，无法继续解析类型
+                    continue;
                 }
-                return new Identifier(id);
+                type.add(typeExpr);
             }
             return new Identifier(id);
+        }
+        return new Identifier(id);
+    }
 
-        } else if(check(LPAREN)) {
-            Token lParen = next();
-            Expr expr = null;
-            try {
-                expr = expression();
-            } catch(ParserIssue e) {
-                e.info(lParen, "找不到括号内的表达式");
-                expr = new Literal(token(ERROR, lookAhead()));
-            }
-            try {
-                consume(RPAREN);
-            } catch(ParserIssue e) {
-                e.info(lParen, "解析`括号内表达式`时出现错误");
-            }
-            return expr;
-        } else if(check(LBRACE)) {
+    /**
+     * 数组，不是数组时报告期望表达式
+     */
+    private Expr array() {
+        if(check(LBRACE)) {
             Token lBrace = next();
             List<Expr> elements = new ArrayList<>();
             while(!check(RBRACE)) {
                 if(isAtEnd()) {
-                    throw error("无法结束的数组")
+                    return fail(error("无法结束的数组")
                             .info(lBrace, "数组开头")
-                            .point(lookAhead(), "末尾");
+                            .point(lookAhead(), "末尾"));
                 }
-                try {
-                    elements.add(expression());
-                } catch(ParserIssue e) {
-                    e.info(lBrace, "解析`数组`时出现错误");
-                    elements.add(new Literal(token(ERROR, lookAhead())));
+                int from = position;
+                Expr element = expression();
+                if(failed()) {
+                    Issue e = recovered().info(lBrace, "解析`数组`时出现错误");
+                    if(position == from) return fail(e); // 停在同步点上，无法继续解析元素
+                    element = new Literal(token(ERROR, lookAhead()));
                 }
+                elements.add(element);
                 match(COMMA); // 可选逗号
             }
             Token rBrace = next();
             return new Array(span(lBrace, rBrace), elements);
         }
 
-        var error = error("期望表达式").point(lookAhead(), "");
+        Issue error = error("期望表达式").point(lookAhead(), "");
         normalRecover();
-        throw error;
+        return fail(error);
+    }
+
+    /**
+     * 类型声明中的primary()为递归解析，与expression()共用递归层数的上限
+     */
+    private Expr typeExpr() {
+        int limit = Math.min(maxNesting, MAX_RECURSION);
+        if(recursion >= limit) return skipTooDeep(limit);
+        recursion++;
+        Expr expr = primary();
+        recursion--;
+        return expr;
+    }
+
+    //######################################## 嵌套
+    /**
+     * 报告嵌套过深，跳过过深的部分并以错误占位节点代替；没有可跳过的Token时失败
+     */
+    private Expr skipTooDeep(int limit) {
+        Token first = lookAhead();
+        Issue issue = tooDeep(limit);
+        if(skipNested(-1) == -1) return fail(issue);
+        return new Literal(token(ERROR, first));
+    }
+
+    private Issue tooDeep(int limit) {
+        return error("嵌套层数超过上限").point(lookAhead(), "上限为" + limit);
+    }
+
+    /**
+     * 跳过Token直到括号深度为0处的右括号或语句结束符，
+     * 只报告一次错误，外层的括号仍能正常匹配
+     * @return 跳过的最后一个Token的末尾，没有跳过时为end
+     */
+    private int skipNested(int end) {
+        int depth = 0;
+        while(true) {
+            TokenType type = tokens.peekType();
+            switch(type) {
+                case EOF -> {
+                    return end;
+                }
+                case NEWLINE, SEMICOLON -> {
+                    if(depth == 0) return end;
+                }
+                case LPAREN, LBRACKET, LBRACE -> depth++;
+                case RPAREN, RBRACKET, RBRACE -> {
+                    if(depth == 0) return end;
+                    depth--;
+                }
+                default -> {
+                }
+            }
+            end = next().end();
+        }
+    }
+
+    private record BlockFrame(Token lBrace, List<Stmt> stmts) {
+    }
+
+    private static final class IfFrame {
+        final Token start;
+        final Expr condition;
+        Stmt thenBranch; /* 为null时等待then分支，否则等待else分支 */
+
+        IfFrame(Token start, Expr condition) {
+            this.start = start;
+            this.condition = condition;
+        }
+    }
+
+    private record ForFrame(Token start, Identifier var, Expr expr) {
+    }
+
+    private record WhileFrame(Token start, Expr expr) {
+    }
+
+    private record FnFrame(Token start, Token name, List<Expr> parameters, List<Expr> results) {
+    }
+
+    //######################################## 错误传递
+
+    /**
+     * 开始向上传递错误，返回null
+     * <p>
+     * 解析方法失败时返回null并记录正在传递的错误，调用者检查{@link #failed()}后
+     * 继续向上返回，或以{@link #recovered()}取出错误、补充信息并替换为占位节点
+     */
+    private <T> T fail(Issue issue) {
+        pending = issue;
+        return null;
+    }
+
+    /**
+     * 上一次解析是否失败
+     */
+    private boolean failed() {
+        return pending != null;
+    }
+
+    /**
+     * 停止传递错误并将其取出
+     */
+    private Issue recovered() {
+        Issue issue = pending;
+        pending = null;
+        return issue;
     }
 
     //########################################
     private boolean isAtEnd() {
-        TokenType nextType = lookAhead().type;
+        if(errorList.size() >= maxErrors) return true; // 错误达到上限，提前结束
+        TokenType nextType = tokens.peekType();
         if(nextType == NEWLINE) {
-            next();
-            nextType = lookAhead().type; // 第二个不会是NEWLINE
+            skip();
+            nextType = tokens.peekType(); // 第二个不会是NEWLINE
         }
         return nextType == EOF;
     }
@@ -663,119 +1163,82 @@ public class Parser {
      * 向前推进一个token
      */
     private Token next() {
-        if(nextToken != null) {
-            Token temp = nextToken;
-            nextToken = null;
-            return temp;
-        }
-        return lexer.scanToken();
+        position++;
+        return tokens.next();
     }
 
     /**
-     * 前瞻下一个token
+     * 向前推进一个token，不需要返回值时使用
      */
-    private Token lookAhead() {
-        if(nextToken != null) {
-            return nextToken;
-        }
-        nextToken = lexer.scanToken();
-        return nextToken;
+    private void skip() {
+        position++;
+        tokens.skip();
     }
 
     /**
-     * 不支持NEWLINE
+     * 前瞻下一个token
      */
-    private boolean check(TokenType type) {
-        TokenType nextType = lookAhead().type;
-        if(nextType == ERROR) return true; // 忽略Lexer传来的错误Token
-        if(nextType == NEWLINE) {
-            next();
-            nextType = lookAhead().type; // 第二个不会是NEWLINE
-        }
-        return nextType == type;
+    private Token lookAhead() {
+        return tokens.peek();
     }
 
     /**
-     * 不支持NEWLINE
+     * 前瞻下一个token之后第offset个token，与check相同地越过其前的一个NEWLINE，不消费
      */
-    private boolean check(Set<TokenType> types) {
-        TokenType nextType = lookAhead().type;
-        if(nextType == ERROR) return true; // 忽略Lexer传来的错误Token
-        if(nextType == NEWLINE) {
-            next();
-            nextType = lookAhead().type; // 第二个不会是NEWLINE
-        }
-        return types.contains(nextType);
+    private Token lookAhead(int offset) {
+        if(tokens.peekType(offset) == NEWLINE) offset++;
+        return tokens.peek(offset);
     }
 
     /**
      * 不支持NEWLINE
      */
-    private boolean check(String text) {
-        Token next = lookAhead();
-        if(next.type == ERROR) return true; // 忽略Lexer传来的错误Token
-        if(next.type == NEWLINE) {
-            next();
-            next = lookAhead(); // 第二个不会是NEWLINE
+    private boolean check(TokenType type) {
+        TokenType nextType = tokens.peekType();
+        if(nextType == ERROR) return true; // 忽略Lexer传来的错误Token
+        if(nextType == NEWLINE) {
+            skip();
+            nextType = tokens.peekType(); // 第二个不会是NEWLINE
         }
-        return text.equals(next.literal);
+        return nextType == type;
     }
 
     /**
      * 不支持NEWLINE
      */
-    private boolean check(TokenType... types) {
-        TokenType nextType = lookAhead().type;
+    private boolean check(TokenSet types) {
+        TokenType nextType = tokens.peekType();
         if(nextType == ERROR) return true; // 忽略Lexer传来的错误Token
         if(nextType == NEWLINE) {
-            next();
-            // 第二个不会是NEWLINE
-            nextType = lookAhead().type;
+            skip();
+            nextType = tokens.peekType(); // 第二个不会是NEWLINE
         }
-        for(TokenType expected : types) {
-            if(nextType == expected) return true;
-        }
-        return false;
+        return types.contains(nextType);
     }
 
     private boolean match(TokenType type) {
         if(check(type)) {
-            next();
-            return true;
-        }
-        return false;
-    }
-
-    private boolean match(Set<TokenType> types) {
-        if(check(types)) {
-            next();
+            skip();
             return true;
         }
         return false;
     }
 
-    private boolean match(TokenType... types) {
+    private boolean match(TokenSet types) {
         if(check(types)) {
-            next();
+            skip();
             return true;
         }
         return false;
     }
 
-    private boolean match(String... texts) {
-        for(String text : texts) {
-            if(check(text)) {
-                next();
-                return true;
-            }
-        }
-        return false;
-    }
-
     //########################################
+    /**
+     * 缺少语句结束符时失败
+     */
     private Token consumeStmtEnd() {
         // 检查 ; \n EOF 作为语句结束符
-        TokenType peekType = lookAhead().type;
+        TokenType peekType = tokens.peekType();
         if(peekType == NEWLINE || peekType == SEMICOLON || peekType == EOF) {
             return next();
         }
@@ -783,13 +1246,13 @@ public class Parser {
         if(peekType == LBRACE || peekType == RBRACE) {
             return lookAhead();
         }
-        // 如果没有找到，抛出错误
-        throw error("缺少换行或分号作为语句结束符")
-                .point(lookAhead(), "");
+        // 如果没有找到，报告错误
+        return fail(error("缺少换行或分号作为语句结束符")
+                .point(lookAhead(), ""));
     }
 
     private boolean isStmtEnd() {
-        TokenType peekType = lookAhead().type;
+        TokenType peekType = tokens.peekType();
         return peekType == NEWLINE || peekType == SEMICOLON || peekType == EOF;
     }
 
@@ -802,8 +1265,8 @@ public class Parser {
      * @param from 起始
      * @param to 末尾
      */
-    private Span span(Token from, Token to) {
-        return new Span(sourceMap.index, from.span.start(), to.span.end());
+    private long span(Token from, Token to) {
+        return PackedSpan.of(sourceMap.index, from.start(), to.end());
     }
 
     /**
@@ -811,8 +1274,8 @@ public class Parser {
      * @param from 起始
      * @param to 末尾
      */
-    private Span span(int from, Token to) {
-        return new Span(sourceMap.index, from, to.span.end());
+    private long span(int from, Token to) {
+        return PackedSpan.of(sourceMap.index, from, to.end());
     }
 
     /**
@@ -820,8 +1283,8 @@ public class Parser {
      * @param from 起始
      * @param to 末尾
      */
-    private Span span(Token from, int to) {
-        return new Span(sourceMap.index, from.span.start(), to);
+    private long span(Token from, int to) {
+        return PackedSpan.of(sourceMap.index, from.start(), to);
     }
 
     /**
@@ -829,8 +1292,8 @@ public class Parser {
      * @param from 起始
      * @param to 末尾
      */
-    private Span span(int from, int to) {
-        return new Span(sourceMap.index, from, to);
+    private long span(int from, int to) {
+        return PackedSpan.of(sourceMap.index, from, to);
     }
 
     /**
@@ -843,61 +1306,55 @@ public class Parser {
     }
 
     /**
-     * 若下一个token不是指定类型的则抛出错误，否则返回该token并推进
+     * 若下一个token不是指定类型的则报告错误并失败，否则返回该token并推进
      */
     private Token consume(TokenType type) {
         if(check(type)) return next();
-        throw error("未找到期望TokenType").point(lookAhead(), type.toString());
+        return fail(error("未找到期望TokenType").point(lookAhead(), type.toString()));
     }
 
-    private Token consume(Set<TokenType> types) {
+    private Token consume(TokenSet types) {
         if(check(types)) return next();
-        StringBuilder sbd = new StringBuilder();
-        for(TokenType type : types) {
-            sbd.append(type.toString()).append(" ");
-        }
-        throw error("未找到期望TokenType").point(lookAhead(), sbd.toString());
+        return fail(error("未找到期望TokenType").point(lookAhead(), types.toString()));
     }
 
     private Token consume(TokenType type, Runnable r) {
         if(check(type)) return next();
-        ParserIssue e = (ParserIssue) error("未找到期望字符").point(lookAhead(), type.toString());
+        Issue e = error("未找到期望字符").point(lookAhead(), type.toString());
         r.run();
-        throw e;
+        return fail(e);
     }
 
 
     /**
-     * 错误恢复，扫描直到期望的TokenType
+     * 错误恢复，扫描直到同步集合中的TokenType
      */
-    private void recover(TokenType... expectedTokenTypes) {
+    private void recover(TokenSet syncSet) {
         while(!isAtEnd()) {
-            for(TokenType expected : expectedTokenTypes) {
-                if(check(expected)) {
-                    return;
-                }
+            if(check(syncSet)) {
+                return;
             }
-            next();
+            skip();
         }
     }
 
     private void normalRecover() {
-        recover(IF, FOR, WHILE, FN, LBRACE);
+        recover(STMT_SYNC);
     }
 
     /**
-     * 报告错误并错误恢复，扫描直到期望的TokenType
+     * 报告错误并错误恢复，扫描直到同步集合中的TokenType
      */
-    private ParserIssue error(String text, TokenType... expectedTokenTypes) {
-        recover(expectedTokenTypes);
+    private ParserIssue error(String text, TokenSet syncSet) {
+        recover(syncSet);
         ParserIssue e = new ParserIssue(sourceMap, text, IssueLevel.ERROR);
-        errorList.add(e);
+        if(errorList.size() < maxErrors) errorList.add(e);
         return e;
     }
 
     private ParserIssue error(String text) {
         ParserIssue e = new ParserIssue(sourceMap, text, IssueLevel.ERROR);
-        errorList.add(e);
+        if(errorList.size() < maxErrors) errorList.add(e);
         return e;
     }
 
@@ -906,4 +1363,4 @@ public class Parser {
         warningList.add(e);
         return e;
     }
-}
\ No newline at end of file
+}
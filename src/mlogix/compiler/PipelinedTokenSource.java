@@ -0,0 +1,245 @@
+package mlogix.compiler;
+
+import mlogix.logix.*;
+
+import java.lang.invoke.*;
+import java.util.concurrent.locks.*;
+
+import static mlogix.logix.TokenType.*;
+
+/**
+ * 流水线模式的Token来源
+ * <p>
+ * Lexer在独立的线程中扫描，经有界的单生产者单消费者环形缓冲交给Parser。
+ * 缓冲满时Lexer等待(背压)，缓冲空时Parser等待，均先自旋再挂起；
+ * 两端以批为单位发布进度，减少缓存行的来回传递。
+ * <p>
+ * {@link #close()}取消扫描并等待扫描线程结束，之后才能读取该Lexer的问题列表
+ */
+public class PipelinedTokenSource implements TokenSource {
+    private static final int BATCH = 32; /* 每扫描/消费BATCH个Token发布一次进度 */
+    private static final int SPIN = 256; /* 挂起前的自旋次数 */
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(PipelinedTokenSource.class, "head", long.class);
+            TAIL = lookup.findVarHandle(PipelinedTokenSource.class, "tail", long.class);
+        } catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Lexer lexer;
+    private final Token[] ring;
+    private final int mask;
+    private final Thread producer;
+
+    // 共享状态，head只由Parser写，tail只由Lexer写
+    private long head;
+    private long tail;
+    private volatile boolean producerWaiting;
+    private volatile boolean consumerWaiting;
+    private volatile Thread consumer;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile Throwable failure;
+
+    // Parser端私有
+    private long readIndex;     /* 下一个要读取的位置 */
+    private long cachedTail;    /* 上次读到的tail */
+    private Token eofToken;     /* 已读到EOF，之后停留在EOF上 */
+
+    /**
+     * 启动扫描线程
+     * @param lexer 已reset的Lexer，其问题列表只能在close()之后读取
+     * @param capacity 缓冲的Token数，向上取为2的幂
+     */
+    public PipelinedTokenSource(Lexer lexer, int capacity) {
+        this.lexer = lexer;
+        int size = Integer.highestOneBit(Math.max(capacity, BATCH * 2) - 1) << 1;
+        this.ring = new Token[size];
+        this.mask = size - 1;
+        this.producer = new Thread(this::produce, "mlogix-lexer");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    //######################################## Lexer端
+
+    private void produce() {
+        try {
+            long writeIndex = 0;
+            long cachedHead = 0;
+            long published = 0;
+            while(true) {
+                if(writeIndex - cachedHead == ring.length) { // 缓冲满
+                    publishTail(writeIndex);
+                    published = writeIndex;
+                    cachedHead = awaitSpace(writeIndex);
+                    if(cancelled) return;
+                }
+                Token token = lexer.scanToken();
+                ring[(int) writeIndex & mask] = token;
+                writeIndex++;
+                if(token.type == EOF) {
+                    publishTail(writeIndex);
+                    return;
+                }
+                if(writeIndex - published == BATCH) {
+                    publishTail(writeIndex);
+                    published = writeIndex;
+                    if(cancelled) return;
+                }
+            }
+        } catch(Throwable e) {
+            failure = e;
+        } finally {
+            done = true;
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void publishTail(long writeIndex) {
+        TAIL.setVolatile(this, writeIndex);
+        if(consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /* 等待Parser腾出空间，返回最新的head；挂起后等到腾出一半再继续，避免频繁唤醒 */
+    private long awaitSpace(long writeIndex) {
+        for(int i = 0; i < SPIN; i++) {
+            long h = (long) HEAD.getVolatile(this);
+            if(writeIndex - h < ring.length || cancelled) return h;
+            Thread.onSpinWait();
+        }
+        producerWaiting = true;
+        try {
+            while(true) {
+                long h = (long) HEAD.getVolatile(this);
+                if(writeIndex - h <= ring.length / 2 || cancelled) return h;
+                LockSupport.park(this);
+            }
+        } finally {
+            producerWaiting = false;
+        }
+    }
+
+    //######################################## Parser端
+
+    @Override
+    public TokenType peekType() {
+        return peek().type;
+    }
+
+    @Override
+    public TokenType peekType(int offset) {
+        return peek(offset).type;
+    }
+
+    @Override
+    public Token peek() {
+        if(eofToken != null) return eofToken;
+        if(readIndex == cachedTail) {
+            awaitTokens(readIndex);
+        }
+        return ring[(int) readIndex & mask];
+    }
+
+    /**
+     * @param offset 需小于缓冲容量的一半，否则扫描线程可能无法继续
+     */
+    @Override
+    public Token peek(int offset) {
+        if(eofToken != null) return eofToken;
+        for(int i = 0; i <= offset; i++) {
+            long index = readIndex + i;
+            if(index >= cachedTail) {
+                awaitTokens(index);
+            }
+            Token token = ring[(int) index & mask];
+            if(token.type == EOF || i == offset) return token;
+        }
+        throw new IllegalArgumentException("offset: " + offset);
+    }
+
+    @Override
+    public Token next() {
+        Token token = peek();
+        skip();
+        return token;
+    }
+
+    @Override
+    public void skip() {
+        if(eofToken != null) return;
+        Token token = peek();
+        if(token.type == EOF) { // 停留在末尾的EOF上
+            eofToken = token;
+            return;
+        }
+        ring[(int) readIndex & mask] = null;
+        readIndex++;
+        if((readIndex & (BATCH - 1)) == 0) {
+            HEAD.setVolatile(this, readIndex);
+            if(producerWaiting && cachedTail - readIndex <= ring.length / 2) {
+                LockSupport.unpark(producer);
+            }
+        }
+    }
+
+    /* 等待Lexer发布index处的Token */
+    private void awaitTokens(long index) {
+        // 等待前发布进度，避免双方互相等待
+        HEAD.setVolatile(this, readIndex);
+        if(producerWaiting) {
+            LockSupport.unpark(producer);
+        }
+        for(int i = 0; i < SPIN; i++) {
+            cachedTail = (long) TAIL.getVolatile(this);
+            if(index < cachedTail) return;
+            Thread.onSpinWait();
+        }
+        consumer = Thread.currentThread();
+        consumerWaiting = true;
+        try {
+            while(true) {
+                cachedTail = (long) TAIL.getVolatile(this);
+                if(index < cachedTail) return;
+                if(done) {
+                    cachedTail = (long) TAIL.getVolatile(this);
+                    if(index < cachedTail) return;
+                    throw new IllegalStateException("Lexer线程已结束", failure);
+                }
+                LockSupport.park(this);
+            }
+        } finally {
+            consumerWaiting = false;
+        }
+    }
+
+    /**
+     * 取消扫描并等待扫描线程结束，可重复调用
+     */
+    @Override
+    public void close() {
+        cancelled = true;
+        LockSupport.unpark(producer);
+        boolean interrupted = false;
+        while(true) {
+            try {
+                producer.join();
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package mlogix.compiler;
+
+import mlogix.compiler.issue.*;
+import mlogix.compiler.struct.*;
+import mlogix.compiler.struct.SourceMapManager.*;
+import mlogix.logix.Stmt.*;
+import mlogix.logix.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 在顶层`fn`处切分单个大文件，各块以独立的Lexer Parser并行解析后拼接为一个Program，
+ * 各块的Lexer共享调用方的标识符驻留表
+ * <p>
+ * 切分点处Lexer位于两个Token之间且没有待处理的换行，Parser位于两个顶层语句之间，
+ * 因此无错误的块与完整解析的对应部分相同；块末尾以EOF代替下一块的`fn`，
+ * 只在有错误时可能不同，此时退回单线程解析整个文件以保证诊断一致
+ */
+final class SplitParser {
+    private SplitParser() {
+    }
+
+    /**
+     * @param minChunk 每块至少的字符数，过小时并行的开销大于收益
+     * @param interner 调用方的标识符驻留表，各块的Lexer共享
+     * @param maxErrors 每块及整个文件的错误数上限，见{@link Parser#maxErrors(int)}
+     */
+    static Program parse(SourceMap sourceMap, int minChunk, IdentifierInterner interner, int maxErrors,
+                         List<Issue> errorList, List<Issue> warningList) {
+        int[] points = splitPoints(sourceMap, minChunk);
+        if(points.length == 1) {
+            return parseSerial(sourceMap, interner, maxErrors, errorList, warningList);
+        }
+
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+        for(int i = 0; i < points.length; i++) {
+            int from = points[i];
+            int to = i + 1 < points.length ? points[i + 1] : sourceMap.length();
+            tasks.add(ForkJoinTask.adapt(() -> parseChunk(sourceMap, from, to, interner, maxErrors)));
+        }
+        ForkJoinTask.invokeAll(tasks); // 在当前的ForkJoinPool中执行，不在池中时使用公共池
+
+        List<Chunk> chunks = new ArrayList<>();
+        for(ForkJoinTask<Chunk> task : tasks) {
+            chunks.add(task.join());
+        }
+        for(int i = 0; i < chunks.size() - 1; i++) {
+            if(chunks.get(i).hasError()) {
+                return parseSerial(sourceMap, interner, maxErrors, errorList, warningList);
+            }
+        }
+
+        // 与单线程相同，先词法后语法，各自按块的顺序
+        List<Stmt> stmts = new ArrayList<>();
+        for(Chunk chunk : chunks) {
+            stmts.addAll(chunk.program.stmts);
+            errorList.addAll(chunk.lexerErrorList);
+            warningList.addAll(chunk.lexerWarningList);
+        }
+        for(Chunk chunk : chunks) {
+            errorList.addAll(chunk.parserErrorList);
+            warningList.addAll(chunk.parserWarningList);
+        }
+        return new Program(PackedSpan.of(sourceMap.index, 0, sourceMap.length()), stmts);
+    }
+
+    private static Program parseSerial(SourceMap sourceMap, IdentifierInterner interner, int maxErrors,
+                                       List<Issue> errorList, List<Issue> warningList) {
+        TokenBuffer tokens = new Lexer(errorList, warningList, interner).maxErrors(maxErrors).reset(sourceMap).tokenize();
+        return (Program) new Parser(tokens, sourceMap, errorList, warningList).maxErrors(maxErrors).parse();
+    }
+
+    private static Chunk parseChunk(SourceMap sourceMap, int from, int to, IdentifierInterner interner, int maxErrors) {
+        Chunk chunk = new Chunk();
+        TokenBuffer tokens = new Lexer(chunk.lexerErrorList, chunk.lexerWarningList, interner).maxErrors(maxErrors)
+                .reset(sourceMap, from, to).tokenize();
+        chunk.program = (Program) new Parser(tokens, sourceMap, chunk.parserErrorList, chunk.parserWarningList)
+                .maxErrors(maxErrors).parse();
+        return chunk;
+    }
+
+    /**
+     * 预扫描切分点：行首(可有缩进)的`fn`，且不在括号、字符串、注释之中；
+     * 字符串与注释的范围与Lexer相同，由{@link BodyScanner}确定
+     * @return 各块的起点，第一个为0
+     */
+    static int[] splitPoints(SourceMap sourceMap, int minChunk) {
+        int length = sourceMap.length();
+        int[] points = new int[16];
+        int count = 1; // points[0] = 0
+        int depth = 0;
+        boolean lineStart = true; // 本行此前只有空白
+        int i = 0;
+        while(i < length) {
+            char c = sourceMap.charAt(i);
+            switch(c) {
+                case '\n', '\r' -> {
+                    lineStart = true;
+                    i++;
+                    continue;
+                }
+                case ' ', '\t' -> {
+                    i++;
+                    continue;
+                }
+                case '(', '[', '{' -> depth++;
+                case ')', ']', '}' -> depth = Math.max(depth - 1, 0); // 多余的右括号由Parser报告
+                case '"', '“' -> {
+                    i = BodyScanner.stringEnd(sourceMap, i + 1, length);
+                    if(i < length && (sourceMap.charAt(i) == '"' || sourceMap.charAt(i) == '”')) i++;
+                    lineStart = false;
+                    continue;
+                }
+                case '#' -> {
+                    char next = i + 1 < length ? sourceMap.charAt(i + 1) : '\0';
+                    if(next == '/') {
+                        i = BodyScanner.blockDocCommentEnd(sourceMap, i + 2, length);
+                    } else if(next == '|') {
+                        i = BodyScanner.lineDocCommentEnd(sourceMap, i + 2, length);
+                        lineStart = true; // 止于下一行的非空白处
+                        continue;
+                    } else if(next == '*') {
+                        i = BodyScanner.blockCommentEnd(sourceMap, i + 2, length);
+                    } else {
+                        i = BodyScanner.lineCommentEnd(sourceMap, i + 1, length);
+                        lineStart = true; // 包含换行符
+                        continue;
+                    }
+                    lineStart = false;
+                    continue;
+                }
+                case 'f' -> {
+                    if(lineStart && depth == 0 && i - points[count - 1] >= minChunk && isFn(sourceMap, i, length)) {
+                        if(count == points.length) points = Arrays.copyOf(points, count * 2);
+                        points[count++] = i;
+                    }
+                }
+                default -> {
+                }
+            }
+            lineStart = false;
+            i++;
+        }
+        return Arrays.copyOf(points, count);
+    }
+
+    private static boolean isFn(SourceMap sourceMap, int i, int length) {
+        return i + 1 < length && sourceMap.charAt(i + 1) == 'n'
+                && (i + 2 >= length || !CharClass.is(sourceMap.charAt(i + 2), CharClass.IDENTIFIER_PART));
+    }
+
+    private static class Chunk {
+        final List<Issue> lexerErrorList = new ArrayList<>();
+        final List<Issue> lexerWarningList = new ArrayList<>();
+        final List<Issue> parserErrorList = new ArrayList<>();
+        final List<Issue> parserWarningList = new ArrayList<>();
+        Program program;
+
+        boolean hasError() {
+            return !lexerErrorList.isEmpty() || !parserErrorList.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.*;
+import mlogix.logix.*;
+
+import java.util.*;
+
+import static mlogix.logix.Expr.*;
+import static mlogix.logix.Stmt.*;
+
+/**
+ * Parser得到的Program的顶层语句列表，同时记录各语句开始解析时下一个Token的起点，供增量解析确定语句边界
+ * <p>
+ * 增量解析沿用的语句不立即平移，而是与{@link TokenBuffer}相同，
+ * 编辑处之后的语句的起点与待平移量相对于源码末尾存储，编辑后无需逐个改写；
+ * 第一次通过{@link #get(int)}访问某个语句时才平移其子树，此后不再平移。
+ * 与语法树的其他部分一样不是线程安全的
+ */
+final class StmtList extends AbstractList<Stmt> implements RandomAccess {
+    private Stmt[] stmts;
+    private int[] starts;
+    private int[] shifts; /* 语句的子树尚未平移的偏移量，0表示已平移 */
+    private int size;
+    private int length; /* 源码长度 */
+    private int relativeFrom = Integer.MAX_VALUE; /* 自此索引起starts shifts为 值 - 源码长度 */
+
+    StmtList(List<Stmt> stmts, int[] starts, int length) {
+        this.stmts = stmts.toArray(new Stmt[0]);
+        this.starts = starts;
+        this.shifts = new int[this.stmts.length];
+        this.size = this.stmts.length;
+        this.length = length;
+    }
+
+    /**
+     * 访问时平移尚未平移的语句
+     */
+    @Override
+    public Stmt get(int index) {
+        Objects.checkIndex(index, size);
+        int shift = shift(index);
+        if(shift != 0) {
+            shift(stmts[index], shift);
+            shifts[index] = index < relativeFrom ? 0 : -length;
+        }
+        return stmts[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * index处的语句开始解析时下一个Token的起点
+     */
+    int start(int index) {
+        return index < relativeFrom ? starts[index] : starts[index] + length;
+    }
+
+    private int shift(int index) {
+        return index < relativeFrom ? shifts[index] : shifts[index] + length;
+    }
+
+    /**
+     * 起点为start的语句的索引，在[from, size)中二分查找
+     * @return 没有则为-1
+     */
+    int indexOf(int start, int from) {
+        int low = from, high = size - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int midStart = start(mid);
+            if(midStart < start) {
+                low = mid + 1;
+            } else if(midStart > start) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 以middle替换[keep, suffixFrom)的语句，得到源码长度为newLength的语句列表
+     * <p>
+     * 数组由新的StmtList接管，本StmtList此后不可再使用；
+     * suffixFrom起的语句不平移，而是改为相对于源码末尾存储，编辑处之后的源码相同，因此相对值不变
+     * @param middleStarts middle中各语句的起点
+     */
+    StmtList splice(int keep, List<Stmt> middle, int[] middleStarts, int suffixFrom, int newLength) {
+        for(int i = relativeFrom; i < keep; i++) { // 编辑处之前的语句换算为绝对值
+            starts[i] += length;
+            shifts[i] += length;
+        }
+        for(int i = suffixFrom; i < relativeFrom && i < size; i++) {
+            starts[i] -= length;
+            shifts[i] -= length;
+        }
+
+        int suffixCount = size - suffixFrom;
+        int suffixStart = keep + middle.size();
+        int capacity = suffixStart + suffixCount;
+        if(capacity > stmts.length) {
+            capacity += capacity >> 1;
+            stmts = Arrays.copyOf(stmts, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            shifts = Arrays.copyOf(shifts, capacity);
+        }
+        System.arraycopy(stmts, suffixFrom, stmts, suffixStart, suffixCount);
+        System.arraycopy(starts, suffixFrom, starts, suffixStart, suffixCount);
+        System.arraycopy(shifts, suffixFrom, shifts, suffixStart, suffixCount);
+        for(int i = 0; i < middle.size(); i++) {
+            stmts[keep + i] = middle.get(i);
+            starts[keep + i] = middleStarts[i];
+            shifts[keep + i] = 0;
+        }
+        int newSize = suffixStart + suffixCount;
+        if(newSize < size) {
+            Arrays.fill(stmts, newSize, size, null); // 不再持有被替换的语句
+        }
+
+        StmtList list = new StmtList(stmts, starts, shifts, newSize, newLength,
+                suffixCount > 0 ? suffixStart : Integer.MAX_VALUE);
+        stmts = null; // 数组已由新的StmtList接管
+        starts = null;
+        shifts = null;
+        size = 0;
+        return list;
+    }
+
+    private StmtList(Stmt[] stmts, int[] starts, int[] shifts, int size, int length, int relativeFrom) {
+        this.stmts = stmts;
+        this.starts = starts;
+        this.shifts = shifts;
+        this.size = size;
+        this.length = length;
+        this.relativeFrom = relativeFrom;
+    }
+
+    /**
+     * 就地平移节点及其子树中全部节点与Token的偏移量，以显式栈遍历，不受嵌套深度限制
+     */
+    static void shift(ASTNode root, int delta) {
+        List<Object> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            Object item = stack.remove(stack.size() - 1);
+            if(item == null) continue;
+            if(item instanceof Token token) {
+                token.span = PackedSpan.shift(token.span, delta);
+                continue;
+            }
+            ASTNode node = (ASTNode) item;
+            node.span = PackedSpan.shift(node.span, delta);
+            if(node instanceof Program n) {
+                stack.addAll(n.stmts);
+            } else if(node instanceof Block n) {
+                stack.addAll(n.stmts);
+            } else if(node instanceof ExprStmt n) {
+                stack.add(n.expr);
+            } else if(node instanceof IfStmt n) {
+                stack.add(n.condition);
+                stack.add(n.thenBranch);
+                stack.add(n.elseBranch);
+            } else if(node instanceof ForStmt n) {
+                stack.add(n.varDecl);
+                stack.add(n.expr);
+                stack.add(n.body);
+            } else if(node instanceof WhileStmt n) {
+                stack.add(n.expr);
+                stack.add(n.body);
+            } else if(node instanceof FnStmt n) {
+                stack.add(n.name);
+                stack.addAll(n.parameters);
+                stack.addAll(n.results);
+                n.bodySpan = PackedSpan.shift(n.bodySpan, delta); // 未解析的函数体以平移后的bodySpan解析
+                if(n.isBodyParsed()) {
+                    stack.add(n.body());
+                }
+            } else if(node instanceof ReturnStmt n) {
+                stack.add(n.expr);
+            } else if(node instanceof AssignStmt n) {
+                stack.add(n.var);
+                stack.add(n.operator);
+                stack.add(n.value);
+            } else if(node instanceof SetVarStmt n) {
+                if(!sharesVar(n)) {
+                    stack.add(n.var);
+                }
+                stack.add(n.assignStmt);
+            } else if(node instanceof Literal n) {
+                stack.add(n.token);
+            } else if(node instanceof Identifier n) {
+                stack.add(n.token);
+            } else if(node instanceof Unary n) {
+                stack.add(n.operator);
+                stack.add(n.expr);
+            } else if(node instanceof Binary n) {
+                stack.add(n.left);
+                stack.add(n.operator);
+                stack.add(n.right);
+            } else if(node instanceof Array n) {
+                stack.addAll(n.elements);
+            } else if(node instanceof Index n) {
+                stack.add(n.list);
+                stack.add(n.index);
+            } else if(node instanceof Range n) {
+                stack.add(n.left);
+                stack.add(n.operator);
+                stack.add(n.right);
+            } else if(node instanceof Call n) {
+                stack.add(n.callee);
+                stack.addAll(n.arguments);
+            } else if(node instanceof Get n) {
+                stack.add(n.object);
+                stack.add(n.field);
+            }
+            // BreakStmt ContinueStmt没有子节点
+        }
+    }
+
+    /* exprStmt()解析的set语句中，var同时是assignStmt的左侧，不能平移两次 */
+    private static boolean sharesVar(SetVarStmt node) {
+        if(node.assignStmt instanceof AssignStmt assign) return assign.var == node.var;
+        if(node.assignStmt instanceof ExprStmt expr) return expr.expr instanceof Binary binary && binary.left == node.var;
+        return false;
+    }
+}
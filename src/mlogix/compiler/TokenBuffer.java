@@ -0,0 +1,438 @@
+package mlogix.compiler;
+
+import mlogix.compiler.struct.SourceMapManager.*;
+import mlogix.compiler.struct.*;
+import mlogix.logix.*;
+
+import java.util.*;
+
+import static mlogix.logix.TokenType.*;
+
+/**
+ * 以结构数组存储一个SourceMap的全部Token
+ * <p>
+ * 每个Token只占用 类型序号(byte) 起止偏移(int) 字面量索引(int)，
+ * 数字字面量存于double侧表，其余字面量存于Object侧表，
+ * 仅在需要时通过{@link #get(int)}实例化为Token
+ * <p>
+ * 增量扫描得到的TokenBuffer中，编辑处之后的Token的偏移量相对于源码末尾存储，
+ * 读取时才换算，因此编辑后无需逐个平移
+ */
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final byte LBRACE_ORDINAL = (byte) LBRACE.ordinal();
+    private static final byte RBRACE_ORDINAL = (byte) RBRACE.ordinal();
+
+    public final SourceMap sourceMap;
+    public final IdentifierInterner interner;
+
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] literalIndexes; /* 字面量侧表索引，-1表示无字面量；IDENTIFIER为驻留表id */
+    private int size;
+    private int relativeFrom = Integer.MAX_VALUE; /* 自此索引起starts ends为 偏移量 - 源码长度 */
+    private TokenBuffer successor; /* splice后接管数组的TokenBuffer */
+
+    private double[] numbers = new double[16]; /* NUM INT COL 的字面量侧表 */
+    private int numberCount;
+    private Object[] literals = new Object[16]; /* 其他字面量侧表 */
+    private int literalCount;
+    private int[] freeNumbers = new int[0]; /* splice中被替换的Token空出的侧表槽位，再次添加时优先复用 */
+    private int freeNumberCount;
+    private int[] freeLiterals = new int[0];
+    private int freeLiteralCount;
+
+    public TokenBuffer(SourceMap sourceMap, IdentifierInterner interner, int capacity) {
+        this.sourceMap = sourceMap;
+        this.interner = interner;
+        capacity = Math.max(capacity, 16);
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.literalIndexes = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int end, Object literal) {
+        add(type, start, end, literal == null ? -1 : addLiteral(literal));
+    }
+
+    void add(TokenType type, int start, int end, double number) {
+        add(type, start, end, addNumber(number));
+    }
+
+    void addIdentifier(int start, int end, int identifierId) {
+        add(IDENTIFIER, start, end, identifierId);
+    }
+
+    private void add(TokenType type, int start, int end, int literalIndex) {
+        if(size == types.length) {
+            grow(size * 2);
+        }
+        set(type, start, end, literalIndex);
+    }
+
+    /* 写入size处，不检查容量 */
+    private void set(TokenType type, int start, int end, int literalIndex) {
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        literalIndexes[size] = literalIndex;
+        size++;
+    }
+
+    private int addLiteral(Object literal) {
+        if(freeLiteralCount > 0) {
+            int index = freeLiterals[--freeLiteralCount];
+            literals[index] = literal;
+            return index;
+        }
+        if(literalCount == literals.length) {
+            literals = Arrays.copyOf(literals, literalCount * 2);
+        }
+        literals[literalCount] = literal;
+        return literalCount++;
+    }
+
+    private int addNumber(double number) {
+        if(freeNumberCount > 0) {
+            int index = freeNumbers[--freeNumberCount];
+            numbers[index] = number;
+            return index;
+        }
+        if(numberCount == numbers.length) {
+            numbers = Arrays.copyOf(numbers, numberCount * 2);
+        }
+        numbers[numberCount] = number;
+        return numberCount++;
+    }
+
+    /* index处Token的侧表槽位改为空闲，其后不再读取 */
+    private void free(int index) {
+        int literalIndex = literalIndexes[index];
+        TokenType type = type(index);
+        if(literalIndex < 0 || type == IDENTIFIER) return;
+        if(type == NUM || type == INT || type == COL) {
+            if(freeNumberCount == freeNumbers.length) {
+                freeNumbers = Arrays.copyOf(freeNumbers, Math.max(freeNumberCount * 2, 16));
+            }
+            freeNumbers[freeNumberCount++] = literalIndex;
+        } else {
+            if(freeLiteralCount == freeLiterals.length) {
+                freeLiterals = Arrays.copyOf(freeLiterals, Math.max(freeLiteralCount * 2, 16));
+            }
+            literals[literalIndex] = null; // 不再持有被替换的字面量
+            freeLiterals[freeLiteralCount++] = literalIndex;
+        }
+    }
+
+    private void grow(int capacity) {
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        literalIndexes = Arrays.copyOf(literalIndexes, capacity);
+    }
+
+    /**
+     * 以middle替换[keep, suffixFrom)的Token，得到编辑后源码的TokenBuffer
+     * <p>
+     * 数组由新的TokenBuffer接管，本TokenBuffer此后不可再使用；
+     * suffixFrom起的Token不逐个平移，而是改为相对于源码末尾存储，
+     * 编辑处之后的源码相同，因此相对偏移量不变；
+     * 被替换的Token的侧表槽位由middle的字面量复用，侧表不随编辑次数增长
+     */
+    TokenBuffer splice(SourceMap sourceMap, int keep, TokenBuffer middle, int suffixFrom) {
+        for(int i = keep; i < suffixFrom && i < size; i++) {
+            free(i);
+        }
+        int length = this.sourceMap.length();
+        for(int i = relativeFrom; i < keep; i++) { // 编辑处之前的Token换算为绝对偏移量
+            starts[i] += length;
+            ends[i] += length;
+        }
+        for(int i = suffixFrom; i < relativeFrom && i < size; i++) {
+            starts[i] -= length;
+            ends[i] -= length;
+        }
+
+        TokenBuffer buffer = new TokenBuffer(sourceMap, interner, 0);
+        buffer.types = types;
+        buffer.starts = starts;
+        buffer.ends = ends;
+        buffer.literalIndexes = literalIndexes;
+        buffer.numbers = numbers;
+        buffer.numberCount = numberCount;
+        buffer.literals = literals;
+        buffer.literalCount = literalCount;
+        buffer.freeNumbers = freeNumbers;
+        buffer.freeNumberCount = freeNumberCount;
+        buffer.freeLiterals = freeLiterals;
+        buffer.freeLiteralCount = freeLiteralCount;
+
+        int suffixCount = size - suffixFrom;
+        int suffixStart = keep + middle.size;
+        if(suffixStart + suffixCount > types.length) {
+            buffer.grow(suffixStart + suffixCount + 16);
+        }
+        System.arraycopy(buffer.types, suffixFrom, buffer.types, suffixStart, suffixCount);
+        System.arraycopy(buffer.starts, suffixFrom, buffer.starts, suffixStart, suffixCount);
+        System.arraycopy(buffer.ends, suffixFrom, buffer.ends, suffixStart, suffixCount);
+        System.arraycopy(buffer.literalIndexes, suffixFrom, buffer.literalIndexes, suffixStart, suffixCount);
+
+        buffer.size = keep;
+        for(int i = 0; i < middle.size; i++) {
+            TokenType type = middle.type(i);
+            if(type == IDENTIFIER) {
+                buffer.set(type, middle.starts[i], middle.ends[i], middle.literalIndexes[i]);
+            } else if(middle.literalIndexes[i] < 0) {
+                buffer.set(type, middle.starts[i], middle.ends[i], -1);
+            } else if(type == NUM || type == INT || type == COL) {
+                buffer.set(type, middle.starts[i], middle.ends[i], buffer.addNumber(middle.number(i)));
+            } else {
+                buffer.set(type, middle.starts[i], middle.ends[i], buffer.addLiteral(middle.literals[middle.literalIndexes[i]]));
+            }
+        }
+        buffer.size = suffixStart + suffixCount;
+        if(suffixCount > 0) {
+            buffer.relativeFrom = suffixStart;
+        }
+
+        successor = buffer;
+        types = null; // 数组已由新的TokenBuffer接管
+        starts = null;
+        ends = null;
+        literalIndexes = null;
+        size = 0;
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 字面量侧表已使用的槽位数，含被替换后空闲待复用的槽位
+     */
+    public int literalTableSize() {
+        return numberCount + literalCount;
+    }
+
+    /**
+     * 自此索引起的Token沿用自增量扫描前的TokenBuffer，只是偏移量平移了
+     * @return 不是增量扫描得到的或没有沿用的Token时为size()
+     */
+    int reusedFrom() {
+        return Math.min(relativeFrom, size);
+    }
+
+    /**
+     * 增量扫描后数组由新的TokenBuffer接管，返回当前可用的那个
+     */
+    TokenBuffer live() {
+        TokenBuffer buffer = this;
+        while(buffer.successor != null) {
+            buffer = buffer.successor;
+        }
+        return buffer;
+    }
+
+    /**
+     * 从index处的LBRACE开始括号匹配，只读类型数组
+     * @return 与之匹配的RBRACE的索引，没有则为末尾EOF的索引
+     */
+    int matchBrace(int index) {
+        int depth = 0;
+        for(int i = index; i < size - 1; i++) {
+            if(types[i] == LBRACE_ORDINAL) {
+                depth++;
+            } else if(types[i] == RBRACE_ORDINAL && --depth == 0) {
+                return i;
+            }
+        }
+        return size - 1;
+    }
+
+    /**
+     * 按起点二分查找Token
+     * @return 起点为offset的第一个Token的索引，没有则为-1
+     */
+    int indexAt(int offset) {
+        int low = 0, high = size - 1;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(start(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return start(low) == offset ? low : -1;
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int start(int index) {
+        return index < relativeFrom ? starts[index] : starts[index] + sourceMap.length();
+    }
+
+    public int end(int index) {
+        return index < relativeFrom ? ends[index] : ends[index] + sourceMap.length();
+    }
+
+    /**
+     * 获取IDENTIFIER的驻留表id
+     */
+    public int identifierId(int index) {
+        return literalIndexes[index];
+    }
+
+    /**
+     * 获取数字字面量，不装箱
+     */
+    public double number(int index) {
+        return numbers[literalIndexes[index]];
+    }
+
+    /**
+     * 获取字面量，数字字面量会被装箱为Double
+     * @return 无字面量则为null
+     */
+    public Object literal(int index) {
+        TokenType type = type(index);
+        if(type == DOC_COMMENT) { // 文档注释仅记录范围，读取时生成文本
+            return BodyScanner.docCommentText(sourceMap, start(index), end(index));
+        }
+        int literalIndex = literalIndexes[index];
+        if(literalIndex < 0) return null;
+        if(type == NUM || type == INT || type == COL) {
+            return numbers[literalIndex];
+        } else if(type == IDENTIFIER) {
+            return interner.name(literalIndex);
+        }
+        return literals[literalIndex];
+    }
+
+    /**
+     * 实例化为Token，兼容以Token为单位的使用者(ASTPrinter LexerTest等)
+     */
+    public Token get(int index) {
+        return new Token(type(index), PackedSpan.of(sourceMap.index, start(index), end(index)), literal(index));
+    }
+
+    /**
+     * 兼容视图，按需实例化每个Token
+     */
+    public List<Token> toTokenList() {
+        return new AbstractList<>() {
+            @Override
+            public Token get(int index) {
+                Objects.checkIndex(index, size);
+                return TokenBuffer.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 从index处开始遍历
+     */
+    public Cursor cursor(int index) {
+        Objects.checkIndex(index, size);
+        Cursor cursor = new Cursor();
+        cursor.index = index;
+        return cursor;
+    }
+
+    /**
+     * 只遍历[index, end)，到达end时如同到达末尾的EOF
+     */
+    Cursor cursor(int index, int end) {
+        Objects.checkFromToIndex(index, end, size - 1);
+        Cursor cursor = cursor(index);
+        cursor.end = end;
+        return cursor;
+    }
+
+    /**
+     * 以索引遍历TokenBuffer，供Parser使用
+     */
+    public class Cursor implements TokenSource {
+        private int index;
+        private int end = size - 1; /* 视为EOF的索引 */
+        private Token current; /* index处已实例化的Token，避免重复实例化 */
+
+        public int index() {
+            return index;
+        }
+
+        TokenBuffer buffer() {
+            return TokenBuffer.this;
+        }
+
+        /**
+         * 直接移动到index处
+         */
+        void seek(int index) {
+            Objects.checkIndex(index, end + 1);
+            this.index = index;
+            current = null;
+        }
+
+        @Override
+        public TokenType peekType() {
+            return index < end ? type(index) : EOF;
+        }
+
+        @Override
+        public TokenType peekType(int offset) {
+            return index + offset < end ? type(index + offset) : EOF;
+        }
+
+        @Override
+        public Token peek() {
+            if(current == null) {
+                current = token(index);
+            }
+            return current;
+        }
+
+        @Override
+        public Token peek(int offset) {
+            if(offset == 0) return peek();
+            return token(Math.min(index + offset, end));
+        }
+
+        @Override
+        public Token next() {
+            Token token = peek();
+            skip();
+            return token;
+        }
+
+        @Override
+        public void skip() {
+            // 停留在EOF上
+            if(index < end) {
+                index++;
+                current = null;
+            }
+        }
+
+        /* end处为EOF，提前结束时以end处Token的起点为EOF的位置 */
+        private Token token(int index) {
+            if(index < end || end == size - 1) return get(index);
+            int start = start(end);
+            return new Token(EOF, PackedSpan.of(sourceMap.index, start, start));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package mlogix.compiler;
+
+import mlogix.logix.*;
+
+import java.util.*;
+
+/**
+ * TokenType的不可变集合，以两个long按序号存储
+ * <p>
+ * 用于Parser的热路径，判断是否包含只需一次移位，不经过Set接口，也不像可变参数那样每次调用分配数组
+ * @param low 序号0~63
+ * @param high 序号64~127
+ */
+record TokenSet(long low, long high) {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    static {
+        if(TYPES.length > 128) {
+            throw new IllegalStateException("TokenType超过128个，TokenSet需要扩展");
+        }
+    }
+
+    static TokenSet of(TokenType... types) {
+        long low = 0, high = 0;
+        for(TokenType type : types) {
+            int ordinal = type.ordinal();
+            if(ordinal < 64) {
+                low |= 1L << ordinal;
+            } else {
+                high |= 1L << ordinal - 64;
+            }
+        }
+        return new TokenSet(low, high);
+    }
+
+    static TokenSet of(Set<TokenType> types) {
+        return of(types.toArray(new TokenType[0]));
+    }
+
+    boolean contains(TokenType type) {
+        int ordinal = type.ordinal();
+        return ordinal < 64 ? (low >>> ordinal & 1) != 0 : (high >>> ordinal - 64 & 1) != 0;
+    }
+
+    /**
+     * 以空格分隔的各TokenType，按序号排列，用于错误信息
+     */
+    @Override
+    public String toString() {
+        StringBuilder sbd = new StringBuilder();
+        for(TokenType type : TYPES) {
+            if(contains(type)) {
+                sbd.append(type.toString()).append(" ");
+            }
+        }
+        return sbd.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package mlogix.compiler;
+
+import mlogix.logix.*;
+
+/**
+ * Parser的Token来源
+ */
+public interface TokenSource extends AutoCloseable {
+    /**
+     * 前瞻下一个token的类型，无需实例化Token
+     */
+    TokenType peekType();
+
+    /**
+     * 前瞻下一个token之后第offset个token的类型，offset为0时同{@link #peekType()}，越过EOF时为EOF
+     */
+    TokenType peekType(int offset);
+
+    /**
+     * 前瞻下一个token
+     */
+    Token peek();
+
+    /**
+     * 前瞻下一个token之后第offset个token，offset为0时同{@link #peek()}，越过EOF时为EOF
+     */
+    Token peek(int offset);
+
+    /**
+     * 向前推进一个token
+     */
+    Token next();
+
+    /**
+     * 向前推进一个token，不需要返回值时使用
+     */
+    void skip();
+
+    /**
+     * 不再需要Token时调用，释放扫描所占用的资源
+     */
+    default void close() {
+    }
+
+    /**
+     * 逐个从Lexer扫描Token，前瞻深度为{@link LookaheadTokenSource#DEFAULT_DEPTH}
+     */
+    static TokenSource of(Lexer lexer) {
+        return of(lexer, LookaheadTokenSource.DEFAULT_DEPTH);
+    }
+
+    /**
+     * 逐个从Lexer扫描Token，前瞻的Token缓存于环形缓冲中
+     * @param depth 可前瞻的token数
+     */
+    static TokenSource of(Lexer lexer, int depth) {
+        return new LookaheadTokenSource(lexer, depth);
+    }
+}
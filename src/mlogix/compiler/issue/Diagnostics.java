@@ -0,0 +1,155 @@
+package mlogix.compiler.issue;
+
+import mlogix.compiler.struct.*;
+
+import java.util.*;
+
+/**
+ * 按文件顺序收集各文件的问题，抑制连锁错误并限制数量
+ * <p>
+ * 一个错误的主标注(第一个point，没有point时为第一个标注)与同一文件中此前保留的错误的主标注重叠时，
+ * 它多半是前一个错误引起的，不再保留，只计数；每个文件与全部文件保留的问题数各有上限，
+ * 超出的同样只计数。只在一个线程中使用
+ */
+public class Diagnostics {
+    public static final int DEFAULT_MAX_PER_FILE = 100;
+    public static final int DEFAULT_MAX_TOTAL = 500;
+
+    private final int maxPerFile;
+    private final int maxTotal;
+
+    private int errorCount; /* 保留的错误数 */
+    private int warningCount; /* 保留的警告数 */
+    private int suppressedCount; /* 与此前的错误重叠而省略的错误数 */
+    private int droppedCount; /* 超出上限而省略的错误与警告数 */
+    private int stoppedFiles; /* 达到上限而提前停止分析的文件数 */
+    private int skippedFiles; /* 达到全局上限后未分析的文件数 */
+
+    public Diagnostics(int maxPerFile, int maxTotal) {
+        if(maxPerFile < 1 || maxTotal < 1) {
+            throw new IllegalArgumentException("问题数的上限至少为1: " + maxPerFile + ", " + maxTotal);
+        }
+        this.maxPerFile = maxPerFile;
+        this.maxTotal = maxTotal;
+    }
+
+    public int maxPerFile() {
+        return maxPerFile;
+    }
+
+    /**
+     * 加入一个文件的问题，须按文件顺序调用
+     * @param errorList 先词法后语法，按报告顺序
+     * @return 保留的问题
+     */
+    public FileIssues accept(List<Issue> errorList, List<Issue> warningList) {
+        if(errorList.size() >= maxPerFile) {
+            stoppedFiles++; // Lexer Parser在达到上限时停止
+        }
+
+        List<Issue> errors = new ArrayList<>();
+        long[] spans = new long[Math.min(errorList.size(), maxPerFile)]; /* 保留的错误的主标注 */
+        for(Issue error : errorList) {
+            long span = primarySpan(error);
+            if(overlapsAny(span, spans, errors.size())) {
+                suppressedCount++;
+            } else if(errors.size() < maxPerFile && errorCount < maxTotal) {
+                spans[errors.size()] = span;
+                errors.add(error);
+                errorCount++;
+            } else {
+                droppedCount++;
+            }
+        }
+
+        List<Issue> warnings = new ArrayList<>();
+        for(Issue warning : warningList) {
+            if(warnings.size() < maxPerFile && warningCount < maxTotal) {
+                warnings.add(warning);
+                warningCount++;
+            } else {
+                droppedCount++;
+            }
+        }
+        return new FileIssues(errors, warnings);
+    }
+
+    /**
+     * 记录达到全局上限后没有分析的文件
+     */
+    public void skip(int fileCount) {
+        skippedFiles += fileCount;
+    }
+
+    /**
+     * 保留的错误数达到全局上限，之后的文件不再分析
+     */
+    public boolean isExhausted() {
+        return errorCount >= maxTotal;
+    }
+
+    public int errorCount() {
+        return errorCount;
+    }
+
+    public int warningCount() {
+        return warningCount;
+    }
+
+    public int suppressedCount() {
+        return suppressedCount;
+    }
+
+    public int droppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 未输出的问题与提前停止的情况，没有时为空列表
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        if(suppressedCount > 0) {
+            lines.add(suppressedCount + "个错误与之前的错误重叠，已省略");
+        }
+        if(droppedCount > 0) {
+            lines.add(droppedCount + "个问题超出数量上限，已省略");
+        }
+        if(stoppedFiles > 0) {
+            lines.add(stoppedFiles + "个文件的错误达到" + maxPerFile + "个，已提前停止分析");
+        }
+        if(skippedFiles > 0) {
+            lines.add("错误达到" + maxTotal + "个，剩余" + skippedFiles + "个文件未分析");
+        }
+        return lines;
+    }
+
+    /* 没有标注时为-1，不与任何标注重叠 */
+    private static long primarySpan(Issue issue) {
+        for(int i = 0; i < issue.labelCount(); i++) {
+            if(issue.isPoint(i)) return issue.labelSpan(i);
+        }
+        return issue.labelCount() > 0 ? issue.labelSpan(0) : -1;
+    }
+
+    private static boolean overlapsAny(long span, long[] spans, int count) {
+        if(span < 0) return false;
+        int start = PackedSpan.start(span);
+        int end = PackedSpan.end(span);
+        for(int i = 0; i < count; i++) {
+            if(spans[i] < 0) continue;
+            int otherStart = PackedSpan.start(spans[i]);
+            int otherEnd = PackedSpan.end(spans[i]);
+            // 长度为0的标注(如指向EOF)与起点相同或包含它的标注重叠
+            if(Math.max(start, otherStart) < Math.min(end, otherEnd) || start == otherStart
+                    || start == end && otherStart <= start && start < otherEnd
+                    || otherStart == otherEnd && start <= otherStart && otherStart < end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public record FileIssues(List<Issue> errorList, List<Issue> warningList) {
+    }
+}
@@ -1,70 +1,312 @@
 package mlogix.compiler.issue;
 
+import mlogix.compiler.struct.*;
 import mlogix.compiler.struct.SourceMapManager.*;
 import mlogix.logix.*;
 import mlogix.util.*;
 
+import java.io.*;
 import java.util.*;
 
-// 用于表示编译器问题，包含错误和警告
-public abstract class Issue extends RuntimeException {
+/**
+ * 用于表示编译器问题，包含错误和警告
+ * <p>
+ * 只存储级别、名称与各标注的PackedSpan和文本，行号、列号与源码行在输出时才计算；
+ * {@link #render(Writer)}与{@link #writeJson(Writer)}直接写入Writer，不拼接中间字符串
+ */
+public abstract class Issue {
+    // repeat(_)写入的字符块
+    private static final char[] SPACES = " ".repeat(64).toCharArray();
+    private static final char[] CARETS = "^".repeat(64).toCharArray();
+    private static final char[] DASHES = "-".repeat(64).toCharArray();
+
     private final SourceMap sourceMap; // 这个问题所在文件
     private final String issueName; // 这个问题的名称
-    private final List<LineInfo> lineList = new ArrayList<>();
     private final IssueLevel level; // 问题级别（错误或警告）
 
+    // 各标注，同一下标为一个标注，按添加顺序
+    private long[] spans = new long[2]; /* 见PackedSpan */
+    private String[] texts = new String[2];
+    private boolean[] points = new boolean[2]; /* point为true，info为false */
+    private int labelCount;
+
     public Issue(SourceMap sourceMap, String issueName, IssueLevel level) {
         this.sourceMap = sourceMap;
         this.issueName = issueName;
         this.level = level;
     }
 
-    // 获取行，若不存在则新建并返回
-    private LineInfo getLineInfo(int line) {
-        for(LineInfo lineInfo : lineList) {
-            if(lineInfo.line == line) {
-                return lineInfo;
-            }
+    private Issue label(int start, int end, String text, boolean point) {
+        if(labelCount == spans.length) {
+            spans = Arrays.copyOf(spans, labelCount * 2);
+            texts = Arrays.copyOf(texts, labelCount * 2);
+            points = Arrays.copyOf(points, labelCount * 2);
         }
-        LineInfo lineInfo = new LineInfo(line, sourceMap.getLineString(line));
-        lineList.add(lineInfo);
-        return lineInfo;
+        spans[labelCount] = PackedSpan.of(sourceMap.index, start, end);
+        texts[labelCount] = text;
+        points[labelCount] = point;
+        labelCount++;
+        return this;
     }
 
     public Issue point(int start, int end, String text) {
-        LineInfo lineInfo = getLineInfo(sourceMap.getLine(start));
-        lineInfo.point(sourceMap.getCol(start), "^".repeat(end - start), text);
-        return this;
+        return label(start, end, text, true);
     }
 
     public Issue point(Token token, String text) {
-        return point(token.span.start(), token.span.end(), text);
+        return point(token.span, text);
+    }
+
+    /**
+     * @param span 见PackedSpan
+     */
+    public Issue point(long span, String text) {
+        return point(PackedSpan.start(span), PackedSpan.end(span), text);
     }
 
     public Issue info(int start, int end, String text) {
-        LineInfo lineInfo = getLineInfo(sourceMap.getLine(start));
-        lineInfo.info(sourceMap.getCol(start), "-".repeat(end - start), text);
-        return this;
+        return label(start, end, text, false);
     }
 
     public Issue info(Token token, String text) {
-        return info(token.span.start(), token.span.end(), text);
+        return info(token.span, text);
+    }
+
+    /**
+     * @param span 见PackedSpan
+     */
+    public Issue info(long span, String text) {
+        return info(PackedSpan.start(span), PackedSpan.end(span), text);
+    }
+
+    public SourceMap sourceMap() {
+        return sourceMap;
+    }
+
+    public String issueName() {
+        return issueName;
+    }
+
+    public IssueLevel level() {
+        return level;
+    }
+
+    public int labelCount() {
+        return labelCount;
+    }
+
+    /**
+     * 第i个标注的位置，见PackedSpan
+     */
+    public long labelSpan(int i) {
+        Objects.checkIndex(i, labelCount);
+        return spans[i];
+    }
+
+    public String labelText(int i) {
+        Objects.checkIndex(i, labelCount);
+        return texts[i];
+    }
+
+    /**
+     * 第i个标注由point添加时为true，由info添加时为false
+     */
+    public boolean isPoint(int i) {
+        Objects.checkIndex(i, labelCount);
+        return points[i];
     }
 
     public String toString() {
+        StringWriter str = new StringWriter();
+        try {
+            render(str);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e); // StringWriter不会抛出
+        }
+        return str.toString();
+    }
+
+    /**
+     * 以带颜色的源码标注写入out，内容与toString()相同
+     * <p>
+     * 各行按行号排列，行内的标注按列排列；每行的列号取该行最后添加的point
+     */
+    public void render(Writer out) throws IOException {
         String color = level == IssueLevel.ERROR ? Ansi.RED : Ansi.YELLOW;
-        StringBuilder str = new StringBuilder(color + level.name() + ":" + issueName + Ansi.DEFAULT + "\n");
-        lineList.sort(Comparator.comparing(li -> li.line));
+        out.write(color);
+        out.write(level.name());
+        out.write(':');
+        out.write(issueName);
+        out.write(Ansi.DEFAULT);
+        out.write('\n');
+        if(labelCount == 0) return;
+
+        int[] lines = new int[labelCount];
+        int[] cols = new int[labelCount];
+        Integer[] order = new Integer[labelCount];
+        for(int i = 0; i < labelCount; i++) {
+            int[] lineAndCol = sourceMap.getLineAndCol(PackedSpan.start(spans[i]));
+            lines[i] = lineAndCol[0];
+            cols[i] = lineAndCol[1];
+            order[i] = i;
+        }
+        // 稳定排序，同一位置的标注保持添加顺序
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> lines[i]).thenComparingInt(i -> cols[i]));
+
+        int maxLineDigitLen = Integer.toString(lines[order[labelCount - 1]]).length(); // 所有行中最长的行号长度
+        int from = 0;
+        while(from < labelCount) {
+            int line = lines[order[from]];
+            int to = from + 1;
+            while(to < labelCount && lines[order[to]] == line) to++;
+            renderLine(out, line, order, from, to, cols, maxLineDigitLen);
+            from = to;
+        }
+    }
 
-        int maxLineDigitLen = 0; // 所有LineInfo中最长的行号长度
-        for(LineInfo lineInfo : lineList) {
-            maxLineDigitLen = Math.max(maxLineDigitLen, Integer.toString(lineInfo.line).length());
+    /**
+     * 写入一行源码及其上的标注
+     * @param order 按行、列排序的标注下标，其中[from, to)在这一行
+     * @param maxLineDigitLen 所有行中最长的行号长度
+     */
+    private void renderLine(Writer out, int line, Integer[] order, int from, int to, int[] cols, int maxLineDigitLen) throws IOException {
+        int lastPoint = -1; // 该行最后添加的point
+        for(int k = from; k < to; k++) {
+            if(points[order[k]]) lastPoint = Math.max(lastPoint, order[k]);
         }
 
-        for(LineInfo lineInfo : lineList) {
-            str.append(lineInfo.toString(maxLineDigitLen));
+        // -->Path:line:col
+        repeat(out, ' ', maxLineDigitLen - 1);
+        out.write("-->");
+        out.write(String.valueOf(sourceMap.relativePath));
+        out.write(':');
+        out.write(Integer.toString(line));
+        out.write(':');
+        out.write(Integer.toString(lastPoint < 0 ? 0 : cols[lastPoint]));
+        out.write('\n');
+
+        //  ┃
+        gutter(out, maxLineDigitLen);
+        out.write('\n');
+
+        // L┃lineString
+        String lineDigits = Integer.toString(line);
+        out.write(Ansi.CYAN);
+        repeat(out, ' ', maxLineDigitLen - lineDigits.length());
+        out.write(lineDigits);
+        out.write("┃");
+        out.write(Ansi.DEFAULT);
+        out.write(sourceMap.getLineString(line));
+        out.write('\n');
+
+        //  ┃ ^ - ^ infos[last]text
+        gutter(out, maxLineDigitLen);
+        int col = 1; // 标识当前输出列
+        for(int k = from; k < to; k++) {
+            int i = order[k];
+            int count = cols[i] - col;
+            if(count < 0) continue; // 与上一个重叠
+            int length = PackedSpan.length(spans[i]);
+            repeat(out, ' ', count);
+            repeat(out, points[i] ? '^' : '-', length);
+            col = cols[i] + length;
+        }
+        out.write(' ');
+        out.write(texts[order[to - 1]]);
+        out.write('\n');
+
+        //  ┃ | |
+        //  ┃ | infos[last-1].text
+        //  ┃ |
+        //  ┃ infos[last-2].text
+        for(int k = to - 1; k > from; k--) {
+            String text = texts[order[k - 1]];
+            if(text.isEmpty()) continue;
+
+            //  ┃ | |
+            gutter(out, maxLineDigitLen);
+            col = 1;
+            for(int j = from; j < k; j++) {
+                int count = cols[order[j]] - col;
+                if(count < 0) continue; // 重叠
+                repeat(out, ' ', count);
+                out.write('|');
+                col = cols[order[j]] + 1;
+            }
+            out.write('\n');
+
+            //  ┃ | infos[last-1].text
+            gutter(out, maxLineDigitLen);
+            col = 1;
+            for(int j = from; j < k - 1; j++) {
+                if(cols[order[j]] == cols[order[j + 1]]) { // 与后一个重叠
+                    continue; // 跳过此次
+                }
+                repeat(out, ' ', cols[order[j]] - col);
+                out.write('|');
+                col = cols[order[j]] + 1;
+            }
+            repeat(out, ' ', cols[order[k - 1]] - col);
+            out.write(text);
+            out.write('\n');
         }
-        return str.toString();
+    }
+
+    /* 不带行号的行号栏 */
+    private static void gutter(Writer out, int maxLineDigitLen) throws IOException {
+        out.write(Ansi.CYAN);
+        repeat(out, ' ', maxLineDigitLen);
+        out.write("┃");
+        out.write(Ansi.DEFAULT);
+    }
+
+    /* 写入count个c，count不大于0时不写入；按块写入，避免逐字符调用Writer */
+    private static void repeat(Writer out, char c, int count) throws IOException {
+        char[] fill = c == ' ' ? SPACES : c == '^' ? CARETS : DASHES;
+        while(count > 0) {
+            int n = Math.min(count, fill.length);
+            out.write(fill, 0, n);
+            count -= n;
+        }
+    }
+
+    /**
+     * 以一行JSON写入out，不含换行：
+     * {@code {"level":..,"message":..,"file":..,"labels":[{"point":..,"start":..,"end":..,"line":..,"col":..,"text":..}]}}
+     * <p>
+     * file为相对于项目根目录的路径，没有文件时为null；start end为字符偏移量，line col从1开始
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\"level\":\"");
+        out.write(level.name());
+        out.write("\",\"message\":");
+        Json.string(out, issueName);
+        out.write(",\"file\":");
+        if(sourceMap.relativePath == null) {
+            out.write("null");
+        } else {
+            Json.string(out, sourceMap.relativePath.toString());
+        }
+        out.write(",\"labels\":[");
+        for(int i = 0; i < labelCount; i++) {
+            int start = PackedSpan.start(spans[i]);
+            int[] lineAndCol = sourceMap.getLineAndCol(start);
+            if(i > 0) out.write(',');
+            out.write("{\"point\":");
+            out.write(points[i] ? "true" : "false");
+            out.write(",\"start\":");
+            out.write(Integer.toString(start));
+            out.write(",\"end\":");
+            out.write(Integer.toString(PackedSpan.end(spans[i])));
+            out.write(",\"line\":");
+            out.write(Integer.toString(lineAndCol[0]));
+            out.write(",\"col\":");
+            out.write(Integer.toString(lineAndCol[1]));
+            out.write(",\"text\":");
+            Json.string(out, texts[i]);
+            out.write('}');
+        }
+        out.write("]}");
     }
 
     public enum IssueLevel {
@@ -92,109 +334,4 @@ public abstract class Issue extends RuntimeException {
             super(sourceMap, issueName, level);
         }
     }
-
-    // 储存一行的错误信息
-    class LineInfo {
-        final int line;
-        final String lineString;
-        final List<Info> infos = new ArrayList<>();
-        int col;
-
-        LineInfo(int line, String lineString) {
-            this.line = line;
-            this.lineString = lineString;
-        }
-
-        void point(int startCol, String indicator, String text) {
-            this.col = startCol;
-            Info info = new Info(startCol, indicator, text);
-            infos.add(info);
-        }
-
-        void info(int startCol, String indicator, String text) {
-            Info info = new Info(startCol, indicator, text);
-            infos.add(info);
-        }
-
-        /**
-         * @param maxLineDigitLen 所有LineInfo中最长的行号长度
-         */
-        public String toString(int maxLineDigitLen) {
-            StringBuilder str = new StringBuilder();
-
-            // -->Path:line:col
-            str.append(" ".repeat(maxLineDigitLen - 1)).append("-->")
-                    .append(sourceMap.relativePath).append(":").append(line).append(":").append(col).append("\n");
-
-            //  ┃
-            str.append(Ansi.CYAN).append(" ".repeat(maxLineDigitLen)).append("┃").append(Ansi.DEFAULT).append("\n");
-
-            // L┃lineString
-            int lineDigitLen = Integer.toString(line).length();
-            str.append(Ansi.CYAN).append(" ".repeat(maxLineDigitLen - lineDigitLen)).append(line).append("┃")
-                    .append(Ansi.DEFAULT).append(lineString).append("\n");
-
-            if(infos.isEmpty()) return str.toString();// 为空退出防止越界
-
-            infos.sort(Comparator.comparing(i -> i.col));// 排序，以从前往后输出
-
-            //  ┃ ^ - ^ infos[last]text
-            str.append(Ansi.CYAN).append(" ".repeat(maxLineDigitLen)).append("┃").append(Ansi.DEFAULT);
-            int col = 1;// 标识当前输出列
-            for(Info info : infos) {
-                int count = info.col - col;
-                if(count < 0) continue; // 与上一个重叠
-                str.append(" ".repeat(count));
-                str.append(info.indicator);
-                col = info.col + info.indicator.length();
-            }
-            str.append(" ").append(infos.get(infos.size() - 1).text);
-            str.append("\n");
-
-            //  ┃ | |
-            //  ┃ | infos[last-1].text
-            //  ┃ |
-            //  ┃ infos[last-2].text
-            for(int i = infos.size() - 1; i > 0; i--) {
-                String text = infos.get(i - 1).text;
-                if(text.isEmpty()) continue;
-
-                //  ┃ | |
-                str.append(Ansi.CYAN).append(" ".repeat(maxLineDigitLen)).append("┃").append(Ansi.DEFAULT);
-                col = 1;
-                for(int j = 0; j < i; j++) {
-                    int count = infos.get(j).col - col;
-                    if(count < 0) continue; // 重叠
-                    str.append(" ".repeat(count));
-                    str.append("|");
-                    col = infos.get(j).col + 1;
-                }
-                str.append("\n");
-
-                //  ┃ | infos[last-1].text
-                str.append(Ansi.CYAN).append(" ".repeat(maxLineDigitLen)).append("┃").append(Ansi.DEFAULT);
-                col = 1;
-                for(int j = 0; j < i - 1; j++) {
-                    if(infos.get(j).col == infos.get(j + 1).col) { // 与后一个重叠
-                        continue; // 跳过此次
-                    }
-                    int count = infos.get(j).col - col;
-                    str.append(" ".repeat(count));
-                    str.append("|");
-                    col = infos.get(j).col + 1;
-                }
-                str.append(" ".repeat(Math.max(0, infos.get(i - 1).col - col)));
-                str.append(text);
-                str.append("\n");
-            }
-
-            return str.toString();
-        }
-
-        /**
-         * @param col 从1开始
-         */
-        private record Info(int col, String indicator, String text) {
-        }
-    }
-}
\ No newline at end of file
+}
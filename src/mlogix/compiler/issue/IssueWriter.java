@@ -0,0 +1,106 @@
+package mlogix.compiler.issue;
+
+import java.io.*;
+
+/**
+ * 将问题逐个写入Writer，不先拼接为字符串
+ * <p>
+ * 自带不加锁的缓冲，逐段写入时不像BufferedWriter那样每次调用都加锁；
+ * 只能在一个线程中使用，写完一批后调用{@link #flush()}
+ */
+public class IssueWriter implements Flushable {
+    private final Buffer buffer;
+    private final Format format;
+
+    public IssueWriter(Writer out, Format format) {
+        this.buffer = new Buffer(out);
+        this.format = format;
+    }
+
+    public void write(Issue issue) throws IOException {
+        switch(format) {
+            case TEXT -> {
+                issue.render(buffer);
+                buffer.write('\n'); // 问题之间空一行
+            }
+            case JSON -> {
+                issue.writeJson(buffer);
+                buffer.write('\n');
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flush();
+    }
+
+    public enum Format {
+        TEXT, /* 带颜色的源码标注 */
+        JSON  /* JSON Lines，每行一个问题，见Issue.writeJson(_) */
+    }
+
+    /* 不加锁的字符缓冲，满时整块写入out */
+    private static final class Buffer extends Writer {
+        private final Writer out;
+        private final char[] chars = new char[8192];
+        private int count;
+
+        Buffer(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if(count == chars.length) flushBuffer();
+            chars[count++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if(len > chars.length - count) {
+                flushBuffer();
+                if(len >= chars.length) {
+                    out.write(cbuf, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(cbuf, off, chars, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            if(len > chars.length - count) {
+                flushBuffer();
+                if(len >= chars.length) {
+                    out.write(str, off, len);
+                    return;
+                }
+            }
+            str.getChars(off, off + len, chars, count);
+            count += len;
+        }
+
+        @Override
+        public void write(String str) throws IOException {
+            write(str, 0, str.length());
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(chars, 0, count);
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
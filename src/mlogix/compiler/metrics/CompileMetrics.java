@@ -0,0 +1,170 @@
+package mlogix.compiler.metrics;
+
+import mlogix.util.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 一次编译的分阶段统计：嵌套的阶段树与各文件的统计
+ * <p>
+ * 编译线程的阶段记录在{@link #phases()}中；每个文件的阶段先记录在各自的{@link FileMetrics}中，
+ * 再由编译线程按路径顺序以{@link #accept(FileMetrics)}累加到当前阶段之下，
+ * 因此并行编译时不共享可变状态，输出的文件顺序也与串行时相同。
+ * 文件的子阶段是各文件之和，并行时可能大于上层阶段的耗时
+ */
+public final class CompileMetrics {
+    private final PhaseRecorder phases = new PhaseRecorder("total");
+    private final List<FileMetrics> files = new ArrayList<>();
+
+    /**
+     * 编译线程的阶段记录器，只在编译线程中使用
+     */
+    public PhaseRecorder phases() {
+        return phases;
+    }
+
+    /**
+     * 将file的阶段累加到当前进入的阶段之下
+     */
+    public void accept(FileMetrics file) {
+        phases.current().mergeChildren(file.phases().root());
+        files.add(file);
+    }
+
+    public List<FileMetrics> files() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * 顶层各阶段的耗时之和
+     */
+    public long nanos() {
+        long nanos = 0;
+        for(PhaseNode phase : phases.root().children()) nanos += phase.nanos();
+        return nanos;
+    }
+
+    public long chars() {
+        long chars = 0;
+        for(FileMetrics file : files) chars += file.chars();
+        return chars;
+    }
+
+    /**
+     * 全部文件的字符数(百万)除以顶层各阶段的耗时之和；按读取后的字符计，不是UTF-8字节数
+     */
+    public double millionCharsPerSecond() {
+        return millionCharsPerSecond(chars(), nanos());
+    }
+
+    static double millionCharsPerSecond(long chars, long nanos) {
+        return nanos == 0 ? 0 : chars / 1e6 / (nanos / 1e9);
+    }
+
+    /**
+     * 写入总耗时与吞吐量；detailed时还写入阶段树与各文件的表格
+     */
+    public void printTable(PrintStream out, boolean detailed) {
+        out.println("=== 编译阶段耗时统计 ===");
+        if(detailed) {
+            out.printf("%-24s %6s %12s %12s%n", "阶段", "次数", "耗时", "分配");
+            for(PhaseNode phase : phases.root().children()) {
+                printPhase(out, phase, 0);
+            }
+
+            out.printf("%n%-24s %10s %10s %10s %12s %10s %12s%n", "文件", "字符", "Token", "节点", "耗时", "M字符/s", "分配");
+            for(FileMetrics file : files) {
+                out.printf("%-24s %10d %10s %10s %12s %10.2f %12s%n", file.file, file.chars(),
+                        count(file.tokens()), count(file.nodes()), millis(file.nanos()),
+                        file.millionCharsPerSecond(), megabytes(file.allocatedBytes()));
+            }
+        }
+        out.printf("%-10s: %s  %.2f M字符/s%n", "总计", millis(nanos()), millionCharsPerSecond());
+    }
+
+    private static void printPhase(PrintStream out, PhaseNode phase, int depth) {
+        String name = "  ".repeat(depth) + phase.name;
+        out.printf("%-24s %6d %12s %12s%n", name, phase.count(), millis(phase.nanos()), megabytes(phase.allocatedBytes()));
+        for(PhaseNode child : phase.children()) {
+            printPhase(out, child, depth + 1);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.2f MB", bytes / 1e6);
+    }
+
+    private static String count(int count) {
+        return count < 0 ? "-" : Integer.toString(count);
+    }
+
+    /**
+     * 以一个JSON对象写入out：
+     * {@code {"nanos":..,"chars":..,"millionCharsPerSecond":..,"phases":[阶段],"files":[文件]}}，
+     * 阶段为{@code {"name":..,"count":..,"nanos":..,"allocatedBytes":..,"children":[阶段]}}，
+     * 文件为{@code {"file":..,"chars":..,"tokens":..,"nodes":..,"nanos":..,"allocatedBytes":..,"millionCharsPerSecond":..,"phases":[阶段]}}；
+     * 未知的tokens nodes为null
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\"nanos\":");
+        out.write(Long.toString(nanos()));
+        out.write(",\"chars\":");
+        out.write(Long.toString(chars()));
+        out.write(",\"millionCharsPerSecond\":");
+        out.write(number(millionCharsPerSecond()));
+        out.write(",\"phases\":");
+        phasesJson(out, phases.root().children());
+        out.write(",\"files\":[");
+        for(int i = 0; i < files.size(); i++) {
+            FileMetrics file = files.get(i);
+            if(i > 0) out.write(',');
+            out.write("{\"file\":");
+            Json.string(out, file.file);
+            out.write(",\"chars\":");
+            out.write(Integer.toString(file.chars()));
+            out.write(",\"tokens\":");
+            out.write(file.tokens() < 0 ? "null" : Integer.toString(file.tokens()));
+            out.write(",\"nodes\":");
+            out.write(file.nodes() < 0 ? "null" : Integer.toString(file.nodes()));
+            out.write(",\"nanos\":");
+            out.write(Long.toString(file.nanos()));
+            out.write(",\"allocatedBytes\":");
+            out.write(Long.toString(file.allocatedBytes()));
+            out.write(",\"millionCharsPerSecond\":");
+            out.write(number(file.millionCharsPerSecond()));
+            out.write(",\"phases\":");
+            phasesJson(out, file.phases().root().children());
+            out.write('}');
+        }
+        out.write("]}");
+    }
+
+    private static void phasesJson(Writer out, List<PhaseNode> phases) throws IOException {
+        out.write('[');
+        for(int i = 0; i < phases.size(); i++) {
+            PhaseNode phase = phases.get(i);
+            if(i > 0) out.write(',');
+            out.write("{\"name\":");
+            Json.string(out, phase.name);
+            out.write(",\"count\":");
+            out.write(Integer.toString(phase.count()));
+            out.write(",\"nanos\":");
+            out.write(Long.toString(phase.nanos()));
+            out.write(",\"allocatedBytes\":");
+            out.write(Long.toString(phase.allocatedBytes()));
+            out.write(",\"children\":");
+            phasesJson(out, phase.children());
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
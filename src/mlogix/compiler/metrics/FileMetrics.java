@@ -0,0 +1,79 @@
+package mlogix.compiler.metrics;
+
+import mlogix.logix.*;
+
+/**
+ * 单个文件的阶段、Token数与节点数
+ * <p>
+ * 在编译该文件的线程中记录，之后交给{@link CompileMetrics#accept(FileMetrics)}合并
+ */
+public final class FileMetrics {
+    public final String file; /* 相对于项目根目录的路径 */
+    private final PhaseRecorder phases = new PhaseRecorder("file");
+    private int tokens = -1; /* 未知时为-1，如从缓存加载或切分后并行解析 */
+    private int nodes = -1; /* 未统计时为-1 */
+    private int chars;
+
+    public FileMetrics(String file) {
+        this.file = file;
+    }
+
+    public PhaseRecorder phases() {
+        return phases;
+    }
+
+    /**
+     * @param chars 读取后源码的字符数
+     */
+    public void chars(int chars) {
+        this.chars = chars;
+    }
+
+    /**
+     * @param tokens Lexer扫描的Token数，含EOF
+     */
+    public void tokens(int tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * 统计ast的节点数
+     */
+    public void nodes(ASTNode ast) {
+        this.nodes = ast == null ? 0 : NodeCounter.count(ast);
+    }
+
+    public int chars() {
+        return chars;
+    }
+
+    public int tokens() {
+        return tokens;
+    }
+
+    public int nodes() {
+        return nodes;
+    }
+
+    /**
+     * 各阶段的耗时之和
+     */
+    public long nanos() {
+        long nanos = 0;
+        for(PhaseNode phase : phases.root().children()) nanos += phase.nanos();
+        return nanos;
+    }
+
+    public long allocatedBytes() {
+        long bytes = 0;
+        for(PhaseNode phase : phases.root().children()) bytes += phase.allocatedBytes();
+        return bytes;
+    }
+
+    /**
+     * 字符数(百万)除以各阶段的耗时之和，耗时为0时为0
+     */
+    public double millionCharsPerSecond() {
+        return CompileMetrics.millionCharsPerSecond(chars, nanos());
+    }
+}
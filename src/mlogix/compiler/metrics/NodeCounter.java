@@ -0,0 +1,78 @@
+package mlogix.compiler.metrics;
+
+import mlogix.logix.*;
+
+import java.util.*;
+
+import static mlogix.logix.Expr.*;
+import static mlogix.logix.Stmt.*;
+
+/**
+ * 统计语法树的节点数，以显式栈遍历，不受嵌套深度限制
+ */
+final class NodeCounter {
+    private NodeCounter() {
+    }
+
+    static int count(ASTNode root) {
+        List<ASTNode> stack = new ArrayList<>();
+        stack.add(root);
+        int count = 0;
+        while(!stack.isEmpty()) {
+            ASTNode node = stack.remove(stack.size() - 1);
+            if(node == null) continue;
+            count++;
+            if(node instanceof Program n) {
+                stack.addAll(n.stmts);
+            } else if(node instanceof Block n) {
+                stack.addAll(n.stmts);
+            } else if(node instanceof ExprStmt n) {
+                stack.add(n.expr);
+            } else if(node instanceof IfStmt n) {
+                stack.add(n.condition);
+                stack.add(n.thenBranch);
+                stack.add(n.elseBranch);
+            } else if(node instanceof ForStmt n) {
+                stack.add(n.varDecl);
+                stack.add(n.expr);
+                stack.add(n.body);
+            } else if(node instanceof WhileStmt n) {
+                stack.add(n.expr);
+                stack.add(n.body);
+            } else if(node instanceof FnStmt n) {
+                stack.addAll(n.parameters);
+                stack.addAll(n.results);
+                stack.add(n.body());
+            } else if(node instanceof ReturnStmt n) {
+                stack.add(n.expr);
+            } else if(node instanceof AssignStmt n) {
+                stack.add(n.var);
+                stack.add(n.value);
+            } else if(node instanceof SetVarStmt n) {
+                stack.add(n.var);
+                stack.add(n.assignStmt);
+            } else if(node instanceof Unary n) {
+                stack.add(n.expr);
+            } else if(node instanceof Binary n) {
+                stack.add(n.left);
+                stack.add(n.right);
+            } else if(node instanceof Array n) {
+                stack.addAll(n.elements);
+            } else if(node instanceof Index n) {
+                stack.add(n.list);
+                stack.add(n.index);
+            } else if(node instanceof Range n) {
+                stack.add(n.left);
+                stack.add(n.right);
+            } else if(node instanceof Call n) {
+                stack.add(n.callee);
+                stack.addAll(n.arguments);
+            } else if(node instanceof Get n) {
+                stack.add(n.object);
+                stack.add(n.field);
+            }
+            // Literal Identifier BreakStmt ContinueStmt没有子节点
+        }
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package mlogix.compiler.metrics;
+
+import java.util.*;
+
+/**
+ * 阶段树的一个节点：进入次数、耗时(纳秒)与其间所在线程分配的字节数
+ * <p>
+ * 同名的子阶段合并为一个节点，按第一次进入的顺序排列
+ */
+public final class PhaseNode {
+    public final String name;
+    private int count;
+    private long nanos;
+    private long allocatedBytes;
+    private final List<PhaseNode> children = new ArrayList<>();
+
+    PhaseNode(String name) {
+        this.name = name;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public List<PhaseNode> children() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * 名为name的子阶段，没有时为null
+     */
+    public PhaseNode child(String name) {
+        for(PhaseNode child : children) {
+            if(child.name.equals(name)) return child;
+        }
+        return null;
+    }
+
+    PhaseNode childOrCreate(String name) {
+        PhaseNode child = child(name);
+        if(child == null) {
+            child = new PhaseNode(name);
+            children.add(child);
+        }
+        return child;
+    }
+
+    void add(int count, long nanos, long allocatedBytes) {
+        this.count += count;
+        this.nanos += nanos;
+        this.allocatedBytes += allocatedBytes;
+    }
+
+    /**
+     * 将other的子阶段逐层累加到本节点的子阶段中，other不变
+     */
+    void mergeChildren(PhaseNode other) {
+        for(PhaseNode otherChild : other.children) {
+            PhaseNode child = childOrCreate(otherChild.name);
+            child.add(otherChild.count, otherChild.nanos, otherChild.allocatedBytes);
+            child.mergeChildren(otherChild);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package mlogix.compiler.metrics;
+
+import java.lang.management.*;
+import java.util.*;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * 记录嵌套的阶段：{@link #start(String)}进入当前阶段的子阶段，{@link #end()}回到上一层
+ * <p>
+ * 以System.nanoTime计时，分配的字节数取自当前线程的ThreadMXBean计数，
+ * 因此只能在一个线程中使用，也只统计这个线程的分配
+ */
+public final class PhaseRecorder {
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = THREADS.isThreadAllocatedMemorySupported()
+            && THREADS.isThreadAllocatedMemoryEnabled();
+
+    private final PhaseNode root;
+    // 进入中的阶段，各数组的同一下标为一层
+    private final List<PhaseNode> stack = new ArrayList<>();
+    private long[] startNanos = new long[8];
+    private long[] startBytes = new long[8];
+
+    /**
+     * @param root 记录的阶段作为它的子阶段
+     */
+    public PhaseRecorder(PhaseNode root) {
+        this.root = root;
+    }
+
+    public PhaseRecorder(String rootName) {
+        this(new PhaseNode(rootName));
+    }
+
+    public PhaseNode root() {
+        return root;
+    }
+
+    /**
+     * 最近进入的阶段，没有时为root
+     */
+    PhaseNode current() {
+        return stack.isEmpty() ? root : stack.get(stack.size() - 1);
+    }
+
+    public void start(String name) {
+        PhaseNode parent = current();
+        int depth = stack.size();
+        if(depth == startNanos.length) {
+            startNanos = Arrays.copyOf(startNanos, depth * 2);
+            startBytes = Arrays.copyOf(startBytes, depth * 2);
+        }
+        stack.add(parent.childOrCreate(name));
+        startBytes[depth] = allocatedBytes();
+        startNanos[depth] = System.nanoTime();
+    }
+
+    /**
+     * 结束最近进入的阶段
+     */
+    public void end() {
+        long now = System.nanoTime();
+        if(stack.isEmpty()) {
+            throw new IllegalStateException("没有进入中的阶段");
+        }
+        int depth = stack.size() - 1;
+        PhaseNode node = stack.remove(depth);
+        node.add(1, now - startNanos[depth], allocatedBytes() - startBytes[depth]);
+    }
+
+    /**
+     * 当前线程至今分配的字节数，JVM不支持时为0
+     */
+    static long allocatedBytes() {
+        return ALLOCATION_SUPPORTED ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+}
@@ -0,0 +1,257 @@
+package mlogix.compiler.struct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 内存映射的UTF-8源码
+ * <p>
+ * ASCII字符直接读取映射的字节，连续的非ASCII字节为一段，仅在首次读取该段时解码，
+ * 因此中文注释不会被解码；换行符保持原样，不复制整个文件
+ */
+final class MappedSource implements SourceText {
+    private final ByteBuffer bytes;
+    private final int length; /* 字符数 */
+
+    // 非ASCII段，按位置升序
+    private int runCount;
+    private int[] runCharStart = new int[8];
+    private int[] runCharEnd = new int[8];
+    private int[] runByteStart = new int[8];
+    private int[] runByteEnd = new int[8];
+    private String[] runTexts = new String[8]; /* 已解码的段，未解码为null */
+
+    private int lastRun = -1; /* 上次命中的段，顺序访问时免去二分查找 */
+    private Window window; /* 上次访问的ASCII区间，charAt的快速路径 */
+
+    private MappedSource(ByteBuffer bytes) throws MalformedInputException {
+        this.bytes = bytes;
+        this.length = scanRuns();
+        this.window = new Window(0, asciiEnd(-1), 0);
+    }
+
+    static MappedSource open(Path filePath) throws IOException {
+        try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("文件过大: " + filePath);
+            }
+            return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * 校验UTF-8并记录非ASCII段
+     * @return 字符数
+     */
+    private int scanRuns() throws MalformedInputException {
+        int byteLength = bytes.limit();
+        int chars = 0;
+        int i = 0;
+        while(i < byteLength) {
+            if(bytes.get(i) >= 0) {
+                i++;
+                chars++;
+                continue;
+            }
+            int byteStart = i;
+            int charStart = chars;
+            while(i < byteLength && bytes.get(i) < 0) {
+                int b = bytes.get(i) & 0xFF;
+                int size = sequenceSize(b, i + 1 < byteLength ? bytes.get(i + 1) & 0xFF : -1);
+                if(size == 0 || i + size > byteLength) {
+                    throw new MalformedInputException(1);
+                }
+                for(int j = 2; j < size; j++) {
+                    if((bytes.get(i + j) & 0xC0) != 0x80) throw new MalformedInputException(1);
+                }
+                i += size;
+                chars += size == 4 ? 2 : 1; // 4字节序列为代理对
+            }
+            addRun(charStart, chars, byteStart, i);
+        }
+        return chars;
+    }
+
+    /**
+     * UTF-8序列的字节数
+     * @param second 第二个字节，不存在为-1
+     * @return 非法序列为0
+     */
+    private static int sequenceSize(int lead, int second) {
+        if(lead >= 0xC2 && lead <= 0xDF) {
+            return second >= 0x80 && second <= 0xBF ? 2 : 0;
+        } else if(lead >= 0xE0 && lead <= 0xEF) {
+            int min = lead == 0xE0 ? 0xA0 : 0x80;
+            int max = lead == 0xED ? 0x9F : 0xBF;
+            return second >= min && second <= max ? 3 : 0;
+        } else if(lead >= 0xF0 && lead <= 0xF4) {
+            int min = lead == 0xF0 ? 0x90 : 0x80;
+            int max = lead == 0xF4 ? 0x8F : 0xBF;
+            return second >= min && second <= max ? 4 : 0;
+        }
+        return 0;
+    }
+
+    private void addRun(int charStart, int charEnd, int byteStart, int byteEnd) {
+        if(runCount == runCharStart.length) {
+            int capacity = runCount * 2;
+            runCharStart = Arrays.copyOf(runCharStart, capacity);
+            runCharEnd = Arrays.copyOf(runCharEnd, capacity);
+            runByteStart = Arrays.copyOf(runByteStart, capacity);
+            runByteEnd = Arrays.copyOf(runByteEnd, capacity);
+            runTexts = Arrays.copyOf(runTexts, capacity);
+        }
+        runCharStart[runCount] = charStart;
+        runCharEnd[runCount] = charEnd;
+        runByteStart[runCount] = byteStart;
+        runByteEnd[runCount] = byteEnd;
+        runCount++;
+    }
+
+    /**
+     * 查找起点不大于index的最后一段
+     * @return 不存在为-1
+     */
+    private int run(int index) {
+        if(runCount == 0 || index < runCharStart[0]) return -1;
+        int k = lastRun;
+        if(k >= 0 && runCharStart[k] <= index) {
+            if(k + 1 == runCount || runCharStart[k + 1] > index) return k;
+            if(k + 2 == runCount || runCharStart[k + 2] > index) return lastRun = k + 1;
+        }
+        int low = 0;
+        int high = runCount - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(runCharStart[mid] <= index) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if(high >= 0) lastRun = high;
+        return high;
+    }
+
+    private String runText(int k) {
+        String text = runTexts[k];
+        if(text == null) {
+            text = StandardCharsets.UTF_8.decode(bytes.slice(runByteStart[k], runByteEnd[k] - runByteStart[k])).toString();
+            runTexts[k] = text; // 重复解码结果相同，无需加锁
+        }
+        return text;
+    }
+
+    /* index之后的ASCII字符的字节偏移量，k为run(index) */
+    private int byteOffset(int k, int index) {
+        return k < 0 ? index : runByteEnd[k] + index - runCharEnd[k];
+    }
+
+    /* index所在ASCII区间的末尾，k为run(index) */
+    private int asciiEnd(int k) {
+        return k + 1 < runCount ? runCharStart[k + 1] : length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        Window w = window;
+        if(index >= w.start && index < w.end) {
+            return (char) bytes.get(index + w.delta);
+        }
+        return charAtSlow(index);
+    }
+
+    private char charAtSlow(int index) {
+        Objects.checkIndex(index, length);
+        int k = run(index);
+        if(k >= 0 && index < runCharEnd[k]) {
+            return runText(k).charAt(index - runCharStart[k]);
+        }
+        int start = k < 0 ? 0 : runCharEnd[k];
+        window = new Window(start, asciiEnd(k), byteOffset(k, start) - start);
+        return (char) bytes.get(byteOffset(k, index));
+    }
+
+    @Override
+    public int indexOf(char c, int from) {
+        if(c < 0x80) return indexOfAscii(c, c, from);
+        for(int k = Math.max(run(Math.max(from, 0)), 0); k < runCount; k++) {
+            int i = runText(k).indexOf(c, Math.max(from - runCharStart[k], 0));
+            if(i >= 0) return runCharStart[k] + i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOfNewline(int from) {
+        return indexOfAscii('\n', '\r', from);
+    }
+
+    /* 只查找ASCII区间，非ASCII段中不含ASCII字节 */
+    private int indexOfAscii(char c1, char c2, int from) {
+        int index = Math.max(from, 0);
+        while(index < length) {
+            int k = run(index);
+            if(k >= 0 && index < runCharEnd[k]) {
+                index = runCharEnd[k];
+                continue;
+            }
+            int end = asciiEnd(k);
+            int offset = byteOffset(k, index);
+            for(; index < end; index++, offset++) {
+                byte b = bytes.get(offset);
+                if(b == c1 || b == c2) return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一段ASCII区间，不可变以便多线程共享同一MappedSource
+     * @param delta 字节偏移量 - 字符偏移量
+     */
+    private record Window(int start, int end, int delta) {
+    }
+
+    @Override
+    public String subString(int start, int end) {
+        Objects.checkFromToIndex(start, end, length);
+        char[] chars = new char[end - start];
+        int index = start;
+        while(index < end) {
+            int k = run(index);
+            if(k >= 0 && index < runCharEnd[k]) {
+                int segmentEnd = Math.min(end, runCharEnd[k]);
+                runText(k).getChars(index - runCharStart[k], segmentEnd - runCharStart[k], chars, index - start);
+                index = segmentEnd;
+            } else {
+                int segmentEnd = Math.min(end, asciiEnd(k));
+                int offset = byteOffset(k, index);
+                for(; index < segmentEnd; index++, offset++) {
+                    chars[index - start] = (char) bytes.get(offset);
+                }
+            }
+        }
+        return new String(chars);
+    }
+
+    /* 映射的字节即为UTF-8，无需解码 */
+    @Override
+    public void digest(MessageDigest digest) {
+        digest.update(bytes.duplicate());
+    }
+}
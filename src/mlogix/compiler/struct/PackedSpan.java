@@ -0,0 +1,78 @@
+package mlogix.compiler.struct;
+
+/**
+ * 以一个long表示的Span，Token与语法树节点以此存储位置，不分配对象
+ * <p>
+ * 高16位为SourceMap索引，中间24位为起点，低24位为长度，
+ * 因此源码长度不超过{@link #MAX_LENGTH}，SourceMap索引不超过{@link #MAX_INDEX}
+ */
+public final class PackedSpan {
+    public static final int MAX_INDEX = (1 << 16) - 1;
+    public static final int MAX_LENGTH = (1 << 24) - 1;
+
+    private static final int INDEX_SHIFT = 48;
+    private static final int START_SHIFT = 24;
+    private static final long MASK = (1 << 24) - 1;
+
+    private PackedSpan() {
+    }
+
+    /**
+     * @param start 开头的字符偏移量
+     * @param end 末尾的字符偏移量+1
+     */
+    public static long of(int index, int start, int end) {
+        if(index < 0 || index > MAX_INDEX || start < 0 || end < start || end > MAX_LENGTH) {
+            throw new IllegalArgumentException(String.format("无法压缩的Span{%d,%d,%d}", index, start, end));
+        }
+        return (long) index << INDEX_SHIFT | (long) start << START_SHIFT | (end - start);
+    }
+
+    public static long of(Span span) {
+        return of(span.index(), span.start(), span.end());
+    }
+
+    public static int index(long span) {
+        return (int) (span >>> INDEX_SHIFT);
+    }
+
+    public static int start(long span) {
+        return (int) (span >>> START_SHIFT & MASK);
+    }
+
+    public static int end(long span) {
+        return start(span) + length(span);
+    }
+
+    public static int length(long span) {
+        return (int) (span & MASK);
+    }
+
+    /**
+     * 从from的开头到to的末尾
+     */
+    public static long between(long from, long to) {
+        if(index(from) != index(to)) {
+            throw new RuntimeException("不能对index不同的Span使用between(_)");
+        }
+        return of(index(from), start(from), end(to));
+    }
+
+    /**
+     * 起点与终点平移delta
+     */
+    public static long shift(long span, int delta) {
+        return of(index(span), start(span) + delta, end(span) + delta);
+    }
+
+    /**
+     * 实例化为Span
+     */
+    public static Span toSpan(long span) {
+        return new Span(index(span), start(span), end(span));
+    }
+
+    public static String toString(long span) {
+        return String.format("Span{%d,%d,%d}", index(span), start(span), end(span));
+    }
+}
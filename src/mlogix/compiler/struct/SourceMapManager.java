@@ -3,16 +3,20 @@ package mlogix.compiler.struct;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.*;
 
 public class SourceMapManager {
     public final Path projectPath; /* 项目根目录 */
-    private final Map<Path, SourceMap> sourceMaps = new HashMap<>();
-    private final List<SourceMap> sourceMapList = new ArrayList<>(); /* 以此通过索引获取sourceMap */
+    private final Map<Path, SourceMap> sourceMaps = new ConcurrentHashMap<>();
+    private final Map<Path, Integer> registeredIndexes = new HashMap<>(); /* register()预留的索引，由this保护 */
+    private final List<SourceMap> sourceMapList = new ArrayList<>(); /* 以此通过索引获取sourceMap，由this保护 */
 
     public SourceMapManager(Path projectPath) {
         this.projectPath = projectPath;
@@ -23,25 +27,67 @@ public class SourceMapManager {
     }
 
     /**
-     * 加载文件并创建 SourceMap
+     * 为文件预留索引，并行加载时索引由预留顺序决定，与加载顺序无关
+     * @return 该文件的索引
+     */
+    public synchronized int register(Path filePath) {
+        Integer index = registeredIndexes.get(filePath);
+        if(index == null) {
+            index = nextIndex();
+            sourceMapList.add(null);
+            registeredIndexes.put(filePath, index);
+        }
+        return index;
+    }
+
+    /**
+     * 加载文件并创建 SourceMap，文件以内存映射读取，可在多个线程中同时调用
      */
     public SourceMap loadSourceMap(Path filePath) throws IOException {
-        SourceMap sourceMap = new SourceMap(filePath, sourceMapList.size());
+        int index = register(filePath);
+        SourceMap sourceMap = new SourceMap(filePath, index); // 读取文件时不持有锁
+        synchronized(this) {
+            sourceMapList.set(index, sourceMap);
+        }
         sourceMaps.put(filePath, sourceMap);
-        sourceMapList.add(sourceMap);
         return sourceMap;
     }
 
     /**
      * 从字符串创建 SourceMap
      */
-    public SourceMap loadSourceMap(String source) {
-        SourceMap sourceMap = new SourceMap(source, sourceMapList.size());
+    public synchronized SourceMap loadSourceMap(String source) {
+        SourceMap sourceMap = new SourceMap(source, nextIndex());
         // sourceMaps.put(null, sourceMap); 临时代码无需
         sourceMapList.add(sourceMap);
         return sourceMap;
     }
 
+    /* Span中的索引位数有限，见PackedSpan */
+    private int nextIndex() {
+        if(sourceMapList.size() > PackedSpan.MAX_INDEX) {
+            throw new IllegalStateException("SourceMap数量超过" + (PackedSpan.MAX_INDEX + 1));
+        }
+        return sourceMapList.size();
+    }
+
+    /**
+     * 编辑SourceMap，编辑后的SourceMap替换原有的SourceMap，索引不变
+     * <p>
+     * 编辑后的源码不统一换行，以保证编辑处之外的偏移量不变
+     */
+    public synchronized SourceMap edit(SourceMap sourceMap, TextEdit edit) {
+        String source = sourceMap.subString(0, edit.offset())
+                + edit.insertedText()
+                + sourceMap.subString(edit.removedEnd(), sourceMap.length());
+        SourceMap edited = new SourceMap(sourceMap, new StringSource(source));
+        sourceMapList.set(edited.index, edited);
+        if(edited.filePath != null) {
+            sourceMaps.put(edited.filePath, edited);
+        }
+        return edited;
+    }
+
     /**
      * 获取文件的 SourceMap
      */
@@ -52,7 +98,7 @@ public class SourceMapManager {
     /**
      * 通过索引获取sourceMap
      */
-    public SourceMap getSourceMap(int index) {
+    public synchronized SourceMap getSourceMap(int index) {
         return sourceMapList.get(index);
     }
 
@@ -66,15 +112,20 @@ public class SourceMapManager {
     public class SourceMap {
         public final Path filePath;
         public final Path relativePath; /* 相对于项目根目录的相对目录 */
-        public final String source; /* 存储所有字符 */
+        private final SourceText text; /* 存储所有字符 */
         public final int index; /* 在SourceMapManager中的索引 */
-        private final List<Integer> lineOffsetList; /* 每行的起始字符索引 */
+        private final int[] lineOffsets; /* 每行的起始字符索引，升序 */
+        private int lastLine; /* 上次查找到的行(从0开始)，顺序访问时多数命中；多线程下只是提示，命中前会校验 */
+        private Found lastFound; /* 上次有界查找的结果，不可变，多线程下读到旧的结果也仍然成立 */
 
         private SourceMap(Path filePath, int index) throws IOException {
             this.filePath = filePath;
             this.relativePath = projectPath.relativize(filePath);
-            this.source = loadSource(filePath);
-            this.lineOffsetList = buildLineOffsetList();
+            this.text = MappedSource.open(filePath);
+            if(text.length() > PackedSpan.MAX_LENGTH) {
+                throw new IOException("文件过长(" + text.length() + "个字符)，最多" + PackedSpan.MAX_LENGTH + "个字符: " + filePath);
+            }
+            this.lineOffsets = buildLineOffsets();
 
             this.index = index;
         }
@@ -82,85 +133,136 @@ public class SourceMapManager {
         private SourceMap(String source, int index) {
             this.filePath = null;
             this.relativePath = null;
-            this.source = loadSource(source);
-            this.lineOffsetList = buildLineOffsetList();
+            this.text = StringSource.normalized(source);
+            checkLength(text);
+            this.lineOffsets = buildLineOffsets();
 
             this.index = index;
         }
 
+        private SourceMap(SourceMap previous, SourceText text) {
+            this.filePath = previous.filePath;
+            this.relativePath = previous.relativePath;
+            this.text = text;
+            checkLength(text);
+            this.lineOffsets = buildLineOffsets();
+
+            this.index = previous.index;
+        }
+
+        private static void checkLength(SourceText text) {
+            if(text.length() > PackedSpan.MAX_LENGTH) {
+                throw new IllegalArgumentException("源码过长(" + text.length() + "个字符)，最多" + PackedSpan.MAX_LENGTH + "个字符");
+            }
+        }
+
         /**
-         * 加载文件内容为字符列表（自动处理UTF-8）
+         * 构建行号表（记录每行的起始字符索引）
          */
-        private String loadSource(Path filePath) throws IOException {
-            return loadSource(Files.readString(filePath)); // Java 11+ 直接读取为UTF-8字符串
+        private int[] buildLineOffsets() {
+            int[] offsets = new int[64];
+            int count = 1; // 第一行从索引0开始
+
+            for (int i = text.indexOfNewline(0); i >= 0; i = text.indexOfNewline(i + 1)) {
+                i = newlineEnd(i) - 1;
+                if(count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = i + 1; // 下一行起始位置
+            }
+            return Arrays.copyOf(offsets, count);
         }
 
         /**
-         * 从字符串加载字符列表
+         * 换行符之后的位置，`\r\n`视为一个换行
+         * @param newline `\n`或`\r`的位置
          */
-        private String loadSource(String source) {
-            return source.replace("\r\n", "\n").replace('\r', '\n');
+        public int newlineEnd(int newline) {
+            if(text.charAt(newline) == '\r' && newline + 1 < text.length() && text.charAt(newline + 1) == '\n') {
+                return newline + 2;
+            }
+            return newline + 1;
         }
 
         /**
-         * 构建行号表（记录每行的起始字符索引）
+         * 字符索引所在的行(从0开始)，先查上次命中的行及其下一行，否则二分查找
          */
-        private List<Integer> buildLineOffsetList() {
-            List<Integer> offsetList = new ArrayList<>();
-            offsetList.add(0); // 第一行从索引0开始
+        private int lineIndex(int charIndex) {
+            int last = lastLine;
+            if(charIndex >= lineOffsets[last]) {
+                if(last + 1 == lineOffsets.length || charIndex < lineOffsets[last + 1]) return last;
+                if(last + 2 == lineOffsets.length || charIndex < lineOffsets[last + 2]) return lastLine = last + 1;
+            }
 
-            for (int i = 0; i < source.length(); i++) {
-                if (source.charAt(i) == '\n') {
-                    offsetList.add(i + 1); // 下一行起始位置
+            int low = 0, high = lineOffsets.length - 1; // 最后一个起点不大于charIndex的行
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(lineOffsets[mid] <= charIndex) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
                 }
             }
-            return offsetList;
+            return lastLine = low;
         }
 
         /**
          * 根据字符索引获取行号和列号(从1开始)
          */
         public int[] getLineAndCol(int charIndex) {
-            /*if (charIndex < 0 || charIndex >= source.size()) {
-                throw new IllegalArgumentException("无效的字符索引(" + charIndex + " -> [0," + source.size() + "))");
-            }*/
-
-            int line = 1;
-            for (int i = lineOffsetList.size() - 1; i >= 0; i--) {
-                if (charIndex >= lineOffsetList.get(i)) {
-                    line = i + 1;
-                    break;
-                }
-            }
-
-            int col = charIndex - lineOffsetList.get(line - 1) + 1;
-            return new int[]{line, col};
+            int line = lineIndex(charIndex);
+            return new int[]{line + 1, charIndex - lineOffsets[line] + 1};
         }
 
         /**
          * 根据字符索引获取行号(从1开始)
          */
         public int getLine(int charIndex) {
-            int line = 1;
-            for (int i = lineOffsetList.size() - 1; i >= 0; i--) {
-                if (charIndex >= lineOffsetList.get(i)) {
-                    line = i + 1;
-                    break;
-                }
-            }
-            return line;
+            return lineIndex(charIndex) + 1;
         }
 
         /**
          * 根据字符索引获取列号(从1开始)
          */
         public int getCol(int charIndex) {
-            return charIndex - lineOffsetList.get(getLine(charIndex) - 1) + 1;
+            return charIndex - lineOffsets[lineIndex(charIndex)] + 1;
+        }
+
+        /**
+         * 批量获取行号(从1开始)，一次归并完成
+         * @param charIndexes 升序的字符索引
+         * @return 与charIndexes一一对应的行号
+         */
+        public int[] getLines(int[] charIndexes) {
+            int[] lines = new int[charIndexes.length];
+            int line = 0;
+            for(int i = 0; i < charIndexes.length; i++) {
+                int charIndex = charIndexes[i];
+                if(i > 0 && charIndex < charIndexes[i - 1]) {
+                    throw new IllegalArgumentException("字符索引未按升序排列: " + charIndexes[i - 1] + ", " + charIndex);
+                }
+                while(line + 1 < lineOffsets.length && lineOffsets[line + 1] <= charIndex) line++;
+                lines[i] = line + 1;
+            }
+            return lines;
+        }
+
+        /**
+         * 行的起始字符索引
+         * @param line 行号(从1开始)
+         */
+        public int getLineStart(int line) {
+            return lineOffsets[line - 1];
+        }
+
+        /**
+         * 总行数
+         */
+        public int lineCount() {
+            return lineOffsets.length;
         }
 
         /* 截取为字符串 */
         public String subString(int start, int end) {
-            return source.substring(start, end);
+            return text.subString(start, end);
         }
 
         /* 获取一行字符串，不带\n */
@@ -168,18 +270,64 @@ public class SourceMapManager {
             line = line - 1;
 
             // 最后一行
-            if (line == lineOffsetList.size() - 1) {
-                return subString(lineOffsetList.get(line), source.length());
+            if (line == lineOffsets.length - 1) {
+                return subString(lineOffsets[line], text.length());
+            }
+            int end = lineOffsets[line + 1] - 1;
+            if (end > lineOffsets[line] && text.charAt(end) == '\n' && text.charAt(end - 1) == '\r') {
+                end--; // \r\n
             }
-            return subString(lineOffsetList.get(line), lineOffsetList.get(line + 1) - 1);
+            return subString(lineOffsets[line], end);
         }
 
         public int length() {
-            return source.length();
+            return text.length();
         }
 
         public char charAt(int index) {
-            return source.charAt(index);
+            return text.charAt(index);
+        }
+
+        /* 从from开始查找字符，未找到返回-1 */
+        public int indexOf(char c, int from) {
+            return text.indexOf(c, from);
+        }
+
+        /* 从from开始查找字符串，未找到返回-1 */
+        public int indexOf(String str, int from) {
+            return text.indexOf(str, from);
+        }
+
+        /* 从from开始查找`\n`或`\r`，未找到返回-1 */
+        public int indexOfNewline(int from) {
+            return text.indexOfNewline(from);
+        }
+
+        /**
+         * 在[from, to)中查找字符，未找到返回-1
+         * <p>
+         * 整块查找到to之后也不截断，而是记住找到的位置：之后从更靠后的位置查找同一字符时，
+         * 只要还没有越过该位置就直接沿用，源码中很少出现的字符(如`”`)整个文件只扫描一遍
+         */
+        public int indexOf(char c, int from, int to) {
+            Found found = lastFound;
+            int index;
+            if(found != null && found.c == c && found.from <= from && (found.index < 0 || from <= found.index)) {
+                index = found.index;
+            } else {
+                index = text.indexOf(c, from);
+                lastFound = new Found(c, from, index);
+            }
+            return index >= 0 && index < to ? index : -1;
+        }
+
+        /* 以源码的UTF-8字节更新摘要 */
+        public void digest(MessageDigest digest) {
+            text.digest(digest);
+        }
+
+        /* 从from开始查找c的结果index，-1表示from之后没有 */
+        private record Found(char c, int from, int index) {
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package mlogix.compiler.struct;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * SourceMap的字符存储
+ * <p>
+ * 偏移量均为UTF-16字符偏移量，换行可能为`\n` `\r\n`或`\r`
+ */
+interface SourceText {
+    int length();
+
+    char charAt(int index);
+
+    /* 从from开始查找字符，未找到返回-1 */
+    int indexOf(char c, int from);
+
+    /* 从from开始查找字符串，未找到返回-1 */
+    default int indexOf(String str, int from) {
+        int last = length() - str.length();
+        char first = str.charAt(0);
+        for(int i = indexOf(first, from); i >= 0 && i <= last; i = indexOf(first, i + 1)) {
+            int j = 1;
+            while(j < str.length() && charAt(i + j) == str.charAt(j)) j++;
+            if(j == str.length()) return i;
+        }
+        return -1;
+    }
+
+    /* 从from开始查找`\n`或`\r`，未找到返回-1 */
+    int indexOfNewline(int from);
+
+    String subString(int start, int end);
+
+    /* 以UTF-8字节更新摘要 */
+    default void digest(MessageDigest digest) {
+        digest.update(subString(0, length()).getBytes(StandardCharsets.UTF_8));
+    }
+}
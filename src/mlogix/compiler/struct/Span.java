@@ -12,7 +12,7 @@ public record Span(int index, int start, int end) {
 	//     start     end
 
 	public static Span between(Token from, Token to) {
-		return between(from.span, to.span);
+		return PackedSpan.toSpan(PackedSpan.between(from.span, to.span));
 	}
 
 	public static Span between(Span from, Span to) {
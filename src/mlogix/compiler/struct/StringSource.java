@@ -0,0 +1,56 @@
+package mlogix.compiler.struct;
+
+/**
+ * 以String存储的源码
+ */
+final class StringSource implements SourceText {
+    private final String source;
+    private final boolean hasCarriageReturn; /* 无`\r`时换行查找只需查找`\n` */
+
+    StringSource(String source) {
+        this.source = source;
+        this.hasCarriageReturn = source.indexOf('\r') >= 0;
+    }
+
+    /**
+     * 换行统一为`\n`
+     */
+    static StringSource normalized(String source) {
+        return new StringSource(source.replace("\r\n", "\n").replace('\r', '\n'));
+    }
+
+    @Override
+    public int length() {
+        return source.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return source.charAt(index);
+    }
+
+    @Override
+    public int indexOf(char c, int from) {
+        return source.indexOf(c, from);
+    }
+
+    @Override
+    public int indexOf(String str, int from) {
+        return source.indexOf(str, from);
+    }
+
+    @Override
+    public int indexOfNewline(int from) {
+        if(!hasCarriageReturn) return source.indexOf('\n', from);
+        for(int i = Math.max(from, 0); i < source.length(); i++) {
+            char c = source.charAt(i);
+            if(c == '\n' || c == '\r') return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String subString(int start, int end) {
+        return source.substring(start, end);
+    }
+}
@@ -0,0 +1,22 @@
+package mlogix.compiler.struct;
+
+/**
+ * 对源码的一次编辑，将[offset, offset + removedLength)替换为insertedText
+ * @param offset 编辑前的字符偏移量
+ */
+public record TextEdit(int offset, int removedLength, String insertedText) {
+    /* 编辑前被替换部分的末尾 */
+    public int removedEnd() {
+        return offset + removedLength;
+    }
+
+    /* 编辑后插入部分的末尾 */
+    public int insertedEnd() {
+        return offset + insertedText.length();
+    }
+
+    /* 编辑后偏移量的变化量 */
+    public int delta() {
+        return insertedText.length() - removedLength;
+    }
+}
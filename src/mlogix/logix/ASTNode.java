@@ -3,7 +3,22 @@ package mlogix.logix;
 import mlogix.compiler.struct.*;
 
 public abstract sealed class ASTNode permits Expr, Stmt {
-    public Span span;
+    public long span; /* 见PackedSpan */
+
+    public int start() {
+        return PackedSpan.start(span);
+    }
+
+    public int end() {
+        return PackedSpan.end(span);
+    }
+
+    /**
+     * 实例化为Span
+     */
+    public Span toSpan() {
+        return PackedSpan.toSpan(span);
+    }
     // public abstract void accept(SemanticAnalyzer.SemanticVisitor visitor);
 }
 
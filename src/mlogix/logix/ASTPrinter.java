@@ -57,32 +57,40 @@ public class ASTPrinter {
 
     private static void printASTNode(ASTNode node, String indent, boolean isLast, String color) {
         // 打印节点类型名称
-        int start = node.span.start();
-        int end = node.span.end();
-        int line = sourceMap.getLine(start);
+        int start = node.start();
+        int end = node.end();
+        int[] lineAndCol = sourceMap.getLineAndCol(start);
+        int line = lineAndCol[0];
+        int col = lineAndCol[1];
         String lineString = sourceMap.getLineString(line);
+        int endLine = sourceMap.getLine(end - 1);
         char startChar = sourceMap.charAt(start);
         printLine(indent, isLast, color + node.getClass().getSimpleName()
                 + VALUE_COLOR + "[" + start + "," + end + ")" + DEFAULT
                 + " " + line
-                + B_CYAN + lineString.substring(0, Math.max(0, sourceMap.getCol(start) - 1))
+                + B_CYAN + lineString.substring(0, Math.max(0, col - 1))
                 + B_MAGENTA + (startChar == '\n' ? "" : startChar)
-                + B_CYAN + lineString.substring(Math.min(sourceMap.getCol(start), lineString.length()))
+                + B_CYAN + lineString.substring(Math.min(col, lineString.length()))
                 + DEFAULT
                 + (start == end ? "" : " "
-                    + sourceMap.getLine(end - 1)
-                    + B_YELLOW + sourceMap.getLineString(sourceMap.getLine(end - 1))
+                    + endLine
+                    + B_YELLOW + sourceMap.getLineString(endLine)
                     + DEFAULT
                 )
         );
 
         indentEnabled = true;
 
-        // 获取所有字段
-        Field[] fields = node.getClass().getDeclaredFields();
+        // 获取所有字段，transient字段不是语法树的一部分
+        Field[] fields = Arrays.stream(node.getClass().getDeclaredFields())
+                .filter(field -> !Modifier.isTransient(field.getModifiers()))
+                .toArray(Field[]::new);
         if(fields.length == 0) {
             return;
         }
+        if(node instanceof Stmt.FnStmt fnStmt) {
+            fnStmt.body(); // 延迟解析的函数体
+        }
 
         // 计算新的缩进
         String newIndent = indent + (isLast ? INDENT_BLANK : VERTICAL_LINE + FIELD_COLOR);
@@ -7,7 +7,7 @@ import java.util.*;
 
 //Expression
 public abstract non-sealed class Expr extends ASTNode {
-    protected Expr(Span span) {
+    protected Expr(long span) {
         this.span = span;
     }
 
@@ -49,7 +49,7 @@ public abstract non-sealed class Expr extends ASTNode {
         public final Expr expr;
 
         public Unary(Token operator, Expr expr) {
-            super(Span.between(operator.span, expr.span));
+            super(PackedSpan.between(operator.span, expr.span));
             this.operator = operator;
             this.expr = expr;
         }
@@ -67,7 +67,7 @@ public abstract non-sealed class Expr extends ASTNode {
         public final Expr right;
 
         public Binary(Expr left, Token operator, Expr right) {
-            super(Span.between(left.span, right.span));
+            super(PackedSpan.between(left.span, right.span));
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -83,7 +83,7 @@ public abstract non-sealed class Expr extends ASTNode {
     public static class Array extends Expr {
         public final List<Expr> elements;
 
-        public Array(Span span, List<Expr> elements) {
+        public Array(long span, List<Expr> elements) {
             super(span);
             this.elements = elements;
         }
@@ -99,7 +99,7 @@ public abstract non-sealed class Expr extends ASTNode {
         public final Expr list;
         public final Expr index;
 
-        public Index(Span span, Expr list, Expr index) {
+        public Index(long span, Expr list, Expr index) {
             super(span);
             this.list = list;
             this.index = index;
@@ -116,7 +116,7 @@ public abstract non-sealed class Expr extends ASTNode {
         public final Token operator;
         public final Expr right;
 
-        public Range(Span span, Expr left, Token operator, Expr right) {
+        public Range(long span, Expr left, Token operator, Expr right) {
             super(span);
             this.left = left;
             this.operator = operator;
@@ -134,7 +134,7 @@ public abstract non-sealed class Expr extends ASTNode {
         public final Expr callee;
         public final List<Expr> arguments;
 
-        public Call(Span span, Expr callee, List<Expr> arguments) {
+        public Call(long span, Expr callee, List<Expr> arguments) {
             super(span);
             this.callee = callee;
             this.arguments = arguments;
@@ -152,7 +152,7 @@ public abstract non-sealed class Expr extends ASTNode {
         public final Expr field;
 
         public Get(Expr object, Expr field) {
-            super(Span.between(object.span, field.span));
+            super(PackedSpan.between(object.span, field.span));
             this.object = object;
             this.field = field;
         }
@@ -5,10 +5,11 @@ import mlogix.compiler.*;
 import mlogix.compiler.struct.*;
 
 import java.util.*;
+import java.util.function.*;
 
 //Statement
 public abstract non-sealed class Stmt extends ASTNode {
-    protected Stmt(Span span) {
+    protected Stmt(long span) {
         this.span = span;
     }
 
@@ -18,7 +19,7 @@ public abstract non-sealed class Stmt extends ASTNode {
     public static class Program extends Stmt {
         public final List<Stmt> stmts;
 
-        public Program(Span span, List<Stmt> stmts) {
+        public Program(long span, List<Stmt> stmts) {
             super(span);
             this.stmts = stmts;
         }
@@ -32,7 +33,7 @@ public abstract non-sealed class Stmt extends ASTNode {
     public static class Block extends Stmt {
         public final List<Stmt> stmts;
 
-        public Block(Span span, List<Stmt> stmts) {
+        public Block(long span, List<Stmt> stmts) {
             super(span);
             this.stmts = stmts;
         }
@@ -46,7 +47,7 @@ public abstract non-sealed class Stmt extends ASTNode {
     public static class ExprStmt extends Stmt {
         public final Expr expr;
 
-        public ExprStmt(Span span, Expr expr) {
+        public ExprStmt(long span, Expr expr) {
             super(span);
             this.expr = expr;
         }
@@ -62,7 +63,7 @@ public abstract non-sealed class Stmt extends ASTNode {
         public final Stmt thenBranch;
         public final Stmt elseBranch;
 
-        public IfStmt(Span span, Expr condition, Stmt thenBranch, Stmt elseBranch) {
+        public IfStmt(long span, Expr condition, Stmt thenBranch, Stmt elseBranch) {
             super(span);
             this.condition = condition;
             this.thenBranch = thenBranch;
@@ -80,7 +81,7 @@ public abstract non-sealed class Stmt extends ASTNode {
         public final Expr expr;
         public final Stmt body;
 
-        public ForStmt(Span span, Identifier varDecl, Expr expr, Stmt body) {
+        public ForStmt(long span, Identifier varDecl, Expr expr, Stmt body) {
             super(span);
             this.varDecl = varDecl;
             this.expr = expr;
@@ -97,7 +98,7 @@ public abstract non-sealed class Stmt extends ASTNode {
         public final Expr expr;
         public final Stmt body;
 
-        public WhileStmt(Span span, Expr expr, Stmt body) {
+        public WhileStmt(long span, Expr expr, Stmt body) {
             super(span);
             this.expr = expr;
             this.body = body;
@@ -110,7 +111,7 @@ public abstract non-sealed class Stmt extends ASTNode {
     }
 
     public static class BreakStmt extends Stmt {
-        public BreakStmt(Span span) {
+        public BreakStmt(long span) {
             super(span);
         }
 
@@ -121,7 +122,7 @@ public abstract non-sealed class Stmt extends ASTNode {
     }
 
     public static class ContinueStmt extends Stmt {
-        public ContinueStmt(Span span) {
+        public ContinueStmt(long span) {
             super(span);
         }
 
@@ -135,14 +136,45 @@ public abstract non-sealed class Stmt extends ASTNode {
         public final Token name;
         public final List<Expr> parameters;
         public final List<Expr> results;
-        public final Stmt body;
+        private Stmt body;
+        public transient long bodySpan; /* 函数体从{到}，见PackedSpan */
+        private transient LongFunction<Stmt> bodyParser; /* 以bodySpan解析延迟的函数体，解析后为null */
 
-        public FnStmt(Span span, Token name, List<Expr> parameters, List<Expr> results, Stmt body) {
+        public FnStmt(long span, Token name, List<Expr> parameters, List<Expr> results, Stmt body) {
             super(span);
             this.name = name;
             this.parameters = parameters;
             this.results = results;
             this.body = body;
+            this.bodySpan = body.span;
+        }
+
+        /**
+         * 函数体延迟到第一次访问{@link #body()}时解析
+         */
+        public FnStmt(long span, Token name, List<Expr> parameters, List<Expr> results,
+                      long bodySpan, LongFunction<Stmt> bodyParser) {
+            super(span);
+            this.name = name;
+            this.parameters = parameters;
+            this.results = results;
+            this.bodySpan = bodySpan;
+            this.bodyParser = bodyParser;
+        }
+
+        /**
+         * 延迟解析的函数体在第一次访问时解析，此后沿用
+         */
+        public Stmt body() {
+            if(bodyParser != null) {
+                body = bodyParser.apply(bodySpan);
+                bodyParser = null;
+            }
+            return body;
+        }
+
+        public boolean isBodyParsed() {
+            return bodyParser == null;
         }
 
         @Override
@@ -154,7 +186,7 @@ public abstract non-sealed class Stmt extends ASTNode {
     public static class ReturnStmt extends Stmt {
         public final Expr expr;
 
-        public ReturnStmt(Span span, Expr expr) {
+        public ReturnStmt(long span, Expr expr) {
             super(span);
             this.expr = expr;
         }
@@ -170,7 +202,7 @@ public abstract non-sealed class Stmt extends ASTNode {
         public final Token operator;
         public final Expr value;
 
-        public AssignStmt(Span span, Expr var, Token operator, Expr value) {
+        public AssignStmt(long span, Expr var, Token operator, Expr value) {
             super(span);
             this.var = var;
             this.operator = operator;
@@ -187,7 +219,7 @@ public abstract non-sealed class Stmt extends ASTNode {
         public final Expr var;
         public final Stmt assignStmt;
 
-        public SetVarStmt(Span span, Expr var, Stmt assignStmt) {
+        public SetVarStmt(long span, Expr var, Stmt assignStmt) {
             super(span);
             this.var = var;
             this.assignStmt = assignStmt;
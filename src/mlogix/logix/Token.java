@@ -1,26 +1,41 @@
 package mlogix.logix;
 
-import mlogix.compiler.struct.Span;
+import mlogix.compiler.struct.*;
 
 public class Token {
 	public final TokenType type;
-	public final Span span;
+	public long span; /* 见PackedSpan，增量解析沿用节点时平移 */
 	public final Object literal;
 
-	public Token(TokenType type, Span span) {
+	public Token(TokenType type, long span) {
 		this.type = type;
 		this.span = span;
 		this.literal = null;
 	}
 	
-	public Token(TokenType type, Span span, Object literal) {
+	public Token(TokenType type, long span, Object literal) {
 		this.type = type;
 		this.span = span;
 		this.literal = literal;
 	}
 	
+	public int start() {
+		return PackedSpan.start(span);
+	}
+
+	public int end() {
+		return PackedSpan.end(span);
+	}
+
+	/**
+	 * 实例化为Span
+	 */
+	public Span toSpan() {
+		return PackedSpan.toSpan(span);
+	}
+
 	public String toString() {
-		return String.format("Token{%s,%s,%s}", type.name(), span.toString(), literal);
+		return String.format("Token{%s,%s,%s}", type.name(), PackedSpan.toString(span), literal);
 	}
 
 	public String toSimpleString() {
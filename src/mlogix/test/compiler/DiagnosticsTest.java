@@ -0,0 +1,147 @@
+package mlogix.test.compiler;
+
+import java.util.*;
+
+import mlogix.compiler.issue.*;
+import mlogix.compiler.issue.Diagnostics.*;
+import mlogix.compiler.struct.*;
+import mlogix.compiler.struct.SourceMapManager.*;
+import mlogix.util.*;
+
+public class DiagnosticsTest {
+    final SourceMap sourceMap = new SourceMapManager().loadSourceMap("""
+            a = (1 +
+            b = 2
+            c = ) 3
+            """);
+    int testNum = 0;
+    int errorNum = 0;
+
+    public void test() {
+        Log.info(Ansi.CYAN + "DiagnosticsTest: 开始" + Ansi.DEFAULT);
+
+        testOverlap();
+        testFileLimit();
+        testTotalLimit();
+        testSummary();
+
+        if (errorNum != 0) {
+            Log.info(Ansi.CYAN + "DiagnosticsTest: " + errorNum + "个错误" + Ansi.DEFAULT);
+        } else {
+            Log.info(Ansi.CYAN + "DiagnosticsTest: " + "成功" + Ansi.DEFAULT);
+        }
+    }
+
+    // 主标注与同一文件中此前保留的错误重叠时省略
+    private void testOverlap() {
+        Diagnostics diagnostics = new Diagnostics(100, 500);
+        FileIssues issues = diagnostics.accept(List.of(
+                error(0, 5),
+                error(3, 8),  // 与[0, 5)相交
+                error(5, 8),  // 与[0, 5)相邻，不重叠
+                error(2, 2),  // 长度为0，在[0, 5)中
+                error(5, 5),  // 长度为0，与[5, 8)起点相同
+                error(9, 12).info(0, 5, "此前"), // 主标注是point而不是第一个标注
+                new Issue.ParserIssue(sourceMap, "error", Issue.IssueLevel.ERROR).info(10, 11, "info"), // 没有point时为第一个标注
+                new Issue.ParserIssue(sourceMap, "error", Issue.IssueLevel.ERROR), // 没有标注，不与任何标注重叠
+                new Issue.ParserIssue(sourceMap, "error", Issue.IssueLevel.ERROR)
+        ), List.of());
+        check("重叠的错误", issues.errorList().size(), 5);
+        check("重叠省略数", diagnostics.suppressedCount(), 4);
+
+        // 不同文件之间不比较
+        issues = diagnostics.accept(List.of(error(0, 5), error(3, 8)), List.of());
+        check("另一个文件中重叠的错误", issues.errorList().size(), 1);
+        check("另一个文件后的重叠省略数", diagnostics.suppressedCount(), 5);
+        check("保留的错误数", diagnostics.errorCount(), 6);
+        check("超出上限省略数", diagnostics.droppedCount(), 0);
+    }
+
+    // 每个文件保留的错误与警告各自不超过上限
+    private void testFileLimit() {
+        Diagnostics diagnostics = new Diagnostics(3, 500);
+        FileIssues issues = diagnostics.accept(errors(5), warnings(4));
+        check("单个文件保留的错误", issues.errorList().size(), 3);
+        check("单个文件保留的警告", issues.warningList().size(), 3);
+        check("单个文件超出上限省略数", diagnostics.droppedCount(), 3);
+
+        // 上限按文件计算
+        issues = diagnostics.accept(errors(2), warnings(1));
+        check("下一个文件保留的错误", issues.errorList().size(), 2);
+        check("下一个文件保留的警告", issues.warningList().size(), 1);
+        check("保留的错误数", diagnostics.errorCount(), 5);
+        check("保留的警告数", diagnostics.warningCount(), 4);
+        check("超出上限省略数", diagnostics.droppedCount(), 3);
+        check("未达到全局上限", diagnostics.isExhausted(), false);
+    }
+
+    // 全部文件保留的问题不超过全局上限，达到后之后的文件不再分析
+    private void testTotalLimit() {
+        Diagnostics diagnostics = new Diagnostics(3, 4);
+        diagnostics.accept(errors(3), warnings(3));
+        check("达到全局上限前", diagnostics.isExhausted(), false);
+        FileIssues issues = diagnostics.accept(errors(3), warnings(3));
+        check("达到全局上限的文件保留的错误", issues.errorList().size(), 1);
+        check("达到全局上限的文件保留的警告", issues.warningList().size(), 1);
+        check("达到全局上限", diagnostics.isExhausted(), true);
+        check("保留的错误数", diagnostics.errorCount(), 4);
+        check("保留的警告数", diagnostics.warningCount(), 4);
+        check("超出上限省略数", diagnostics.droppedCount(), 4);
+
+        // 达到上限后只计数
+        issues = diagnostics.accept(errors(1), warnings(0));
+        check("达到全局上限后保留的错误", issues.errorList().size(), 0);
+        check("达到全局上限后的超出上限省略数", diagnostics.droppedCount(), 5);
+    }
+
+    // 汇总各类省略的问题与提前停止的文件
+    private void testSummary() {
+        check("没有省略时的汇总", new Diagnostics(3, 4).summary(), List.of());
+
+        Diagnostics diagnostics = new Diagnostics(3, 4);
+        diagnostics.accept(List.of(error(0, 5), error(3, 8)), List.of());
+        diagnostics.accept(errors(4), warnings(1)); // 达到单个文件的上限，Lexer Parser提前停止
+        diagnostics.skip(2);
+        check("汇总", diagnostics.summary(), List.of(
+                "1个错误与之前的错误重叠，已省略",
+                "1个问题超出数量上限，已省略",
+                "1个文件的错误达到3个，已提前停止分析",
+                "错误达到4个，剩余2个文件未分析"
+        ));
+    }
+
+    private Issue error(int start, int end) {
+        return new Issue.ParserIssue(sourceMap, "error", Issue.IssueLevel.ERROR).point(start, end, "point");
+    }
+
+    /* count个互不重叠的错误 */
+    private List<Issue> errors(int count) {
+        List<Issue> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(error(i, i + 1));
+        }
+        return list;
+    }
+
+    private List<Issue> warnings(int count) {
+        List<Issue> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(new Issue.ParserIssue(sourceMap, "warning", Issue.IssueLevel.WARNING).point(i, i, "point"));
+        }
+        return list;
+    }
+
+    private void check(String name, Object actual, Object expected) {
+        testNum++;
+        if (!actual.equals(expected)) {
+            errorNum++;
+            Log.error(String.format("%s%s: 期望%s，实际%s%s\n",
+                    Ansi.RED,
+                    name,
+                    expected,
+                    actual,
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+}
@@ -4,7 +4,9 @@ import java.util.*;
 
 import mlogix.logix.*;
 import mlogix.compiler.Lexer;
+import mlogix.compiler.TokenBuffer;
 import mlogix.compiler.struct.SourceMapManager;
+import mlogix.compiler.struct.TextEdit;
 import mlogix.logix.Token;
 import mlogix.util.*;
 
@@ -58,6 +60,9 @@ public class LexerTest {
 
         test("\"hello\"", token(STRING, "hello"));
         test("\"hello\\nworld!\"", token(STRING, "hello\\nworld!"));
+        test("\"hello”", token(STRING, "hello")); // 中文右引号结束字符串，只警告
+        test("\"a” + \"b\" + \"c”", token(STRING, "a"), token(PLUS), token(STRING, "b"), token(PLUS), token(STRING, "c"));
+        test("\"a\" + \"b”", token(STRING, "a"), token(PLUS), token(STRING, "b"));
 
         // 错误测试 - 字符串
         test("\"hello"); // 未闭合的字符串
@@ -116,6 +121,13 @@ public class LexerTest {
         test("camelCase", token(IDENTIFIER, "camelCase"));
         test("PascalCase", token(IDENTIFIER, "PascalCase"));
         test("snake_case", token(IDENTIFIER, "snake_case"));
+        test("变量", token(IDENTIFIER, "变量"));
+        test("iff fnx nulls el", // 与关键字相近的标识符
+            token(IDENTIFIER, "iff"),
+            token(IDENTIFIER, "fnx"),
+            token(IDENTIFIER, "nulls"),
+            token(IDENTIFIER, "el"));
+        test("__bad", token(IDENTIFIER, "_bad"));
         
         // 测试布尔值和null
         test("true", token(TRUE));
@@ -199,6 +211,17 @@ public class LexerTest {
             token(MINUS_MINUS),
             token(SEMICOLON));
 
+        // 测试增量扫描
+        testRelex("a = 1\nb = 2\nc = 3", 6, 1, "bb");
+        testRelex("a = 1\nb = 2\nc = 3", 5, 0, "\n\n");
+        testRelex("a = \"x\"\nb = 2\nc = 3", 4, 0, "\"");
+        testRelex("a = 1 #* 注释 *#\nb = 2", 7, 0, "#");
+        testRelex("a = 1\n#| 文档\n | 第二行\nb = 2", 15, 1, "");
+        testRelex("x = 0x1f + y", 6, 0, "z");
+        testRelex("abc", 0, 3, "");
+        testRelexChain("a = 1\nb = \"x\" + 2.5\nc = [3, 4]\n", 300, 1);
+        testRelexChain("fn f(x) { return x * 0x1f }\ny = f(\"s\")\n", 300, 2);
+
         if (errorNum != 0) {
             Log.info(Ansi.CYAN + "LexerTest: " + errorNum + "个错误" + Ansi.DEFAULT);
         } else {
@@ -209,7 +232,8 @@ public class LexerTest {
     private void test(String source, RToken... rTokens) {
         testNum++;
         List<Token> result = new ArrayList<>();
-        lexer.reset(manager.loadSourceMap(source));
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        lexer.reset(sourceMap);
         while(true) {
             Token token = lexer.scanToken();
             if(token.type != EOF) {
@@ -218,7 +242,33 @@ public class LexerTest {
                 break;
             }
         }
+
+        // TokenBuffer模式应与逐个扫描结果一致
+        List<Token> buffered = lexer.reset(sourceMap).tokenize().toTokenList();
         lexer.clearIssue();
+        if(buffered.size() != result.size() + 1) {
+            errorNum++;
+            Log.error(String.format("%s%s\nTokenBuffer的token数量不匹配(%d!=%d)%s\n",
+                    Ansi.RED,
+                    source,
+                    buffered.size() - 1,
+                    result.size(),
+                    Ansi.DEFAULT
+            ));
+            return;
+        }
+        for (int i = 0; i < result.size(); i++) {
+            if (!result.get(i).toString().equals(buffered.get(i).toString())) {
+                errorNum++;
+                Log.error(String.format("%s%s\nTokenBuffer中%s与%s不匹配%s\n",
+                        Ansi.RED,
+                        source,
+                        buffered.get(i).toString(),
+                        result.get(i).toString(),
+                        Ansi.DEFAULT
+                ));
+            }
+        }
 
         if (result.size() != rTokens.length) {
             errorNum++;
@@ -246,6 +296,75 @@ public class LexerTest {
         }
     }
 
+    // 增量扫描的结果应与完整扫描一致
+    private void testRelex(String source, int offset, int removedLength, String insertedText) {
+        testNum++;
+        TextEdit edit = new TextEdit(offset, removedLength, insertedText);
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        TokenBuffer previous = lexer.reset(sourceMap).tokenize();
+        SourceMapManager.SourceMap edited = manager.edit(sourceMap, edit);
+        List<Token> result = lexer.relex(previous, edited, edit).toTokenList();
+        List<Token> expected = lexer.reset(edited).tokenize().toTokenList();
+        lexer.clearIssue();
+        if (!result.toString().equals(expected.toString())) {
+            errorNum++;
+            Log.error(String.format("%s%s\n增量扫描结果%s与%s不匹配%s\n",
+                    Ansi.RED,
+                    source,
+                    result,
+                    expected,
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 连续的随机编辑中每一步增量扫描的结果都应与完整扫描一致，且字面量侧表不随编辑次数增长
+    private void testRelexChain(String source, int edits, long seed) {
+        String[] fragments = {"1", "23", "4.5", "0x1f", "\"s\"", "x", " ", "\n", "+", "#", "("};
+        Random random = new Random(seed);
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        TokenBuffer tokens = lexer.reset(sourceMap).tokenize();
+        int maxLiterals = tokens.literalTableSize();
+        for (int i = 0; i < edits; i++) {
+            testNum++;
+            int length = sourceMap.length();
+            int offset = random.nextInt(length + 1);
+            int removedLength = random.nextInt(Math.min(4, length - offset) + 1);
+            String insertedText = random.nextInt(4) == 0 ? "" : fragments[random.nextInt(fragments.length)];
+            TextEdit edit = new TextEdit(offset, removedLength, insertedText);
+            SourceMapManager.SourceMap edited = manager.edit(sourceMap, edit);
+            tokens = lexer.relex(tokens, edited, edit);
+            TokenBuffer expected = new Lexer(new ArrayList<>(), new ArrayList<>()).reset(edited).tokenize();
+            lexer.clearIssue();
+            sourceMap = edited;
+            maxLiterals = Math.max(maxLiterals, expected.literalTableSize());
+            if (!tokens.toTokenList().toString().equals(expected.toTokenList().toString())) {
+                errorNum++;
+                Log.error(String.format("%s%s\n第%d次编辑%s后增量扫描结果与完整扫描不匹配%s\n",
+                        Ansi.RED,
+                        source,
+                        i + 1,
+                        edit,
+                        Ansi.DEFAULT
+                ));
+                return;
+            }
+            // 数字与其他字面量的侧表分别复用，各自不超过此前完整扫描的最大值
+            if (tokens.literalTableSize() > maxLiterals * 2) {
+                errorNum++;
+                Log.error(String.format("%s%s\n第%d次编辑后字面量侧表为%d，超过此前完整扫描最大值%d的两倍%s\n",
+                        Ansi.RED,
+                        source,
+                        i + 1,
+                        tokens.literalTableSize(),
+                        maxLiterals,
+                        Ansi.DEFAULT
+                ));
+                return;
+            }
+        }
+    }
+
     private RToken token(TokenType type, Object literal) {
         return new RToken(type, literal);
     }
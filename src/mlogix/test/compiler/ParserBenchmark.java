@@ -0,0 +1,138 @@
+package mlogix.test.compiler;
+
+import java.lang.management.*;
+import java.util.*;
+
+import com.sun.management.ThreadMXBean;
+import mlogix.compiler.Lexer;
+import mlogix.compiler.Parser;
+import mlogix.compiler.TokenBuffer;
+import mlogix.compiler.issue.*;
+import mlogix.compiler.struct.SourceMapManager;
+import mlogix.compiler.struct.SourceMapManager.*;
+import mlogix.util.*;
+
+/**
+ * 比较无错误输入与错误密集输入的语法分析吞吐量
+ * <p>
+ * 只计语法分析的时间，词法分析预先完成；错误密集输入的每一行都有语法错误。
+ * 同时统计解析线程分配的字节数，除语法树与Token本身外解析路径上不应有分配
+ */
+public class ParserBenchmark {
+    private static final int FILES = 200; /* 每种输入的文件数 */
+    private static final int LINES = 300; /* 每个文件的行数 */
+    private static final int WARMUP = 10;
+    private static final int ROUNDS = 20;
+
+    private static final String[] CLEAN_LINES = {
+            "a%d = b + c * %d",
+            "if a < b { c = d - 1 }",
+            "while i < n { i = i + 1 }",
+            "fn f%d(x) -> y { return x * %d }",
+            "v = g(a) + h.k[%d]",
+            "for x in a..n%d { s = s + x }",
+    };
+
+    private static final String[] ERROR_LINES = {
+            "a%d = b + * %d",
+            "if a < { c = d - 1 }",
+            "while i < n { i = i + }",
+            "fn (x) -> y { return x * %d }",
+            "v = g(a + ) + h.k[%d",
+            "w = (a + %d",
+            "x = a b %d",
+    };
+
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    final SourceMapManager manager = new SourceMapManager();
+
+    public void test() {
+        Log.info(Ansi.CYAN + "ParserBenchmark: 开始" + Ansi.DEFAULT);
+
+        Input clean = input(CLEAN_LINES);
+        Input dense = input(ERROR_LINES);
+
+        for(int i = 0; i < WARMUP; i++) {
+            parse(clean);
+            parse(dense);
+        }
+        long cleanTime = 0, denseTime = 0;
+        for(int i = 0; i < ROUNDS; i++) {
+            cleanTime += parse(clean);
+            denseTime += parse(dense);
+        }
+
+        double cleanRate = report("无错误输入", clean, cleanTime);
+        double denseRate = report("错误密集输入", dense, denseTime);
+        Log.info("吞吐量比: %.2f", cleanRate / denseRate);
+        Log.info(Ansi.CYAN + "ParserBenchmark: 结束" + Ansi.DEFAULT);
+    }
+
+    private Input input(String[] lines) {
+        List<SourceMap> sourceMaps = new ArrayList<>();
+        List<TokenBuffer> tokens = new ArrayList<>();
+        Lexer lexer = new Lexer(new ArrayList<>(), new ArrayList<>());
+        long chars = 0, tokenCount = 0;
+        int n = 0;
+        for(int file = 0; file < FILES; file++) {
+            StringBuilder source = new StringBuilder();
+            for(int line = 0; line < LINES; line++, n++) {
+                source.append(String.format(lines[n % lines.length], n, n)).append('\n');
+            }
+            SourceMap sourceMap = manager.loadSourceMap(source.toString());
+            sourceMaps.add(sourceMap);
+            TokenBuffer buffer = lexer.reset(sourceMap).tokenize();
+            tokens.add(buffer);
+            chars += sourceMap.length();
+            tokenCount += buffer.size();
+        }
+        return new Input(sourceMaps, tokens, chars, tokenCount);
+    }
+
+    /**
+     * @return 解析全部文件所用的纳秒数
+     */
+    private long parse(Input input) {
+        int issues = 0;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for(int i = 0; i < input.sourceMaps.size(); i++) {
+            List<Issue> errorList = new ArrayList<>();
+            List<Issue> warningList = new ArrayList<>();
+            new Parser(input.tokens.get(i), input.sourceMaps.get(i), errorList, warningList).parse();
+            issues += errorList.size() + warningList.size();
+        }
+        long time = System.nanoTime() - start;
+        input.allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        input.issues = issues;
+        return time;
+    }
+
+    /**
+     * @return 吞吐量，单位MB/s
+     */
+    private double report(String name, Input input, long time) {
+        double seconds = time / 1e9 / ROUNDS;
+        double rate = input.chars / 1e6 / seconds;
+        Log.info("%-8s: %6.2f ms  %7.2f MB/s  %d 个问题  分配 %.2f MB  %.1f B/Token",
+                name, seconds * 1e3, rate, input.issues, input.allocated / 1e6, (double) input.allocated / input.tokenCount);
+        return rate;
+    }
+
+    private static class Input {
+        final List<SourceMap> sourceMaps;
+        final List<TokenBuffer> tokens;
+        final long chars;
+        final long tokenCount;
+        int issues; /* 最近一次解析报告的问题数 */
+        long allocated; /* 最近一次解析分配的字节数 */
+
+        Input(List<SourceMap> sourceMaps, List<TokenBuffer> tokens, long chars, long tokenCount) {
+            this.sourceMaps = sourceMaps;
+            this.tokens = tokens;
+            this.chars = chars;
+            this.tokenCount = tokenCount;
+        }
+    }
+}
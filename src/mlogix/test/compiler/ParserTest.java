@@ -0,0 +1,500 @@
+package mlogix.test.compiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import mlogix.logix.*;
+import mlogix.compiler.ASTArena;
+import mlogix.compiler.IdentifierInterner;
+import mlogix.compiler.Lexer;
+import mlogix.compiler.ParseCache;
+import mlogix.compiler.Parser;
+import mlogix.compiler.TokenBuffer;
+import mlogix.compiler.issue.*;
+import mlogix.compiler.struct.*;
+import mlogix.util.*;
+
+import static mlogix.logix.Expr.*;
+import static mlogix.logix.Stmt.*;
+
+public class ParserTest {
+    static final String SAMPLE = """
+            fn f(a, b) -> c {
+                set x = -a * 0x1F + b
+                c = x.y[1]
+                return c
+            }
+            while x > 0 {
+                if x == 5 {
+                    break
+                } else {
+                    continue
+                }
+            }
+            for i in a {
+                s = "字符串" + 1.5e3 + b()
+            }
+            for 5 {
+                x = !a && (b || c)
+            }
+            """;
+
+    final SourceMapManager manager = new SourceMapManager();
+    int testNum = 0;
+    int errorNum = 0;
+
+    public void test() {
+        Log.info(Ansi.CYAN + "ParserTest: 开始" + Ansi.DEFAULT);
+
+        // 嵌套层数上限：只报告一次错误，跳过过深的部分后继续解析之后的语句
+        testNesting("{{{{{{x = 1}}}}}}", 3, 1, 1);
+        testNesting("y = ((((((1))))))", 3, 1, 1);
+        testNesting("{{{{{{x = 1}}}}}}\nb = 2\nc = 3", 3, 1, 3);
+        testNesting("a = ((((((1))))))\nb = (2)\nc = {3}", 3, 1, 3);
+        testNesting("{{{x = ((((((1))))))}}}\nb = 2", 4, 1, 2);
+        testNesting("{{{x = 1}}}\ny = (((1)))", 3, 0, 2);
+        testNesting("{".repeat(9000) + "x = 1" + "}".repeat(9000), Parser.DEFAULT_MAX_NESTING, 0, 1);
+        testNesting("y = " + "(".repeat(9000) + "1" + ")".repeat(9000), Parser.DEFAULT_MAX_NESTING, 0, 1);
+
+        // 语法树缓存的读写不受嵌套深度限制
+        testCache(SAMPLE);
+        testCache("{".repeat(9000) + "x = 1" + "}".repeat(9000));
+        testCache("y = " + "(".repeat(9000) + "1" + ")".repeat(9000));
+        testCache("y = " + "(-a + ".repeat(9000) + "1" + ")".repeat(9000));
+
+        // ASTArena的构建、遍历与实例化不受嵌套深度限制
+        testArena(SAMPLE);
+        testArena("{".repeat(9000) + "x = 1" + "}".repeat(9000));
+        testArena("y = " + "(".repeat(9000) + "1" + ")".repeat(9000));
+        testArena("y = " + "(-a + ".repeat(9000) + "1" + ")".repeat(9000));
+        testArena("fn f() {}\nfor i in 1..n {\n    x = g(-i).y\n}");
+
+        // 增量解析：随机编辑序列中每隔几次与完整解析比较，期间沿用的语句积累未平移的偏移量
+        testReparse(SAMPLE, 300, 5, 1);
+        testReparse(SAMPLE, 300, 1, 2);
+        testReparse(statements(50), 300, 7, 3);
+        // 只重新解析编辑处附近的几个语句，与源码长度无关
+        String source = statements(1000);
+        testReparseRange(source, new TextEdit(source.indexOf("a498 = ") + 5, 0, "7"), 3);
+        testReparseRange(source, new TextEdit(source.indexOf("a498 = "), 0, "b = 1\n"), 3);
+        testReparseRange(source, new TextEdit(source.indexOf("a498 = "), "a498 = b + c * 498\n".length(), ""), 3);
+
+        // 延迟解析的函数体全部解析后，语法树与问题都与直接解析相同
+        testDeferred(SAMPLE);
+        testDeferred(statements(60));
+        testDeferred("fn f(a) {\n    fn g() {\n        fn h() { return a }\n    }\n    if a { fn k() {} }\n}\nx = 1");
+        testDeferred("fn f(a) {\n    x = 1 2\n}\nz = 3");
+        testDeferred("fn f(a) {\n    if a {\n        x = 1\n}\nz = 3");
+        // 直接解析时出错的恢复会越过函数体的}，延迟解析时每个函数体的问题只在函数体内
+        testDeferredRecovery("fn f(a) {\n    x = (1 +\n    y = 2\n}\nz = 3", 2, 4);
+        testDeferredRecovery("fn f(a) {\n    x = 1 +\n}\nfn g() {\n    return )\n}\nz = 3", 3, 4);
+        // 增量解析后访问沿用的函数体，在接管数组的TokenBuffer中解析
+        testDeferredReparse(statements(60), 100, 4);
+        testDeferredReparse(statements(60), 100, 5);
+
+        if (errorNum != 0) {
+            Log.info(Ansi.CYAN + "ParserTest: " + errorNum + "个错误" + Ansi.DEFAULT);
+        } else {
+            Log.info(Ansi.CYAN + "ParserTest: " + "成功" + Ansi.DEFAULT);
+        }
+    }
+
+    // 嵌套超过maxNesting时报告errors个错误，之后的语句仍被解析为共stmts个顶层语句
+    private void testNesting(String source, int maxNesting, int errors, int stmts) {
+        testNum++;
+        List<Issue> errorList = new ArrayList<>();
+        Program program = parse(source, maxNesting, errorList);
+        boolean valid = errorList.size() == errors && program.stmts.size() == stmts;
+        for (Issue issue : errorList) {
+            valid &= issue.issueName().equals("嵌套层数超过上限");
+        }
+        if (!valid) {
+            errorNum++;
+            Log.error(String.format("%s%s\n嵌套上限%d: 期望%d个错误%d个语句，实际%s %d个语句%s\n",
+                    Ansi.RED,
+                    abbreviate(source),
+                    maxNesting,
+                    errors,
+                    stmts,
+                    errorList,
+                    program.stmts.size(),
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 写入缓存再读取的语法树应与原语法树相同，读取的标识符与解析得到的共享驻留的实例
+    private void testCache(String source) {
+        testNum++;
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        List<Issue> errorList = new ArrayList<>();
+        IdentifierInterner interner = new IdentifierInterner();
+        TokenBuffer tokens = new Lexer(errorList, new ArrayList<>(), interner).reset(sourceMap).tokenize();
+        ASTNode ast = new Parser(tokens, sourceMap, errorList, new ArrayList<>()).parse();
+
+        Path directory = null;
+        String result;
+        try {
+            directory = Files.createTempDirectory("mlogix-cache");
+            ParseCache cache = new ParseCache(directory);
+            byte[] key = cache.key(sourceMap);
+            cache.store(key, ast);
+            ASTNode loaded = cache.load(key, sourceMap, interner);
+            result = loaded == null ? "未能读取" : !isInterned(loaded, interner) ? "标识符未驻留" : dump(loaded);
+        } catch (IOException e) {
+            result = e.toString();
+        } finally {
+            delete(directory);
+        }
+        String expected = dump(ast);
+        if (!errorList.isEmpty() || !result.equals(expected)) {
+            errorNum++;
+            Log.error(String.format("%s%s\n缓存读取的语法树与原语法树不同%s%s\n",
+                    Ansi.RED,
+                    abbreviate(source),
+                    errorList.isEmpty() ? "" : ": " + errorList,
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 由ASTArena实例化的语法树应与原语法树相同，Cursor前序遍历的节点数与ASTArena的节点数相同
+    private void testArena(String source) {
+        testNum++;
+        List<Issue> errorList = new ArrayList<>();
+        Program program = parse(source, Integer.MAX_VALUE, errorList);
+        ASTArena arena = ASTArena.of(program);
+
+        int visited = 0;
+        int nodes = 0;
+        ASTArena.Cursor cursor = arena.cursor();
+        do {
+            visited++;
+            if (cursor.kind() != ASTArena.Kind.NONE && cursor.kind() != ASTArena.Kind.LIST) nodes++;
+        } while (cursor.next());
+
+        String expected = dump(program);
+        String result = dump(arena.toProgram());
+        if (!errorList.isEmpty() || !result.equals(expected) || visited != arena.size() || nodes != arena.nodeCount()) {
+            errorNum++;
+            Log.error(String.format("%s%s\nASTArena实例化的语法树%s，遍历%d个节点，共%d个节点%s%s\n",
+                    Ansi.RED,
+                    abbreviate(source),
+                    result.equals(expected) ? "相同" : "不同",
+                    visited,
+                    arena.size(),
+                    errorList.isEmpty() ? "" : ": " + errorList,
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 随机编辑后增量扫描并增量解析，每every次编辑与完整解析的语法树比较一次
+    private void testReparse(String source, int edits, int every, long seed) {
+        String[] fragments = {"x", "1", " ", "\n", "{", "}", "(", ")", "+", "=", "-", "\"", "fn ", "if ", "else ",
+                "while ", "return ", "y = 2\n", "fn g() {\n", "}\n"};
+        Random random = new Random(seed);
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        Lexer lexer = new Lexer(new ArrayList<>(), new ArrayList<>());
+        TokenBuffer tokens = lexer.reset(sourceMap).tokenize();
+        Program program = (Program) new Parser(tokens, sourceMap, new ArrayList<>(), new ArrayList<>()).parse();
+        for (int i = 0; i < edits; i++) {
+            int length = sourceMap.length();
+            int offset = random.nextInt(length + 1);
+            int removedLength = random.nextInt(Math.min(6, length - offset) + 1);
+            String insertedText = random.nextInt(4) == 0 ? "" : fragments[random.nextInt(fragments.length)];
+            TextEdit edit = new TextEdit(offset, removedLength, insertedText);
+            sourceMap = manager.edit(sourceMap, edit);
+            tokens = lexer.relex(tokens, sourceMap, edit);
+            lexer.clearIssue();
+            program = Parser.reparse(program, tokens, edit, new ArrayList<>(), new ArrayList<>()).program();
+            if ((i + 1) % every != 0 && i + 1 != edits) continue;
+
+            testNum++;
+            TokenBuffer fresh = new Lexer(new ArrayList<>(), new ArrayList<>()).reset(sourceMap).tokenize();
+            ASTNode expected = new Parser(fresh, sourceMap, new ArrayList<>(), new ArrayList<>()).parse();
+            if (!dump(program).equals(dump(expected))) {
+                errorNum++;
+                Log.error(String.format("%s%s\n第%d次编辑%s后增量解析结果与完整解析不匹配%s\n",
+                        Ansi.RED,
+                        abbreviate(source),
+                        i + 1,
+                        edit,
+                        Ansi.DEFAULT
+                ));
+                return;
+            }
+        }
+    }
+
+    // 编辑后重新解析的顶层语句不超过maxReparsed个
+    private void testReparseRange(String source, TextEdit edit, int maxReparsed) {
+        testNum++;
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        Lexer lexer = new Lexer(new ArrayList<>(), new ArrayList<>());
+        TokenBuffer tokens = lexer.reset(sourceMap).tokenize();
+        Program program = (Program) new Parser(tokens, sourceMap, new ArrayList<>(), new ArrayList<>()).parse();
+        SourceMapManager.SourceMap edited = manager.edit(sourceMap, edit);
+        Parser.ReparseResult result = Parser.reparse(program, lexer.relex(tokens, edited, edit), edit,
+                new ArrayList<>(), new ArrayList<>());
+        int reparsed = result.reparsedTo() - result.reparsedFrom();
+        if (reparsed > maxReparsed) {
+            errorNum++;
+            Log.error(String.format("%s编辑%s后重新解析了%d个语句，期望不超过%d个%s\n",
+                    Ansi.RED,
+                    edit,
+                    reparsed,
+                    maxReparsed,
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 启用deferBodies解析，访问前函数体未解析，全部访问后问题应与直接解析相同；
+    // 出错的函数体延迟解析时为空块，因此只在没有问题时比较语法树
+    private void testDeferred(String source) {
+        testNum++;
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        List<Issue> expectedErrors = new ArrayList<>();
+        List<Issue> expectedWarnings = new ArrayList<>();
+        ASTNode expected = parse(sourceMap, false, expectedErrors, expectedWarnings);
+        List<Issue> errorList = new ArrayList<>();
+        List<Issue> warningList = new ArrayList<>();
+        Program program = (Program) parse(sourceMap, true, errorList, warningList);
+
+        boolean deferred = true;
+        for (Stmt stmt : program.stmts) {
+            deferred &= !(stmt instanceof FnStmt fn) || !fn.isBodyParsed();
+        }
+        String result = dump(program); // 访问全部函数体
+        String issues = issues(errorList) + issues(warningList);
+        String expectedIssues = issues(expectedErrors) + issues(expectedWarnings);
+        boolean sameTree = !expectedErrors.isEmpty() || result.equals(dump(expected));
+        if (!deferred || !sameTree || !issues.equals(expectedIssues)) {
+            errorNum++;
+            Log.error(String.format("%s%s\n延迟解析函数体%s%s\n",
+                    Ansi.RED,
+                    abbreviate(source),
+                    !deferred ? "时解析了函数体" : !issues.equals(expectedIssues)
+                            ? "的问题与直接解析不同: " + issues + "\n期望: " + expectedIssues
+                            : "的语法树与直接解析不同",
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 启用deferBodies解析并访问全部函数体后，应有stmts个顶层语句与errors个错误
+    private void testDeferredRecovery(String source, int stmts, int errors) {
+        testNum++;
+        List<Issue> errorList = new ArrayList<>();
+        Program program = (Program) parse(manager.loadSourceMap(source), true, errorList, new ArrayList<>());
+        dump(program);
+        if (program.stmts.size() != stmts || errorList.size() != errors) {
+            errorNum++;
+            Log.error(String.format("%s%s\n延迟解析函数体: 期望%d个语句%d个错误，实际%d个语句%s%s\n",
+                    Ansi.RED,
+                    abbreviate(source),
+                    stmts,
+                    errors,
+                    program.stmts.size(),
+                    errorList,
+                    Ansi.DEFAULT
+            ));
+        }
+    }
+
+    // 启用deferBodies解析后逐行插入语句并增量解析，随机访问一部分函数体，每4次编辑与直接解析比较一次
+    private void testDeferredReparse(String source, int edits, long seed) {
+        String[] lines = {"y = 2\n", "fn g() {\n    q = 1\n    fn k() { w = 3 }\n}\n", "if a { fn m() {} }\n", "z = f()\n"};
+        Random random = new Random(seed);
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        Lexer lexer = new Lexer(new ArrayList<>(), new ArrayList<>());
+        TokenBuffer tokens = lexer.reset(sourceMap).tokenize();
+        List<Issue> errorList = new ArrayList<>();
+        Program program = (Program) new Parser(tokens, sourceMap, errorList, new ArrayList<>()).deferBodies(true).parse();
+        int forcedAfterEdit = 0;
+        for (int i = 0; i < edits; i++) {
+            String text = sourceMap.subString(0, sourceMap.length());
+            int offset = 0;
+            for (int line = random.nextInt(text.split("\n").length); line > 0; line--) {
+                offset = text.indexOf('\n', offset) + 1;
+            }
+            TextEdit edit = new TextEdit(offset, 0, lines[random.nextInt(lines.length)]);
+            sourceMap = manager.edit(sourceMap, edit);
+            tokens = lexer.relex(tokens, sourceMap, edit);
+            program = Parser.reparse(program, tokens, edit, errorList, new ArrayList<>()).program();
+            for (Stmt stmt : program.stmts) {
+                if (stmt instanceof FnStmt fn && !fn.isBodyParsed() && random.nextInt(4) == 0) {
+                    fn.body();
+                    forcedAfterEdit++;
+                }
+            }
+            if ((i + 1) % 4 != 0) continue;
+
+            testNum++;
+            ASTNode expected = parse(sourceMap, false, new ArrayList<>(), new ArrayList<>());
+            if (!dump(program).equals(dump(expected)) || !errorList.isEmpty()) {
+                errorNum++;
+                Log.error(String.format("%s%s\n第%d次编辑%s后延迟解析的函数体与直接解析不同%s%s\n",
+                        Ansi.RED,
+                        abbreviate(source),
+                        i + 1,
+                        edit,
+                        errorList.isEmpty() ? "" : ": " + errorList,
+                        Ansi.DEFAULT
+                ));
+                return;
+            }
+        }
+        testNum++;
+        if (forcedAfterEdit == 0) {
+            errorNum++;
+            Log.error(Ansi.RED + "增量解析后没有访问过延迟解析的函数体" + Ansi.DEFAULT + "\n");
+        }
+    }
+
+    private static ASTNode parse(SourceMapManager.SourceMap sourceMap, boolean deferBodies,
+                                 List<Issue> errorList, List<Issue> warningList) {
+        TokenBuffer tokens = new Lexer(errorList, warningList).reset(sourceMap).tokenize();
+        return new Parser(tokens, sourceMap, errorList, warningList).deferBodies(deferBodies).parse();
+    }
+
+    /* 问题的名称与指向的位置，按位置排序：延迟解析的函数体在访问时才报告，顺序与直接解析不同 */
+    private static String issues(List<Issue> issueList) {
+        List<String> list = new ArrayList<>();
+        for (Issue issue : issueList) {
+            StringBuilder sbd = new StringBuilder();
+            for (int i = 0; i < issue.labelCount(); i++) {
+                if (issue.isPoint(i)) sbd.append(PackedSpan.toString(issue.labelSpan(i)));
+            }
+            list.add(sbd.append(' ').append(issue.issueName()).toString());
+        }
+        Collections.sort(list);
+        return list.toString();
+    }
+
+    // count个各类顶层语句
+    private static String statements(int count) {
+        String[] templates = {"a%d = b + c * %d\n", "if a < b {\n    c = d - %d\n}\n", "while i < n%d {\n    i = i + 1\n}\n",
+                "fn f%d(x) -> y {\n    return x * %d\n}\n", "v = g() + h.k[%d]\n", "for x in a%d {\n    s = s + x\n}\n"};
+        StringBuilder sbd = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sbd.append(String.format(templates[i % templates.length], i, i));
+        }
+        return sbd.toString();
+    }
+
+    /* 全部标识符Token的literal都是驻留表中的规范实例 */
+    private static boolean isInterned(ASTNode root, IdentifierInterner interner) {
+        List<Object> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Object item = stack.remove(stack.size() - 1);
+            if (item instanceof Token token) {
+                if (token.type == TokenType.IDENTIFIER && token.literal != interner.name(interner.intern((String) token.literal))) {
+                    return false;
+                }
+            } else if (item instanceof List<?> list) {
+                stack.addAll(list);
+            } else if (item instanceof ASTNode node) {
+                Collections.addAll(stack, children(node));
+            }
+        }
+        return true;
+    }
+
+    Program parse(String source, int maxNesting, List<Issue> errorList) {
+        SourceMapManager.SourceMap sourceMap = manager.loadSourceMap(source);
+        TokenBuffer tokens = new Lexer(errorList, new ArrayList<>()).reset(sourceMap).tokenize();
+        return (Program) new Parser(tokens, sourceMap, errorList, new ArrayList<>()).maxNesting(maxNesting).parse();
+    }
+
+    /**
+     * 以前序列出节点的类型与Span、Token与列表长度，以显式栈遍历，不受嵌套深度限制
+     */
+    static String dump(ASTNode root) {
+        StringBuilder sbd = new StringBuilder();
+        List<Object> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Object item = stack.remove(stack.size() - 1);
+            if (item == null) {
+                sbd.append("null ");
+            } else if (item instanceof Token token) {
+                sbd.append(token).append(' ');
+            } else if (item instanceof List<?> list) {
+                sbd.append('[').append(list.size()).append(' ');
+                for (int i = list.size() - 1; i >= 0; i--) {
+                    stack.add(list.get(i));
+                }
+            } else {
+                ASTNode node = (ASTNode) item;
+                sbd.append(node.getClass().getSimpleName()).append(PackedSpan.toString(node.span)).append(' ');
+                Collections.addAll(stack, children(node));
+            }
+        }
+        return sbd.toString();
+    }
+
+    /* 子节点、Token与列表，逆序以便出栈时按顺序 */
+    private static Object[] children(ASTNode node) {
+        Object[] children;
+        if (node instanceof Program n) {
+            children = new Object[]{n.stmts};
+        } else if (node instanceof Block n) {
+            children = new Object[]{n.stmts};
+        } else if (node instanceof ExprStmt n) {
+            children = new Object[]{n.expr};
+        } else if (node instanceof IfStmt n) {
+            children = new Object[]{n.condition, n.thenBranch, n.elseBranch};
+        } else if (node instanceof ForStmt n) {
+            children = new Object[]{n.varDecl, n.expr, n.body};
+        } else if (node instanceof WhileStmt n) {
+            children = new Object[]{n.expr, n.body};
+        } else if (node instanceof FnStmt n) {
+            children = new Object[]{n.name, n.parameters, n.results, n.body()};
+        } else if (node instanceof ReturnStmt n) {
+            children = new Object[]{n.expr};
+        } else if (node instanceof AssignStmt n) {
+            children = new Object[]{n.var, n.operator, n.value};
+        } else if (node instanceof SetVarStmt n) {
+            children = new Object[]{n.var, n.assignStmt};
+        } else if (node instanceof Literal n) {
+            children = new Object[]{n.token};
+        } else if (node instanceof Identifier n) {
+            children = new Object[]{n.token};
+        } else if (node instanceof Unary n) {
+            children = new Object[]{n.operator, n.expr};
+        } else if (node instanceof Binary n) {
+            children = new Object[]{n.left, n.operator, n.right};
+        } else if (node instanceof Array n) {
+            children = new Object[]{n.elements};
+        } else if (node instanceof Index n) {
+            children = new Object[]{n.list, n.index};
+        } else if (node instanceof Range n) {
+            children = new Object[]{n.left, n.operator, n.right};
+        } else if (node instanceof Call n) {
+            children = new Object[]{n.callee, n.arguments};
+        } else if (node instanceof Get n) {
+            children = new Object[]{n.object, n.field};
+        } else {
+            children = new Object[0]; // BreakStmt ContinueStmt
+        }
+        Collections.reverse(Arrays.asList(children));
+        return children;
+    }
+
+    static String abbreviate(String source) {
+        return source.length() <= 80 ? source : source.substring(0, 80) + "...(" + source.length() + "个字符)";
+    }
+
+    private static void delete(Path directory) {
+        if (directory == null) return;
+        try (var walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            // 临时目录，忽略
+        }
+    }
+}
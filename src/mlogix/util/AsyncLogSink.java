@@ -0,0 +1,116 @@
+package mlogix.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * 异步批量输出的LogSink，Log的默认输出目标
+ * <p>
+ * 日志放入有界队列，由一个守护线程成批取出、拼接后一次写入out，
+ * 写入日志的线程不竞争out的锁，延迟构造的日志也在输出线程中构造；
+ * 队列满时写入日志的线程阻塞，输出速度受终端限制，内存有上限
+ */
+public final class AsyncLogSink implements LogSink {
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH_CHARS = 64 * 1024; /* 拼接超过此长度时先写入一次 */
+
+    private final PrintStream out;
+    private final BlockingQueue<Object> queue; /* String、Supplier或flush()等待的CountDownLatch */
+    private final Thread thread;
+
+    /**
+     * @param capacity 队列中最多等待输出的日志数
+     */
+    public AsyncLogSink(PrintStream out, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("队列容量至少为1: " + capacity);
+        }
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "mlogix-log");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "mlogix-log-flush")); // 退出前输出剩余的日志
+    }
+
+    @Override
+    public void write(Log.LogType type, String message) {
+        put(message);
+    }
+
+    @Override
+    public void write(Log.LogType type, Supplier<String> message) {
+        put(message);
+    }
+
+    @Override
+    public void flush() {
+        if (Thread.currentThread() == thread || !thread.isAlive()) return;
+        CountDownLatch latch = new CountDownLatch(1);
+        if (!put(latch)) return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /* 队列满时阻塞；等待时被中断则丢弃这条日志 */
+    private boolean put(Object item) {
+        try {
+            queue.put(item);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        StringBuilder sbd = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            for (Object item : batch) {
+                if (item instanceof CountDownLatch latch) {
+                    print(sbd);
+                    latch.countDown();
+                    continue;
+                }
+                if (item instanceof String message) {
+                    sbd.append(message);
+                } else {
+                    try {
+                        sbd.append(((Supplier<?>) item).get());
+                    } catch (RuntimeException e) {
+                        sbd.append("日志构造失败: ").append(e);
+                    }
+                }
+                sbd.append('\n');
+                if (sbd.length() >= MAX_BATCH_CHARS) print(sbd);
+            }
+            batch.clear();
+            print(sbd);
+        }
+    }
+
+    private void print(StringBuilder sbd) {
+        if (sbd.length() > 0) {
+            out.print(sbd);
+            sbd.setLength(0);
+        }
+        out.flush();
+    }
+}
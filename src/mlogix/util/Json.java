@@ -0,0 +1,35 @@
+package mlogix.util;
+
+import java.io.*;
+
+/**
+ * 写入JSON的工具方法，直接写入Writer，不拼接中间字符串
+ */
+public class Json {
+    private Json() {
+    }
+
+    /**
+     * 写入带引号的JSON字符串，无需转义的连续字符整段写入
+     */
+    public static void string(Writer out, String s) throws IOException {
+        out.write('"');
+        int from = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            out.write(s, from, i - from);
+            from = i + 1;
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> out.write(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.write(s, from, s.length() - from);
+        out.write('"');
+    }
+}
@@ -1,7 +1,16 @@
 package mlogix.util;
 
+import java.util.function.*;
+
+/**
+ * 日志经{@link LogSink}输出，默认为异步批量写入System.out的{@link AsyncLogSink}
+ * <p>
+ * 每个级别都有延迟构造的重载：Supplier与String.format格式，级别未启用时不构造日志；
+ * 直接写入System.out之前调用{@link #flush()}，以免与之前的日志交错
+ */
 public class Log {
     static public LogType level = LogType.INFO; // 最低日志等级
+    private static volatile LogSink sink = new AsyncLogSink(System.out, AsyncLogSink.DEFAULT_CAPACITY);
 
     public static boolean isAllowed(LogType type) {
         return level.ordinal() <= type.ordinal();
@@ -11,27 +20,85 @@ public class Log {
         level = type;
     }
 
+    /**
+     * 替换输出目标，之前的日志先全部输出
+     */
+    public static void setSink(LogSink newSink) {
+        sink.flush();
+        sink = newSink;
+    }
+
+    /**
+     * 等待之前的日志全部输出
+     */
+    public static void flush() {
+        sink.flush();
+    }
+
     public static void debug(String log) {
-        if (level.ordinal() <= LogType.DEBUG.ordinal()) {
-            System.out.println(log);
-        }
+        log(LogType.DEBUG, log);
+    }
+
+    public static void debug(Supplier<String> log) {
+        log(LogType.DEBUG, log);
+    }
+
+    public static void debug(String format, Object... args) {
+        log(LogType.DEBUG, format, args);
     }
 
     public static void info(String log) {
-        if (level.ordinal() <= LogType.INFO.ordinal()) {
-            System.out.println(log);
-        }
+        log(LogType.INFO, log);
+    }
+
+    public static void info(Supplier<String> log) {
+        log(LogType.INFO, log);
+    }
+
+    public static void info(String format, Object... args) {
+        log(LogType.INFO, format, args);
     }
 
     public static void warning(String log) {
-        if (level.ordinal() <= LogType.WARNING.ordinal()) {
-            System.out.println(log);
-        }
+        log(LogType.WARNING, log);
+    }
+
+    public static void warning(Supplier<String> log) {
+        log(LogType.WARNING, log);
+    }
+
+    public static void warning(String format, Object... args) {
+        log(LogType.WARNING, format, args);
     }
 
     public static void error(String log) {
-        if (level.ordinal() <= LogType.ERROR.ordinal()) {
-            System.out.println(log);
+        log(LogType.ERROR, log);
+    }
+
+    public static void error(Supplier<String> log) {
+        log(LogType.ERROR, log);
+    }
+
+    public static void error(String format, Object... args) {
+        log(LogType.ERROR, format, args);
+    }
+
+    private static void log(LogType type, String log) {
+        if (isAllowed(type)) {
+            sink.write(type, log);
+        }
+    }
+
+    private static void log(LogType type, Supplier<String> log) {
+        if (isAllowed(type)) {
+            sink.write(type, log);
+        }
+    }
+
+    /* 格式化延迟到sink构造日志时，args须在此之后不再改变 */
+    private static void log(LogType type, String format, Object... args) {
+        if (isAllowed(type)) {
+            sink.write(type, () -> String.format(format, args));
         }
     }
 
@@ -41,4 +108,4 @@ public class Log {
         WARNING,
         ERROR
     }
-}
\ No newline at end of file
+}
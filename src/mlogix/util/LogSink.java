@@ -0,0 +1,43 @@
+package mlogix.util;
+
+import java.io.*;
+import java.util.function.*;
+
+/**
+ * Log的输出目标，见{@link Log#setSink(LogSink)}
+ */
+public interface LogSink {
+    /**
+     * 写入一行日志，不含换行
+     */
+    void write(Log.LogType type, String message);
+
+    /**
+     * 写入一行延迟构造的日志，默认立即构造；异步的实现可以在输出线程中构造
+     */
+    default void write(Log.LogType type, Supplier<String> message) {
+        write(type, message.get());
+    }
+
+    /**
+     * 等待之前写入的日志全部输出，直接写入System.out等其他输出之前调用以保持顺序
+     */
+    void flush();
+
+    /**
+     * 在调用线程中直接逐行写入out
+     */
+    static LogSink direct(PrintStream out) {
+        return new LogSink() {
+            @Override
+            public void write(Log.LogType type, String message) {
+                out.println(message);
+            }
+
+            @Override
+            public void flush() {
+                out.flush();
+            }
+        };
+    }
+}